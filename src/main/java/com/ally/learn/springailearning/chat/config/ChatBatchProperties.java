@@ -0,0 +1,25 @@
+package com.ally.learn.springailearning.chat.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * @author cgl
+ * @description 批量聊天配置
+ * @date 2025-06-19
+ * @Version 1.0
+ **/
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.chat.batch")
+public class ChatBatchProperties {
+
+    private int maxItems = 1000;
+    private int defaultConcurrency = 8;
+    // 请求指定的并发数不能超过该值，上游调用仍受准入控制限制
+    private int maxConcurrency = 32;
+    private Duration itemTimeout = Duration.ofMinutes(2);
+}
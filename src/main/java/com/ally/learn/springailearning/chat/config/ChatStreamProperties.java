@@ -0,0 +1,48 @@
+package com.ally.learn.springailearning.chat.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * @author cgl
+ * @description 流式聊天配置
+ * @date 2025-06-16
+ * @Version 1.0
+ **/
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.chat.stream")
+public class ChatStreamProperties {
+
+    private Coalesce coalesce = new Coalesce();
+
+    private Resume resume = new Resume();
+
+    /**
+     * token合并配置：按时间窗口或字节数（先到为准）把多个增量合并为一个SSE帧，首个token始终立即发送
+     */
+    @Data
+    public static class Coalesce {
+        private boolean enabled = false;
+        private Duration window = Duration.ofMillis(50);
+        private int maxBytes = 512;
+    }
+
+    /**
+     * 可恢复流配置：模型生成与HTTP订阅解耦，事件写入按会话的有界回放缓冲区，断线后凭Last-Event-ID续传
+     */
+    @Data
+    public static class Resume {
+        // 每个会话要保留回放缓冲区，默认关闭，按需开启
+        private boolean enabled = false;
+        // 每个会话最多缓存的事件数
+        private int bufferSize = 1024;
+        // 单次生成的最长时间，超时后结束上游
+        private Duration maxDuration = Duration.ofMinutes(5);
+        // 生成结束后保留缓冲区的时间，供断线客户端续传尾部
+        private Duration retention = Duration.ofSeconds(60);
+    }
+}
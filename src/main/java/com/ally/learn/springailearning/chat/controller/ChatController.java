@@ -1,13 +1,28 @@
 package com.ally.learn.springailearning.chat.controller;
 
+import com.ally.learn.springailearning.chat.config.ChatStreamProperties;
+import com.ally.learn.springailearning.chat.dto.ChatBatchRequest;
+import com.ally.learn.springailearning.chat.dto.ChatBatchResult;
 import com.ally.learn.springailearning.chat.dto.ChatMessage;
+import com.ally.learn.springailearning.chat.service.ChatBatchService;
 import com.ally.learn.springailearning.chat.service.ChatService;
+import com.ally.learn.springailearning.chat.service.ChatStreamCoalescer;
+import com.ally.learn.springailearning.chat.service.ChatStreamRegistry;
+import com.ally.learn.springailearning.chat.service.CompactDeltaEncoder;
+import com.ally.learn.springailearning.common.service.ChatStreamMetrics;
 import com.ally.learn.springailearning.common.service.StreamControlService;
 import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.util.Map;
+
+import static org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE;
 import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
 
 /**
@@ -22,15 +37,116 @@ public class ChatController {
 
     private final ChatService chatService;
     private final StreamControlService streamControlService;
+    private final ChatStreamCoalescer chatStreamCoalescer;
+    private final CompactDeltaEncoder compactDeltaEncoder;
+    private final ChatStreamRegistry chatStreamRegistry;
+    private final ChatStreamProperties chatStreamProperties;
+    private final ChatStreamMetrics chatStreamMetrics;
+    private final ChatBatchService chatBatchService;
 
-    public ChatController(ChatService chatService, StreamControlService streamControlService) {
+    public ChatController(ChatService chatService, StreamControlService streamControlService,
+                          ChatStreamCoalescer chatStreamCoalescer, CompactDeltaEncoder compactDeltaEncoder,
+                          ChatStreamRegistry chatStreamRegistry, ChatStreamProperties chatStreamProperties,
+                          ChatStreamMetrics chatStreamMetrics, ChatBatchService chatBatchService) {
         this.chatService = chatService;
         this.streamControlService = streamControlService;
+        this.chatStreamCoalescer = chatStreamCoalescer;
+        this.compactDeltaEncoder = compactDeltaEncoder;
+        this.chatStreamRegistry = chatStreamRegistry;
+        this.chatStreamProperties = chatStreamProperties;
+        this.chatStreamMetrics = chatStreamMetrics;
+        this.chatBatchService = chatBatchService;
+    }
+
+    /**
+     * 非流式聊天：阻塞的模型调用在chat执行路径的调度器上运行，请求线程不等待
+     */
+    @PostMapping
+    public Mono<ResponseEntity<String>> chat(@RequestBody ChatMessage message) {
+        return chatService.chatAsync(message).map(ResponseEntity::ok);
     }
 
     @PostMapping(value = "/stream", produces = TEXT_EVENT_STREAM_VALUE)
-    public Flux<AssistantMessage> streamChat(@RequestBody ChatMessage message) {
-        return chatService.generateStream(message);
+    public Flux<ServerSentEvent<AssistantMessage>> streamChat(@RequestBody ChatMessage message) {
+        return recordFirstEvent(startStream(message).mapNotNull(this::toFullEvent), "full", message);
+    }
+
+    /**
+     * 紧凑格式的流式聊天（?format=compact），每个事件只包含增量文本、推理增量和最终usage
+     */
+    @PostMapping(value = "/stream", params = "format=compact", produces = TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> streamChatCompact(@RequestBody ChatMessage message) {
+        return recordFirstEvent(startStream(message)
+                .mapNotNull(event -> compactDeltaEncoder.encode(event.chatResponse(), event.id())), "compact", message);
+    }
+
+    /**
+     * 断线续传：重新接入会话进行中的生成，回放Last-Event-ID之后的事件；
+     * 其中部分事件已移出回放缓冲区时先发出gap事件（data为缺失的事件数）
+     */
+    @GetMapping(value = "/stream/resume", produces = TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<?>> resumeStream(
+            @RequestParam String chatSessionId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return chatStreamRegistry.resume(chatSessionId, lastEventId)
+                .mapNotNull(event -> event.isGap() ? toGapEvent(event) : toFullEvent(event));
+    }
+
+    @GetMapping(value = "/stream/resume", params = "format=compact", produces = TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> resumeStreamCompact(
+            @RequestParam String chatSessionId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return chatStreamRegistry.resume(chatSessionId, lastEventId)
+                .mapNotNull(event -> event.isGap()
+                        ? compactDeltaEncoder.encodeGap(event.missed())
+                        : compactDeltaEncoder.encode(event.chatResponse(), event.id()));
+    }
+
+    private Flux<ChatStreamRegistry.StreamEvent> startStream(ChatMessage message) {
+        Flux<ChatResponse> generation = chatStreamCoalescer.coalesce(chatService.generateChatResponseStream(message));
+        if (!chatStreamProperties.getResume().isEnabled() || !StringUtils.hasText(message.getChatSessionId())) {
+            return generation.map(chatResponse -> new ChatStreamRegistry.StreamEvent(null, chatResponse));
+        }
+        return chatStreamRegistry.start(message.getChatSessionId(), () -> generation);
+    }
+
+    /**
+     * 记录从收到请求到发出首个SSE事件的时间
+     */
+    private <T> Flux<T> recordFirstEvent(Flux<T> events, String format, ChatMessage message) {
+        boolean rag = StringUtils.hasText(message.getKnowledgeBaseId());
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            return events.switchOnFirst((signal, flux) -> {
+                if (signal.hasValue()) {
+                    chatStreamMetrics.recordFirstEvent(format, rag, System.nanoTime() - start);
+                }
+                return flux;
+            });
+        });
+    }
+
+    private ServerSentEvent<AssistantMessage> toFullEvent(ChatStreamRegistry.StreamEvent event) {
+        if (event.chatResponse().getResult() == null) {
+            return null;
+        }
+        return ServerSentEvent.builder(event.chatResponse().getResult().getOutput())
+                .id(event.id())
+                .build();
+    }
+
+    private ServerSentEvent<Map<String, Long>> toGapEvent(ChatStreamRegistry.StreamEvent event) {
+        return ServerSentEvent.builder(Map.of("missed", event.missed()))
+                .event(CompactDeltaEncoder.GAP_EVENT)
+                .build();
+    }
+
+    /**
+     * 批量聊天：有限并发执行，每条完成后立即以一行JSON返回
+     */
+    @PostMapping(value = "/batch", produces = APPLICATION_NDJSON_VALUE)
+    public Flux<ChatBatchResult> batchChat(@RequestBody ChatBatchRequest request) {
+        return chatBatchService.execute(request);
     }
 
     @PostMapping("/stop")
@@ -0,0 +1,32 @@
+package com.ally.learn.springailearning.chat.controller;
+
+import com.ally.learn.springailearning.common.repository.RedisChatMemoryRepository.ConversationPage;
+import com.ally.learn.springailearning.common.service.ConversationIndexService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * @author cgl
+ * @description 对话列表控制器，按最近活跃时间倒序分页
+ * @date 2025-06-23
+ * @Version 1.0
+ **/
+@RestController
+@RequestMapping("/api/chat/conversations")
+public class ConversationController {
+
+    private final ConversationIndexService conversationIndexService;
+
+    public ConversationController(ConversationIndexService conversationIndexService) {
+        this.conversationIndexService = conversationIndexService;
+    }
+
+    /**
+     * @param cursor 上一页返回的nextCursor，首页不传
+     */
+    @GetMapping
+    public ResponseEntity<ConversationPage> listConversations(@RequestParam(required = false) String cursor,
+                                                              @RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(conversationIndexService.listConversations(cursor, limit));
+    }
+}
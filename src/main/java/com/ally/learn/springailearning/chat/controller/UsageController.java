@@ -0,0 +1,63 @@
+package com.ally.learn.springailearning.chat.controller;
+
+import com.ally.learn.springailearning.common.service.UsageAccountingService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author cgl
+ * @description token用量查询控制器，数据最多滞后一个刷新间隔
+ * @date 2025-06-19
+ * @Version 1.0
+ **/
+@RestController
+@RequestMapping("/api/chat/usage")
+public class UsageController {
+
+    private final UsageAccountingService usageAccountingService;
+
+    public UsageController(UsageAccountingService usageAccountingService) {
+        this.usageAccountingService = usageAccountingService;
+    }
+
+    /**
+     * 会话累计用量
+     */
+    @GetMapping("/sessions/{sessionId}")
+    public ResponseEntity<Map<String, Long>> getSessionUsage(@PathVariable String sessionId) {
+        return ResponseEntity.ok(usageAccountingService.getUsage(UsageAccountingService.DIMENSION_SESSION, sessionId));
+    }
+
+    /**
+     * 知识库累计用量
+     */
+    @GetMapping("/knowledge-bases/{knowledgeBaseId}")
+    public ResponseEntity<Map<String, Long>> getKnowledgeBaseUsage(@PathVariable String knowledgeBaseId) {
+        return ResponseEntity.ok(usageAccountingService.getUsage(UsageAccountingService.DIMENSION_KNOWLEDGE_BASE,
+                knowledgeBaseId));
+    }
+
+    /**
+     * 模型累计用量
+     */
+    @GetMapping("/models/{model}")
+    public ResponseEntity<Map<String, Long>> getModelUsage(@PathVariable String model) {
+        return ResponseEntity.ok(usageAccountingService.getUsage(UsageAccountingService.DIMENSION_MODEL, model));
+    }
+
+    /**
+     * 用量排行
+     * @param dimension session或kb
+     * @param metric prompt或total
+     */
+    @GetMapping("/top")
+    public ResponseEntity<List<Map<String, Object>>> getTop(
+            @RequestParam(defaultValue = UsageAccountingService.DIMENSION_SESSION) String dimension,
+            @RequestParam(defaultValue = UsageAccountingService.FIELD_PROMPT) String metric,
+            @RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(usageAccountingService.getTop(dimension, metric, limit));
+    }
+}
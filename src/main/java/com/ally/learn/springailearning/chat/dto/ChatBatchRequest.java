@@ -0,0 +1,17 @@
+package com.ally.learn.springailearning.chat.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * @author cgl
+ * @description 批量聊天请求DTO
+ * @date 2025-06-19
+ * @Version 1.0
+ **/
+@Data
+public class ChatBatchRequest {
+    private List<ChatMessage> items;
+    private Integer concurrency; // 并发数，为空时使用默认值
+}
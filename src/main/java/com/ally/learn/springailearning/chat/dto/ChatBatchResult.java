@@ -0,0 +1,22 @@
+package com.ally.learn.springailearning.chat.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @author cgl
+ * @description 批量聊天单条结果，按完成顺序以NDJSON逐行返回，index对应请求中的位置
+ * @date 2025-06-19
+ * @Version 1.0
+ **/
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatBatchResult {
+    private int index;
+    private String chatSessionId;
+    private String content;
+    private String error;
+    private long durationMillis;
+}
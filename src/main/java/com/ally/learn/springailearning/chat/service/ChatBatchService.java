@@ -0,0 +1,104 @@
+package com.ally.learn.springailearning.chat.service;
+
+import com.ally.learn.springailearning.chat.config.ChatBatchProperties;
+import com.ally.learn.springailearning.chat.dto.ChatBatchRequest;
+import com.ally.learn.springailearning.chat.dto.ChatBatchResult;
+import com.ally.learn.springailearning.chat.dto.ChatMessage;
+import com.ally.learn.springailearning.common.config.ExecutionSchedulers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author cgl
+ * @description 批量聊天服务：以有限并发执行多条非流式聊天（经过同一条advisor链），按完成顺序返回结果；
+ * 同一批次内知识库和问题都相同的条目共享一次检索；未指定会话ID的条目不读写聊天记忆
+ * @date 2025-06-19
+ * @Version 1.0
+ **/
+@Service
+public class ChatBatchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatBatchService.class);
+
+    private final ChatService chatService;
+    private final ChatBatchProperties properties;
+    private final Scheduler chatScheduler;
+
+    public ChatBatchService(ChatService chatService, ChatBatchProperties properties,
+                            ExecutionSchedulers executionSchedulers) {
+        this.chatService = chatService;
+        this.properties = properties;
+        this.chatScheduler = executionSchedulers.scheduler(ExecutionSchedulers.Path.CHAT);
+    }
+
+    public Flux<ChatBatchResult> execute(ChatBatchRequest request) {
+        List<ChatMessage> items = request.getItems();
+        if (items == null || items.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "批量请求不能为空");
+        }
+        if (items.size() > properties.getMaxItems()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "批量请求最多" + properties.getMaxItems() + "条");
+        }
+        int concurrency = request.getConcurrency() != null
+                ? Math.max(1, Math.min(request.getConcurrency(), properties.getMaxConcurrency()))
+                : properties.getDefaultConcurrency();
+        String batchId = UUID.randomUUID().toString();
+        // 批次内共享的检索结果，key为知识库ID和问题
+        Map<String, Mono<List<Document>>> retrievals = new ConcurrentHashMap<>();
+        logger.info("Starting chat batch {} with {} items, concurrency {}", batchId, items.size(), concurrency);
+
+        return Flux.range(0, items.size())
+                .flatMap(index -> executeItem(index, items.get(index), retrievals),
+                        concurrency)
+                .doOnComplete(() -> logger.info("Chat batch {} completed", batchId));
+    }
+
+    private Mono<ChatBatchResult> executeItem(int index, ChatMessage message,
+                                              Map<String, Mono<List<Document>>> retrievals) {
+        return Mono.defer(() -> {
+            long start = System.currentTimeMillis();
+            // 模型调用在chat调度器上订阅，超时取消订阅时中断调用线程，不会在超时后继续占用线程和配额
+            return retrieve(message, retrievals)
+                    .flatMap(documents -> chatService.chatAsync(message, documents))
+                    .timeout(properties.getItemTimeout())
+                    .map(content -> new ChatBatchResult(index, message.getChatSessionId(), content, null,
+                            System.currentTimeMillis() - start))
+                    .onErrorResume(e -> {
+                        logger.warn("Chat batch item {} failed", index, e);
+                        return Mono.just(new ChatBatchResult(index, message.getChatSessionId(), null,
+                                e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName(),
+                                System.currentTimeMillis() - start));
+                    });
+        });
+    }
+
+    /**
+     * 检索失败时按空列表缓存：同一查询不再反复重试，RetrievalAdvisor看到空列表也不会再检索，直接不带知识库上下文回答
+     */
+    private Mono<List<Document>> retrieve(ChatMessage message, Map<String, Mono<List<Document>>> retrievals) {
+        if (!StringUtils.hasText(message.getKnowledgeBaseId())) {
+            return Mono.just(List.of());
+        }
+        String key = message.getKnowledgeBaseId() + "\n" + message.getPrompt();
+        return retrievals.computeIfAbsent(key, k -> Mono.fromCallable(() -> {
+                    List<Document> documents = chatService.retrieveDocuments(message);
+                    return documents != null ? documents : List.<Document>of();
+                })
+                .subscribeOn(chatScheduler)
+                .cache());
+    }
+}
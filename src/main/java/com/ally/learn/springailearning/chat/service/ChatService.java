@@ -1,31 +1,32 @@
 package com.ally.learn.springailearning.chat.service;
 
 import com.ally.learn.springailearning.chat.dto.ChatMessage;
+import com.ally.learn.springailearning.common.advisor.ChatContextKeys;
+import com.ally.learn.springailearning.common.config.ExecutionSchedulers;
+import com.ally.learn.springailearning.rag.config.RagProperties;
 import com.ally.learn.springailearning.rag.service.KnowledgeBaseService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.ai.deepseek.DeepSeekChatOptions;
 import org.springframework.ai.deepseek.api.DeepSeekApi;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * @author cgl
- * @description 聊天服务，支持RAG
+ * @description 聊天服务，支持RAG（检索由RetrievalAdvisor在advisor链中完成，每个请求只检索一次）
  * @date 2025-06-13
  * @Version 1.0
  **/
@@ -36,89 +37,62 @@ public class ChatService {
 
     private final ChatClient chatClient;
     private final KnowledgeBaseService knowledgeBaseService;
+    private final RagProperties ragProperties;
+    private final Scheduler chatScheduler;
 
-    // RAG提示模板
-    private static final String RAG_PROMPT_TEMPLATE = """
-            请基于以下提供的上下文信息来回答用户的问题。如果上下文信息中没有相关内容，请明确说明无法基于提供的信息回答。
-            
-            上下文信息：
-            {context}
-            
-            用户问题：{question}
-            
-            请提供准确、有用的回答：
-            """;
-
-    public ChatService(ChatClient chatClient, KnowledgeBaseService knowledgeBaseService) {
+    public ChatService(ChatClient chatClient, KnowledgeBaseService knowledgeBaseService, RagProperties ragProperties,
+                       ExecutionSchedulers executionSchedulers) {
         this.chatClient = chatClient;
         this.knowledgeBaseService = knowledgeBaseService;
+        this.ragProperties = ragProperties;
+        this.chatScheduler = executionSchedulers.scheduler(ExecutionSchedulers.Path.CHAT);
     }
 
     /**
      * 生成流式聊天回复
      */
     public Flux<AssistantMessage> generateStream(ChatMessage message) {
+        return generateChatResponseStream(message)
+                .map(chatResponse -> chatResponse.getResult().getOutput());
+    }
+
+    /**
+     * 生成流式聊天回复，保留完整的ChatResponse（含usage、finishReason等元数据）
+     */
+    public Flux<ChatResponse> generateChatResponseStream(ChatMessage message) {
         Boolean thinkingMode = message.getThinkingMode();
-        String finalPrompt = buildPromptWithRAG(message);
 
         return chatClient.prompt(new Prompt(message.getPrompt()))
                 .options(DeepSeekChatOptions.builder()
                         .model(thinkingMode ? DeepSeekApi.ChatModel.DEEPSEEK_REASONER.value : DeepSeekApi.ChatModel.DEEPSEEK_CHAT.value)
                         .build())
                 .advisors(a -> a.param(ChatMemory.CONVERSATION_ID, message.getChatSessionId()))
-                .advisors(a -> a.param(QuestionAnswerAdvisor.FILTER_EXPRESSION, "knowledge_base_id=" + message.getKnowledgeBaseId()))
-                .stream().chatResponse()
-                .map(chatResponse -> chatResponse.getResult().getOutput());
+                .advisors(a -> {
+                    if (StringUtils.hasText(message.getKnowledgeBaseId())) {
+                        a.param(ChatContextKeys.KNOWLEDGE_BASE_ID, message.getKnowledgeBaseId());
+                    }
+                })
+                .stream().chatResponse();
     }
 
     /**
-     * 构建包含RAG上下文的提示
+     * 检索知识库文档，供需要在多个请求间共享检索结果的调用方使用
+     * @return 未指定知识库时返回空列表，检索失败时返回null
      */
-    private String buildPromptWithRAG(ChatMessage message) {
-        String originalPrompt = message.getPrompt();
-        
-        // 如果没有指定知识库，直接返回原始提示
+    public List<Document> retrieveDocuments(ChatMessage message) {
         if (!StringUtils.hasText(message.getKnowledgeBaseId())) {
-            return originalPrompt;
+            return List.of();
         }
-
         try {
-            // 执行向量搜索
-            SearchRequest searchRequest = SearchRequest.builder().query(originalPrompt).topK(5).similarityThreshold(0.7).build();
-            List<Document> searchResults = knowledgeBaseService.search(searchRequest, message.getKnowledgeBaseId());
-            
-            if (searchResults.isEmpty()) {
-                logger.info("No relevant documents found for query: {}", originalPrompt);
-                return originalPrompt + "\n\n注：未在知识库中找到相关信息，以下回答基于模型的通用知识。";
-            }
-
-            // 构建上下文
-            String context = searchResults.stream()
-                    .map(doc -> {
-                        String content = doc.getFormattedContent();
-                        String source = doc.getMetadata().getOrDefault("document_name", "未知来源").toString();
-                        return String.format("来源：%s\n内容：%s", source, content);
-                    })
-                    .collect(Collectors.joining("\n\n---\n\n"));
-
-            // 使用RAG模板构建最终提示
-            PromptTemplate promptTemplate = new PromptTemplate(RAG_PROMPT_TEMPLATE);
-            Map<String, Object> promptVariables = Map.of(
-                    "context", context,
-                    "question", originalPrompt
-            );
-
-            String ragPrompt = promptTemplate.render(promptVariables);
-            
-            logger.info("Built RAG prompt with {} context documents for knowledge base: {}", 
-                    searchResults.size(), message.getKnowledgeBaseId());
-            
-            return ragPrompt;
-
+            SearchRequest searchRequest = SearchRequest.builder()
+                    .query(message.getPrompt())
+                    .topK(ragProperties.getDefaultTopK())
+                    .similarityThreshold(ragProperties.getDefaultThreshold())
+                    .build();
+            return knowledgeBaseService.search(searchRequest, message.getKnowledgeBaseId());
         } catch (Exception e) {
-            logger.error("Failed to build RAG context for knowledge base: {}", message.getKnowledgeBaseId(), e);
-            // 如果RAG处理失败，回退到原始提示
-            return originalPrompt + "\n\n注：知识库搜索失败，以下回答基于模型的通用知识。";
+            logger.error("Failed to search knowledge base: {}", message.getKnowledgeBaseId(), e);
+            return null;
         }
     }
 
@@ -126,15 +100,51 @@ public class ChatService {
      * 非流式聊天（用于简单对话）
      */
     public String chat(ChatMessage message) {
+        return chat(message, null);
+    }
+
+    /**
+     * 使用已检索的文档进行非流式聊天，批量接口中相同知识库查询的请求共享同一次检索；
+     * 未指定会话ID时不读写聊天记忆
+     * @param documents 为null时由RetrievalAdvisor检索，空列表表示不带知识库上下文回答
+     */
+    public String chat(ChatMessage message, List<Document> documents) {
         Boolean thinkingMode = message.getThinkingMode();
-        String finalPrompt = buildPromptWithRAG(message);
         
-        return chatClient.prompt(new Prompt(finalPrompt))
+        return chatClient.prompt(new Prompt(message.getPrompt()))
                 .options(DeepSeekChatOptions.builder()
-                        .model(thinkingMode ? DeepSeekApi.ChatModel.DEEPSEEK_REASONER.value : DeepSeekApi.ChatModel.DEEPSEEK_CHAT.value)
+                        .model(Boolean.TRUE.equals(thinkingMode) ? DeepSeekApi.ChatModel.DEEPSEEK_REASONER.value : DeepSeekApi.ChatModel.DEEPSEEK_CHAT.value)
                         .build())
-                .advisors(a -> a.param(ChatMemory.CONVERSATION_ID, message.getChatSessionId()))
+                .advisors(a -> {
+                    if (StringUtils.hasText(message.getChatSessionId())) {
+                        a.param(ChatMemory.CONVERSATION_ID, message.getChatSessionId());
+                    } else {
+                        a.param(ChatContextKeys.SKIP_MEMORY, Boolean.TRUE);
+                    }
+                })
+                .advisors(a -> {
+                    if (StringUtils.hasText(message.getKnowledgeBaseId())) {
+                        a.param(ChatContextKeys.KNOWLEDGE_BASE_ID, message.getKnowledgeBaseId());
+                        if (documents != null) {
+                            a.param(ChatContextKeys.RETRIEVED_DOCUMENTS, documents);
+                        }
+                    }
+                })
                 .call()
                 .content();
     }
+
+    /**
+     * 非流式聊天的异步版本，阻塞调用在chat执行路径的调度器（boundedElastic或虚拟线程）上运行
+     */
+    public Mono<String> chatAsync(ChatMessage message) {
+        return chatAsync(message, null);
+    }
+
+    /**
+     * 使用已检索文档的异步版本，取消订阅（如超时）会中断正在执行的模型调用
+     */
+    public Mono<String> chatAsync(ChatMessage message, List<Document> documents) {
+        return Mono.fromCallable(() -> chat(message, documents)).subscribeOn(chatScheduler);
+    }
 } 
\ No newline at end of file
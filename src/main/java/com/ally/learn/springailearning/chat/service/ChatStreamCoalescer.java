@@ -0,0 +1,198 @@
+package com.ally.learn.springailearning.chat.service;
+
+import com.ally.learn.springailearning.chat.config.ChatStreamProperties;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.deepseek.DeepSeekAssistantMessage;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author cgl
+ * @description 流式增量合并器：按时间窗口或字节数（先到为准）把多个模型增量合并为一帧，减少SSE写入和flush次数
+ * 首个有内容的增量立即发送，之前的空增量透传，不影响首token延迟
+ * @date 2025-06-16
+ * @Version 1.0
+ **/
+@Component
+public class ChatStreamCoalescer {
+
+    private final ChatStreamProperties properties;
+
+    public ChatStreamCoalescer(ChatStreamProperties properties) {
+        this.properties = properties;
+    }
+
+    public Flux<ChatResponse> coalesce(Flux<ChatResponse> source) {
+        ChatStreamProperties.Coalesce coalesce = properties.getCoalesce();
+        if (!coalesce.isEnabled()) {
+            return source;
+        }
+        return coalesce(source, coalesce.getWindow(), coalesce.getMaxBytes());
+    }
+
+    public Flux<ChatResponse> coalesce(Flux<ChatResponse> source, Duration window, int maxBytes) {
+        return Flux.create(sink -> {
+            Batch batch = new Batch(sink, window, maxBytes, Schedulers.parallel());
+            Disposable upstream = source.subscribe(batch::add,
+                    error -> {
+                        batch.flush();
+                        sink.error(error);
+                    },
+                    () -> {
+                        batch.flush();
+                        sink.complete();
+                    });
+            sink.onDispose(() -> {
+                batch.dispose();
+                upstream.dispose();
+            });
+        });
+    }
+
+    /**
+     * 当前窗口内待发送的增量，所有方法在batch锁内执行
+     */
+    private static final class Batch {
+
+        private final FluxSink<ChatResponse> sink;
+        private final Duration window;
+        private final int maxBytes;
+        private final Scheduler scheduler;
+
+        private final StringBuilder text = new StringBuilder();
+        private final StringBuilder reasoning = new StringBuilder();
+        private ChatResponse single;
+        private ChatResponse lastResponse;
+        private Generation lastGeneration;
+        private int pendingCount;
+        private int pendingBytes;
+        private boolean firstEmitted;
+        private Disposable scheduledFlush;
+
+        private Batch(FluxSink<ChatResponse> sink, Duration window, int maxBytes, Scheduler scheduler) {
+            this.sink = sink;
+            this.window = window;
+            this.maxBytes = maxBytes;
+            this.scheduler = scheduler;
+        }
+
+        synchronized void add(ChatResponse chatResponse) {
+            // 首个有内容的增量之前的空增量（如只带角色的首帧）直接透传，不占用首token的立即发送
+            if (!firstEmitted) {
+                firstEmitted = hasContent(chatResponse);
+                sink.next(chatResponse);
+                return;
+            }
+            append(chatResponse);
+            if (pendingBytes >= maxBytes) {
+                flush();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush, window.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private static boolean hasContent(ChatResponse chatResponse) {
+            Generation generation = chatResponse.getResult();
+            if (generation == null) {
+                return false;
+            }
+            AssistantMessage output = generation.getOutput();
+            if (output.getText() != null && !output.getText().isEmpty()) {
+                return true;
+            }
+            return output instanceof DeepSeekAssistantMessage deepSeekMessage
+                    && deepSeekMessage.getReasoningContent() != null
+                    && !deepSeekMessage.getReasoningContent().isEmpty();
+        }
+
+        private void append(ChatResponse chatResponse) {
+            pendingCount++;
+            single = pendingCount == 1 ? chatResponse : null;
+            lastResponse = chatResponse;
+            Generation generation = chatResponse.getResult();
+            if (generation == null) {
+                return;
+            }
+            lastGeneration = generation;
+            AssistantMessage output = generation.getOutput();
+            if (output.getText() != null) {
+                text.append(output.getText());
+                pendingBytes += utf8Length(output.getText());
+            }
+            if (output instanceof DeepSeekAssistantMessage deepSeekMessage
+                    && deepSeekMessage.getReasoningContent() != null) {
+                reasoning.append(deepSeekMessage.getReasoningContent());
+                pendingBytes += utf8Length(deepSeekMessage.getReasoningContent());
+            }
+        }
+
+        synchronized void flush() {
+            if (scheduledFlush != null) {
+                scheduledFlush.dispose();
+                scheduledFlush = null;
+            }
+            if (pendingCount == 0) {
+                return;
+            }
+            sink.next(single != null ? single : merged());
+            text.setLength(0);
+            reasoning.setLength(0);
+            single = null;
+            lastResponse = null;
+            lastGeneration = null;
+            pendingCount = 0;
+            pendingBytes = 0;
+        }
+
+        synchronized void dispose() {
+            if (scheduledFlush != null) {
+                scheduledFlush.dispose();
+                scheduledFlush = null;
+            }
+        }
+
+        private ChatResponse merged() {
+            Map<String, Object> metadata = lastGeneration != null
+                    ? lastGeneration.getOutput().getMetadata() : Map.of();
+            ChatGenerationMetadata generationMetadata = lastGeneration != null
+                    ? lastGeneration.getMetadata() : ChatGenerationMetadata.NULL;
+            AssistantMessage message;
+            if (reasoning.length() > 0) {
+                DeepSeekAssistantMessage deepSeekAssistantMessage = new DeepSeekAssistantMessage(text.toString(), metadata);
+                deepSeekAssistantMessage.setReasoningContent(reasoning.toString());
+                message = deepSeekAssistantMessage;
+            } else {
+                message = new AssistantMessage(text.toString(), metadata);
+            }
+            return new ChatResponse(List.of(new Generation(message, generationMetadata)), lastResponse.getMetadata());
+        }
+
+        private static int utf8Length(String s) {
+            int bytes = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    bytes += 1;
+                } else if (c < 0x800 || Character.isSurrogate(c)) {
+                    // 代理对两个char共4字节
+                    bytes += 2;
+                } else {
+                    bytes += 3;
+                }
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.ally.learn.springailearning.chat.service;
+
+import com.ally.learn.springailearning.chat.config.ChatStreamProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * @author cgl
+ * @description 可恢复流注册表：按会话保存进行中的生成，模型调用与HTTP订阅解耦，
+ * 事件带ID写入有界回放缓冲区，客户端断线重连时凭Last-Event-ID回放遗漏的事件并继续接收实时事件。
+ * 上游在StreamControlService.cancelStream或超过最长时间后结束
+ * @date 2025-06-16
+ * @Version 1.0
+ **/
+@Service
+public class ChatStreamRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatStreamRegistry.class);
+
+    private final ChatStreamProperties properties;
+    private final ConcurrentHashMap<String, LiveStream> liveStreams = new ConcurrentHashMap<>();
+    private final AtomicLong streamIdGenerator = new AtomicLong();
+
+    public ChatStreamRegistry(ChatStreamProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 启动会话的新生成并返回其事件流；同一会话已有的生成会被替换并停止
+     */
+    public Flux<StreamEvent> start(String sessionId, Supplier<Flux<ChatResponse>> generation) {
+        ChatStreamProperties.Resume resume = properties.getResume();
+        LiveStream liveStream = new LiveStream(streamIdGenerator.incrementAndGet(), resume.getBufferSize());
+        LiveStream previous = liveStreams.put(sessionId, liveStream);
+        if (previous != null) {
+            logger.info("Replacing in-flight stream {} for session: {}", previous.streamId, sessionId);
+            previous.dispose();
+        }
+
+        // 并发的替换可能在订阅前已经停止了这次生成，此时不再调用模型；
+        // 订阅与停止交错时，Swap保证后设置的上游也会被立即释放
+        if (!liveStream.upstream.isDisposed()) {
+            Flux<ChatResponse> upstream;
+            try {
+                upstream = generation.get();
+            } catch (RuntimeException e) {
+                // 组装生成失败时把错误交给订阅者，并立即移除注册，不留下永远不会结束的流
+                liveStream.error(e);
+                liveStreams.remove(sessionId, liveStream);
+                return liveStream.events(null);
+            }
+            liveStream.upstream.update(upstream
+                    .take(resume.getMaxDuration())
+                    .doFinally(signalType -> scheduleRemoval(sessionId, liveStream, resume))
+                    .subscribe(liveStream::emit, liveStream::error, liveStream::complete));
+        }
+        return liveStream.events(null);
+    }
+
+    /**
+     * 重新接入会话正在进行（或刚结束、仍在保留期内）的生成，回放lastEventId之后的事件
+     * @param lastEventId 客户端最后收到的事件ID，为空时回放缓冲区中的全部事件
+     */
+    public Flux<StreamEvent> resume(String sessionId, String lastEventId) {
+        LiveStream liveStream = liveStreams.get(sessionId);
+        if (liveStream == null) {
+            logger.debug("No resumable stream for session: {}", sessionId);
+            return Flux.empty();
+        }
+        return liveStream.events(lastEventId);
+    }
+
+    private void scheduleRemoval(String sessionId, LiveStream liveStream, ChatStreamProperties.Resume resume) {
+        Schedulers.parallel().schedule(() -> liveStreams.remove(sessionId, liveStream),
+                resume.getRetention().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 带ID的流事件，ID格式为{streamId}-{sequence}
+     * @param missed 大于0时为缺口事件：重连点之后有这么多事件已被移出回放缓冲区，不带ID和响应
+     */
+    public record StreamEvent(String id, ChatResponse chatResponse, long missed) {
+
+        public StreamEvent(String id, ChatResponse chatResponse) {
+            this(id, chatResponse, 0);
+        }
+
+        static StreamEvent gap(long missed) {
+            return new StreamEvent(null, null, missed);
+        }
+
+        public boolean isGap() {
+            return missed > 0;
+        }
+    }
+
+    private static final class LiveStream {
+
+        private final long streamId;
+        // replay sink自带有界回放：新订阅者先收到最近bufferSize个事件，再无缝接收实时事件
+        private final Sinks.Many<StreamEvent> sink;
+        private long sequence;
+        private final Disposable.Swap upstream = Disposables.swap();
+
+        private LiveStream(long streamId, int bufferSize) {
+            this.streamId = streamId;
+            this.sink = Sinks.many().replay().limit(bufferSize);
+        }
+
+        // 上游串行发出信号，单生产者无需额外同步
+        private void emit(ChatResponse chatResponse) {
+            sink.tryEmitNext(new StreamEvent(streamId + "-" + (++sequence), chatResponse));
+        }
+
+        private void error(Throwable error) {
+            logger.error("Resumable stream {} failed", streamId, error);
+            sink.tryEmitError(error);
+        }
+
+        private void complete() {
+            sink.tryEmitComplete();
+        }
+
+        private void dispose() {
+            upstream.dispose();
+            sink.tryEmitComplete();
+        }
+
+        /**
+         * 重连点之后的事件已有部分被移出回放缓冲区时，先发出缺口事件，客户端据此重置，而不是拼接出不连续的内容
+         */
+        private Flux<StreamEvent> events(String lastEventId) {
+            long lastSequence = parseSequence(lastEventId);
+            Flux<StreamEvent> events = lastSequence <= 0
+                    ? sink.asFlux()
+                    : sink.asFlux().filter(event -> parseSequence(event.id()) > lastSequence);
+            return events.switchOnFirst((signal, flux) -> {
+                if (signal.hasValue()) {
+                    long missed = parseSequence(signal.get().id()) - lastSequence - 1;
+                    if (missed > 0) {
+                        return Flux.concat(Flux.just(StreamEvent.gap(missed)), flux);
+                    }
+                }
+                return flux;
+            });
+        }
+
+        /**
+         * 解析事件序号；属于其他生成的事件ID视为0，即回放全部缓冲事件
+         */
+        private long parseSequence(String eventId) {
+            if (!StringUtils.hasText(eventId)) {
+                return 0;
+            }
+            int separator = eventId.indexOf('-');
+            if (separator <= 0) {
+                return 0;
+            }
+            try {
+                if (Long.parseLong(eventId.substring(0, separator)) != streamId) {
+                    return 0;
+                }
+                return Long.parseLong(eventId.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+}
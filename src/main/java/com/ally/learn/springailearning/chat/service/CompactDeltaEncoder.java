@@ -0,0 +1,133 @@
+package com.ally.learn.springailearning.chat.service;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.deepseek.DeepSeekAssistantMessage;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * @author cgl
+ * @description 紧凑增量编码器：每个SSE事件只携带增量文本、推理增量以及结束时的usage/finishReason，
+ * 直接拼接JSON字符串，避免每个token都经过Jackson反射序列化整个AssistantMessage
+ * <pre>
+ * event: delta   data: {"d":"文本增量","r":"推理增量"}
+ * event: finish  data: {"d":"...","f":"STOP","u":{"p":12,"c":34,"t":46}}
+ * event: gap     data: {"m":5}   （续传时缺失的事件数，客户端应丢弃已拼接的内容后重新开始）
+ * </pre>
+ * @date 2025-06-16
+ * @Version 1.0
+ **/
+@Component
+public class CompactDeltaEncoder {
+
+    public static final String DELTA_EVENT = "delta";
+    public static final String FINISH_EVENT = "finish";
+    public static final String GAP_EVENT = "gap";
+
+    /**
+     * 编码单个响应，没有任何增量且未结束的响应返回null
+     * @param eventId SSE事件ID，可为空
+     */
+    public ServerSentEvent<String> encode(ChatResponse chatResponse, String eventId) {
+        Generation generation = chatResponse.getResult();
+        String text = null;
+        String reasoning = null;
+        String finishReason = null;
+        if (generation != null) {
+            AssistantMessage output = generation.getOutput();
+            text = output.getText();
+            if (output instanceof DeepSeekAssistantMessage deepSeekMessage) {
+                reasoning = deepSeekMessage.getReasoningContent();
+            }
+            if (generation.getMetadata() != null) {
+                finishReason = generation.getMetadata().getFinishReason();
+            }
+        }
+        boolean finished = StringUtils.hasText(finishReason);
+        if (!finished && !StringUtils.hasLength(text) && !StringUtils.hasLength(reasoning)) {
+            return null;
+        }
+
+        StringBuilder json = new StringBuilder(32 + length(text) + length(reasoning));
+        json.append('{');
+        boolean first = true;
+        if (StringUtils.hasLength(text)) {
+            first = appendField(json, "d", text, first);
+        }
+        if (StringUtils.hasLength(reasoning)) {
+            first = appendField(json, "r", reasoning, first);
+        }
+        if (finished) {
+            first = appendField(json, "f", finishReason, first);
+            Usage usage = chatResponse.getMetadata() != null ? chatResponse.getMetadata().getUsage() : null;
+            if (usage != null) {
+                if (!first) {
+                    json.append(',');
+                }
+                json.append("\"u\":{\"p\":").append(orZero(usage.getPromptTokens()))
+                        .append(",\"c\":").append(orZero(usage.getCompletionTokens()))
+                        .append(",\"t\":").append(orZero(usage.getTotalTokens()))
+                        .append('}');
+            }
+        }
+        json.append('}');
+
+        return ServerSentEvent.<String>builder()
+                .id(eventId)
+                .event(finished ? FINISH_EVENT : DELTA_EVENT)
+                .data(json.toString())
+                .build();
+    }
+
+    /**
+     * 编码续传缺口事件，不带ID，客户端的Last-Event-ID保持不变
+     */
+    public ServerSentEvent<String> encodeGap(long missed) {
+        return ServerSentEvent.<String>builder()
+                .event(GAP_EVENT)
+                .data("{\"m\":" + missed + "}")
+                .build();
+    }
+
+    private static boolean appendField(StringBuilder json, String name, String value, boolean first) {
+        if (!first) {
+            json.append(',');
+        }
+        json.append('"').append(name).append("\":\"");
+        escape(json, value);
+        json.append('"');
+        return false;
+    }
+
+    private static void escape(StringBuilder json, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    private static int orZero(Integer value) {
+        return value != null ? value : 0;
+    }
+}
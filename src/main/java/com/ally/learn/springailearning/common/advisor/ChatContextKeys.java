@@ -0,0 +1,44 @@
+package com.ally.learn.springailearning.common.advisor;
+
+/**
+ * @author cgl
+ * @description advisor上下文中使用的自定义key
+ * @date 2025-06-17
+ * @Version 1.0
+ **/
+public final class ChatContextKeys {
+
+    /**
+     * 本次请求使用的知识库ID，未使用知识库时不设置
+     */
+    public static final String KNOWLEDGE_BASE_ID = "chat_knowledge_base_id";
+
+    /**
+     * 本次请求检索到的知识库文档（List<Document>），由RetrievalAdvisor写入，
+     * 调用方预先放入时RetrievalAdvisor直接使用，不再检索
+     */
+    public static final String RETRIEVED_DOCUMENTS = "chat_retrieved_documents";
+
+    /**
+     * 提前发起的知识库检索（Mono<Optional<List<Document>>>），由RetrievalPrefetchAdvisor写入，RetrievalAdvisor等待其结果
+     */
+    public static final String RETRIEVAL_PREFETCH = "chat_retrieval_prefetch";
+
+    /**
+     * 本轮用户消息的记忆写入（Mono<Void>），由ReactiveChatMemoryAdvisor写入，助手消息在其完成后再追加，保证顺序
+     */
+    public static final String MEMORY_PENDING_WRITE = "chat_memory_pending_write";
+
+    /**
+     * 为true时本次请求不读写聊天记忆，用于没有会话ID的一次性请求（如批量接口中未指定会话的条目）
+     */
+    public static final String SKIP_MEMORY = "chat_skip_memory";
+
+    /**
+     * 为true时本次响应来自SingleFlightAdvisor共享的其他请求的生成，token已计入发起请求，用量统计不再重复计入
+     */
+    public static final String SINGLE_FLIGHT_FOLLOWER = "chat_single_flight_follower";
+
+    private ChatContextKeys() {
+    }
+}
@@ -0,0 +1,108 @@
+package com.ally.learn.springailearning.common.advisor;
+
+import com.ally.learn.springailearning.common.service.AdaptiveConcurrencyLimiter;
+import com.ally.learn.springailearning.common.service.AdmissionControlService;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.core.Ordered;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author cgl
+ * @description 准入控制Advisor - 按模型限制同时进行的模型调用数，超出时短暂排队，队列满或等待超时返回429。
+ * 放在单飞和语义缓存之后，只有真正打到上游的请求才占用并发名额
+ * @date 2025-06-17
+ * @Version 1.0
+ **/
+public class ConcurrencyLimitAdvisor implements CallAdvisor, StreamAdvisor {
+
+    private static final String DEFAULT_MODEL = "default";
+
+    private final AdmissionControlService admissionControlService;
+    private final int order;
+
+    private ConcurrencyLimitAdvisor(AdmissionControlService admissionControlService, int order) {
+        this.admissionControlService = admissionControlService;
+        this.order = order;
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        if (!admissionControlService.isEnabled()) {
+            return callAdvisorChain.nextCall(chatClientRequest);
+        }
+        AdaptiveConcurrencyLimiter.Permit permit = admissionControlService.acquire(getModel(chatClientRequest)).block();
+        long start = System.nanoTime();
+        try {
+            ChatClientResponse chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
+            permit.releaseCall(AdaptiveConcurrencyLimiter.Outcome.SUCCESS, System.nanoTime() - start);
+            return chatClientResponse;
+        } catch (RuntimeException e) {
+            permit.releaseCall(AdmissionControlService.outcomeOf(e), 0);
+            throw e;
+        }
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest,
+                                                 StreamAdvisorChain streamAdvisorChain) {
+        if (!admissionControlService.isEnabled()) {
+            return streamAdvisorChain.nextStream(chatClientRequest);
+        }
+        return admissionControlService.acquire(getModel(chatClientRequest))
+                .flatMapMany(permit -> {
+                    long start = System.nanoTime();
+                    AtomicLong firstTokenLatency = new AtomicLong(-1);
+                    return streamAdvisorChain.nextStream(chatClientRequest)
+                            .doOnNext(chatClientResponse -> firstTokenLatency.compareAndSet(-1, System.nanoTime() - start))
+                            .doOnComplete(() -> permit.release(AdaptiveConcurrencyLimiter.Outcome.SUCCESS,
+                                    firstTokenLatency.get() >= 0 ? firstTokenLatency.get() : System.nanoTime() - start))
+                            .doOnError(e -> permit.release(AdmissionControlService.outcomeOf(e), 0))
+                            // 取消时归还许可，不调整并发上限
+                            .doFinally(signalType -> permit.release(AdaptiveConcurrencyLimiter.Outcome.IGNORED, 0));
+                });
+    }
+
+    private String getModel(ChatClientRequest chatClientRequest) {
+        ChatOptions options = chatClientRequest.prompt().getOptions();
+        return options != null && options.getModel() != null ? options.getModel() : DEFAULT_MODEL;
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    public static Builder builder(AdmissionControlService admissionControlService) {
+        return new Builder(admissionControlService);
+    }
+
+    public static final class Builder {
+
+        private final AdmissionControlService admissionControlService;
+        // 位于单飞advisor之后，紧挨模型调用
+        private int order = Ordered.LOWEST_PRECEDENCE - 500;
+
+        private Builder(AdmissionControlService admissionControlService) {
+            this.admissionControlService = admissionControlService;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public ConcurrencyLimitAdvisor build() {
+            return new ConcurrencyLimitAdvisor(admissionControlService, order);
+        }
+    }
+}
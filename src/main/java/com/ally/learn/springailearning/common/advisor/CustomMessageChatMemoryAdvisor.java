@@ -1,39 +1,44 @@
 package com.ally.learn.springailearning.common.advisor;
 
+import com.ally.learn.springailearning.common.memory.ModelAwareChatMemory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClientRequest;
 import org.springframework.ai.chat.client.ChatClientResponse;
 import org.springframework.ai.chat.client.advisor.api.*;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.util.Assert;
 
-import com.ally.learn.springailearning.common.config.MessageAggregator;
-
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
 
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author cgl
  * @description 自定义聊天内存顾问，专门负责聊天记忆管理
+ * 流式响应不在此处聚合，需注册到StreamAggregationAdvisor，由其在流结束时回调保存
  * @date 2025-06-10
  * @Version 1.0
  **/
-public class CustomMessageChatMemoryAdvisor implements BaseChatMemoryAdvisor {
+public class CustomMessageChatMemoryAdvisor implements BaseChatMemoryAdvisor, StreamCompletionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(CustomMessageChatMemoryAdvisor.class);
+
     private final ChatMemory chatMemory;
     private final String defaultConversationId;
     private final int order;
     private final Scheduler scheduler;
+    private final Duration loadTimeout;
 
     private CustomMessageChatMemoryAdvisor(ChatMemory chatMemory, String defaultConversationId, int order,
-                                     Scheduler scheduler) {
+                                     Scheduler scheduler, Duration loadTimeout) {
         Assert.notNull(chatMemory, "chatMemory cannot be null");
         Assert.hasText(defaultConversationId, "defaultConversationId cannot be null or empty");
         Assert.notNull(scheduler, "scheduler cannot be null");
@@ -41,6 +46,7 @@ public class CustomMessageChatMemoryAdvisor implements BaseChatMemoryAdvisor {
         this.defaultConversationId = defaultConversationId;
         this.order = order;
         this.scheduler = scheduler;
+        this.loadTimeout = loadTimeout;
     }
 
     @Override
@@ -55,10 +61,32 @@ public class CustomMessageChatMemoryAdvisor implements BaseChatMemoryAdvisor {
 
     @Override
     public ChatClientRequest before(ChatClientRequest chatClientRequest, AdvisorChain advisorChain) {
+        if (skipMemory(chatClientRequest)) {
+            return chatClientRequest;
+        }
+        // 1. Retrieve the chat memory for the current conversation.
+        return advise(chatClientRequest, loadMemory(chatClientRequest));
+    }
+
+    private boolean skipMemory(ChatClientRequest chatClientRequest) {
+        return Boolean.TRUE.equals(chatClientRequest.context().get(ChatContextKeys.SKIP_MEMORY));
+    }
+
+    /**
+     * 支持按模型窗口的记忆按本次请求的模型裁剪
+     */
+    private List<Message> loadMemory(ChatClientRequest chatClientRequest) {
         String conversationId = getConversationId(chatClientRequest.context(), this.defaultConversationId);
+        return this.chatMemory instanceof ModelAwareChatMemory modelAwareChatMemory
+                ? modelAwareChatMemory.get(conversationId, getModel(chatClientRequest))
+                : this.chatMemory.get(conversationId);
+    }
 
-        // 1. Retrieve the chat memory for the current conversation.
-        List<Message> memoryMessages = this.chatMemory.get(conversationId);
+    /**
+     * 把历史消息放在本轮消息之前，并写入本轮用户消息
+     */
+    private ChatClientRequest advise(ChatClientRequest chatClientRequest, List<Message> memoryMessages) {
+        String conversationId = getConversationId(chatClientRequest.context(), this.defaultConversationId);
 
         // 2. Advise the request messages list.
         List<Message> processedMessages = new ArrayList<>(memoryMessages);
@@ -76,8 +104,24 @@ public class CustomMessageChatMemoryAdvisor implements BaseChatMemoryAdvisor {
         return processedChatClientRequest;
     }
 
+    private String getModel(ChatClientRequest chatClientRequest) {
+        ChatOptions options = chatClientRequest.prompt().getOptions();
+        return options != null ? options.getModel() : null;
+    }
+
     @Override
     public ChatClientResponse after(ChatClientResponse chatClientResponse, AdvisorChain advisorChain) {
+        saveAssistantMessage(chatClientResponse);
+        return chatClientResponse;
+    }
+
+    /**
+     * 写入本轮的助手消息，同步调用和流式结束时共用
+     */
+    private void saveAssistantMessage(ChatClientResponse chatClientResponse) {
+        if (Boolean.TRUE.equals(chatClientResponse.context().get(ChatContextKeys.SKIP_MEMORY))) {
+            return;
+        }
         List<Message> assistantMessages = new ArrayList<>();
         if (chatClientResponse.chatResponse() != null) {
             assistantMessages = chatClientResponse.chatResponse()
@@ -88,34 +132,37 @@ public class CustomMessageChatMemoryAdvisor implements BaseChatMemoryAdvisor {
         }
         this.chatMemory.add(this.getConversationId(chatClientResponse.context(), this.defaultConversationId),
                 assistantMessages);
-        return chatClientResponse;
     }
 
     @Override
     public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest,
                                                  StreamAdvisorChain streamAdvisorChain) {
+        if (skipMemory(chatClientRequest)) {
+            return streamAdvisorChain.nextStream(chatClientRequest);
+        }
         // Get the scheduler from BaseAdvisor
         Scheduler scheduler = this.getScheduler();
 
-        // Process the request with the before method
-        return Mono.just(chatClientRequest)
+        // 只有读取历史受超时限制；本轮用户消息在读取结束（或超时）后、生成开始前写入，
+        // 一定早于流结束时由StreamAggregationAdvisor回调onStreamComplete写入的助手消息
+        Mono<List<Message>> memoryMessages = Mono.fromCallable(() -> loadMemory(chatClientRequest))
+                .subscribeOn(scheduler);
+        if (this.loadTimeout != null) {
+            // 超时时取消尚未完成的读取，不带历史继续生成
+            memoryMessages = memoryMessages.timeout(this.loadTimeout, Mono.fromSupplier(() -> {
+                logger.warn("Chat memory load timed out after {}, continuing without history", this.loadTimeout);
+                return List.of();
+            }));
+        }
+        return memoryMessages
                 .publishOn(scheduler)
-                .map(request -> this.before(request, streamAdvisorChain))
-                .flatMapMany(streamAdvisorChain::nextStream)
-                .transform(flux -> {
-                    AtomicReference<Map<String, Object>> context = new AtomicReference<>(new HashMap<>());
-
-                    return new MessageAggregator().aggregate(flux.mapNotNull(chatClientResponse -> {
-                        context.get().putAll(chatClientResponse.context());
-                        return chatClientResponse.chatResponse();
-                    }), aggregatedChatResponse -> {
-                        ChatClientResponse aggregatedChatClientResponse = ChatClientResponse.builder()
-                                .chatResponse(aggregatedChatResponse)
-                                .context(context.get())
-                                .build();
-                        this.after(aggregatedChatClientResponse, streamAdvisorChain);
-                    }).map(chatResponse -> ChatClientResponse.builder().chatResponse(chatResponse).context(context.get()).build());
-                });
+                .map(history -> this.advise(chatClientRequest, history))
+                .flatMapMany(streamAdvisorChain::nextStream);
+    }
+
+    @Override
+    public void onStreamComplete(ChatClientResponse aggregatedResponse) {
+        saveAssistantMessage(aggregatedResponse);
     }
 
     public static CustomMessageChatMemoryAdvisor.Builder builder(ChatMemory chatMemory) {
@@ -127,6 +174,7 @@ public class CustomMessageChatMemoryAdvisor implements BaseChatMemoryAdvisor {
         private String conversationId = ChatMemory.DEFAULT_CONVERSATION_ID;
         private int order = Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER;
         private Scheduler scheduler = BaseAdvisor.DEFAULT_SCHEDULER;
+        private Duration loadTimeout;
         private ChatMemory chatMemory;
 
         private Builder(ChatMemory chatMemory) {
@@ -158,12 +206,21 @@ public class CustomMessageChatMemoryAdvisor implements BaseChatMemoryAdvisor {
             return this;
         }
 
+        /**
+         * 流式请求加载记忆的超时时间，为空时不限制
+         */
+        public CustomMessageChatMemoryAdvisor.Builder loadTimeout(Duration loadTimeout) {
+            this.loadTimeout = loadTimeout;
+            return this;
+        }
+
         /**
          * Build the advisor.
          * @return the advisor
          */
         public CustomMessageChatMemoryAdvisor build() {
-            return new CustomMessageChatMemoryAdvisor(this.chatMemory, this.conversationId, this.order, this.scheduler);
+            return new CustomMessageChatMemoryAdvisor(this.chatMemory, this.conversationId, this.order, this.scheduler,
+                    this.loadTimeout);
         }
     }
 }
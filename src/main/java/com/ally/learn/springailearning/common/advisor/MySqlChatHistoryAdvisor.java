@@ -6,21 +6,15 @@ import org.springframework.ai.chat.client.ChatClientRequest;
 import org.springframework.ai.chat.client.ChatClientResponse;
 import org.springframework.ai.chat.client.advisor.api.*;
 
-import com.ally.learn.springailearning.common.config.MessageAggregator;
-
 import reactor.core.publisher.Flux;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
-
 /**
  * @author cgl
- * @description
+ * @description 历史记录顾问，流式响应需注册到StreamAggregationAdvisor，由其在流结束时回调记录
  * @date 2025-06-09
  * @Version 1.0
  **/
-public class MySqlChatHistoryAdvisor implements CallAdvisor, StreamAdvisor {
+public class MySqlChatHistoryAdvisor implements CallAdvisor, StreamAdvisor, StreamCompletionListener {
 
     private static final Logger logger = LoggerFactory.getLogger(MySqlChatHistoryAdvisor.class);
 
@@ -50,18 +44,12 @@ public class MySqlChatHistoryAdvisor implements CallAdvisor, StreamAdvisor {
     public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest,
                                                  StreamAdvisorChain streamAdvisorChain) {
         addHistory(chatClientRequest);
-        AtomicReference<Map<String, Object>> context = new AtomicReference<>(new HashMap<>());
-        Flux<ChatClientResponse> chatClientResponses = streamAdvisorChain.nextStream(chatClientRequest);
-        return new MessageAggregator().aggregate(chatClientResponses.mapNotNull(chatClientResponse -> {
-            context.get().putAll(chatClientResponse.context());
-            return chatClientResponse.chatResponse();
-        }), aggregatedChatResponse -> {
-            ChatClientResponse aggregatedChatClientResponse = ChatClientResponse.builder()
-                    .chatResponse(aggregatedChatResponse)
-                    .context(context.get())
-                    .build();
-            addHistory(aggregatedChatClientResponse);
-        }).map(chatResponse -> ChatClientResponse.builder().chatResponse(chatResponse).context(context.get()).build());
+        return streamAdvisorChain.nextStream(chatClientRequest);
+    }
+
+    @Override
+    public void onStreamComplete(ChatClientResponse aggregatedResponse) {
+        addHistory(aggregatedResponse);
     }
 
     private void addHistory(ChatClientRequest request) {
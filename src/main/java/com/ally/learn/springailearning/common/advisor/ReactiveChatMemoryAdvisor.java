@@ -0,0 +1,186 @@
+package com.ally.learn.springailearning.common.advisor;
+
+import com.ally.learn.springailearning.common.memory.ReactiveChatMemory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author cgl
+ * @description 非阻塞的聊天记忆顾问：记忆读取和写入直接组合进Flux，不切换到阻塞调度器。
+ * 本轮用户消息的写入与生成并行，写入结果放入context；流结束时由StreamAggregationAdvisor回调，在用户消息写入完成后再追加助手消息。
+ * 读取完成后后续advisor在Redis客户端的I/O线程上继续执行，链中靠后的advisor不能直接阻塞
+ * @date 2025-06-22
+ * @Version 1.0
+ **/
+public class ReactiveChatMemoryAdvisor implements CallAdvisor, StreamAdvisor, StreamCompletionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveChatMemoryAdvisor.class);
+
+    private final ReactiveChatMemory chatMemory;
+    private final String defaultConversationId;
+    private final int order;
+    private final Duration loadTimeout;
+
+    private ReactiveChatMemoryAdvisor(ReactiveChatMemory chatMemory, String defaultConversationId, int order,
+                                      Duration loadTimeout) {
+        Assert.notNull(chatMemory, "chatMemory cannot be null");
+        Assert.hasText(defaultConversationId, "defaultConversationId cannot be null or empty");
+        this.chatMemory = chatMemory;
+        this.defaultConversationId = defaultConversationId;
+        this.order = order;
+        this.loadTimeout = loadTimeout;
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        ChatClientRequest advisedRequest = before(chatClientRequest).block();
+        ChatClientResponse chatClientResponse = callAdvisorChain.nextCall(advisedRequest);
+        after(chatClientResponse).block();
+        return chatClientResponse;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest,
+                                                 StreamAdvisorChain streamAdvisorChain) {
+        return before(chatClientRequest).flatMapMany(streamAdvisorChain::nextStream);
+    }
+
+    /**
+     * 直接回调时无法等待写入，只发起写入；经StreamAggregationAdvisor回调时走onStreamCompleteAsync
+     */
+    @Override
+    public void onStreamComplete(ChatClientResponse aggregatedResponse) {
+        after(aggregatedResponse).subscribe();
+    }
+
+    /**
+     * 返回助手消息的写入，流正常结束时StreamAggregationAdvisor等写入完成后再结束流，下一轮对话能读到本轮记忆
+     */
+    @Override
+    public Mono<Void> onStreamCompleteAsync(ChatClientResponse aggregatedResponse) {
+        return after(aggregatedResponse);
+    }
+
+    private Mono<ChatClientRequest> before(ChatClientRequest chatClientRequest) {
+        if (Boolean.TRUE.equals(chatClientRequest.context().get(ChatContextKeys.SKIP_MEMORY))) {
+            return Mono.just(chatClientRequest);
+        }
+        String conversationId = getConversationId(chatClientRequest.context());
+        Mono<List<Message>> memoryMessages = chatMemory.get(conversationId, getModel(chatClientRequest));
+        if (this.loadTimeout != null) {
+            memoryMessages = memoryMessages.timeout(this.loadTimeout, Mono.fromSupplier(() -> {
+                logger.warn("Chat memory load timed out after {}, continuing without history", this.loadTimeout);
+                return List.of();
+            }));
+        }
+        return memoryMessages.map(history -> {
+            List<Message> processedMessages = new ArrayList<>(history);
+            processedMessages.addAll(chatClientRequest.prompt().getInstructions());
+
+            // 历史读取完成后才写入本轮用户消息，写入不阻塞生成
+            UserMessage userMessage = chatClientRequest.prompt().getUserMessage();
+            Mono<Void> pendingWrite = chatMemory.add(conversationId, List.of(userMessage)).cache();
+            pendingWrite.subscribe();
+
+            Map<String, Object> context = new HashMap<>(chatClientRequest.context());
+            context.put(ChatContextKeys.MEMORY_PENDING_WRITE, pendingWrite);
+            return chatClientRequest.mutate()
+                    .prompt(chatClientRequest.prompt().mutate().messages(processedMessages).build())
+                    .context(context)
+                    .build();
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Mono<Void> after(ChatClientResponse chatClientResponse) {
+        if (Boolean.TRUE.equals(chatClientResponse.context().get(ChatContextKeys.SKIP_MEMORY))) {
+            return Mono.empty();
+        }
+        List<Message> assistantMessages = new ArrayList<>();
+        if (chatClientResponse.chatResponse() != null) {
+            assistantMessages = chatClientResponse.chatResponse()
+                    .getResults()
+                    .stream()
+                    .map(g -> (Message) g.getOutput())
+                    .toList();
+        }
+        Mono<Void> assistantWrite = chatMemory.add(getConversationId(chatClientResponse.context()), assistantMessages);
+        return chatClientResponse.context().get(ChatContextKeys.MEMORY_PENDING_WRITE) instanceof Mono<?> pendingWrite
+                ? ((Mono<Void>) pendingWrite).then(assistantWrite)
+                : assistantWrite;
+    }
+
+    private String getConversationId(Map<String, Object> context) {
+        Object conversationId = context.get(ChatMemory.CONVERSATION_ID);
+        return conversationId != null ? conversationId.toString() : this.defaultConversationId;
+    }
+
+    private String getModel(ChatClientRequest chatClientRequest) {
+        ChatOptions options = chatClientRequest.prompt().getOptions();
+        return options != null ? options.getModel() : null;
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    public static Builder builder(ReactiveChatMemory chatMemory) {
+        return new Builder(chatMemory);
+    }
+
+    public static final class Builder {
+
+        private final ReactiveChatMemory chatMemory;
+        private String conversationId = ChatMemory.DEFAULT_CONVERSATION_ID;
+        private int order = Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER;
+        private Duration loadTimeout;
+
+        private Builder(ReactiveChatMemory chatMemory) {
+            this.chatMemory = chatMemory;
+        }
+
+        public Builder conversationId(String conversationId) {
+            this.conversationId = conversationId;
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        /**
+         * 加载记忆的超时时间，为空时不限制
+         */
+        public Builder loadTimeout(Duration loadTimeout) {
+            this.loadTimeout = loadTimeout;
+            return this;
+        }
+
+        public ReactiveChatMemoryAdvisor build() {
+            return new ReactiveChatMemoryAdvisor(chatMemory, conversationId, order, loadTimeout);
+        }
+    }
+}
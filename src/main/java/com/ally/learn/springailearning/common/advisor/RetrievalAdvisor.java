@@ -0,0 +1,223 @@
+package com.ally.learn.springailearning.common.advisor;
+
+import com.ally.learn.springailearning.rag.service.KnowledgeBaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * @author cgl
+ * @description 知识库检索Advisor - 替代QuestionAnswerAdvisor：每个请求只在所选知识库自己的向量存储中检索一次，
+ * 检索结果写入context（ChatContextKeys.RETRIEVED_DOCUMENTS）供后续环节读取，并用检索结果增强用户消息。
+ * context中已有检索结果时（如批量接口共享的检索）直接使用；有RetrievalPrefetchAdvisor提前发起的检索时等待其结果
+ * @date 2025-06-20
+ * @Version 1.0
+ **/
+public class RetrievalAdvisor implements CallAdvisor, StreamAdvisor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetrievalAdvisor.class);
+
+    // RAG提示模板
+    private static final String RAG_PROMPT_TEMPLATE = """
+            请基于以下提供的上下文信息来回答用户的问题。如果上下文信息中没有相关内容，请明确说明无法基于提供的信息回答。
+            
+            上下文信息：
+            {context}
+            
+            用户问题：{question}
+            
+            请提供准确、有用的回答：
+            """;
+
+    private final KnowledgeBaseService knowledgeBaseService;
+    private final int topK;
+    private final double similarityThreshold;
+    private final int order;
+    private final Scheduler scheduler;
+    private final Duration timeout;
+
+    private RetrievalAdvisor(KnowledgeBaseService knowledgeBaseService, int topK, double similarityThreshold,
+                             int order, Scheduler scheduler, Duration timeout) {
+        Assert.notNull(knowledgeBaseService, "knowledgeBaseService cannot be null");
+        Assert.notNull(scheduler, "scheduler cannot be null");
+        this.knowledgeBaseService = knowledgeBaseService;
+        this.topK = topK;
+        this.similarityThreshold = similarityThreshold;
+        this.order = order;
+        this.scheduler = scheduler;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        Object knowledgeBaseId = chatClientRequest.context().get(ChatContextKeys.KNOWLEDGE_BASE_ID);
+        if (knowledgeBaseId == null) {
+            return callAdvisorChain.nextCall(chatClientRequest);
+        }
+        Optional<List<Document>> documents = getDocuments(chatClientRequest, knowledgeBaseId.toString()).block();
+        return callAdvisorChain.nextCall(augment(chatClientRequest, knowledgeBaseId, documents));
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest,
+                                                 StreamAdvisorChain streamAdvisorChain) {
+        Object knowledgeBaseId = chatClientRequest.context().get(ChatContextKeys.KNOWLEDGE_BASE_ID);
+        if (knowledgeBaseId == null) {
+            return streamAdvisorChain.nextStream(chatClientRequest);
+        }
+        // 等待预取或检索结果时不占用线程
+        return getDocuments(chatClientRequest, knowledgeBaseId.toString())
+                .map(documents -> augment(chatClientRequest, knowledgeBaseId, documents))
+                .flatMapMany(streamAdvisorChain::nextStream);
+    }
+
+    /**
+     * 在调度器上检索，超时或失败时返回空Optional，由调用方降级为不带知识库上下文的回答
+     */
+    Mono<Optional<List<Document>>> search(String knowledgeBaseId, String question) {
+        return Mono.fromCallable(() -> {
+                    SearchRequest searchRequest = SearchRequest.builder()
+                            .query(question)
+                            .topK(topK)
+                            .similarityThreshold(similarityThreshold)
+                            .build();
+                    return Optional.of(knowledgeBaseService.search(searchRequest, knowledgeBaseId));
+                })
+                .subscribeOn(scheduler)
+                .timeout(timeout)
+                .onErrorResume(e -> {
+                    logger.error("Failed to build RAG context for knowledge base: {}", knowledgeBaseId, e);
+                    return Mono.just(Optional.empty());
+                });
+    }
+
+    /**
+     * 依次使用：context中已有的检索结果、预取的检索结果、现场检索
+     */
+    @SuppressWarnings("unchecked")
+    private Mono<Optional<List<Document>>> getDocuments(ChatClientRequest chatClientRequest, String knowledgeBaseId) {
+        if (chatClientRequest.context().get(ChatContextKeys.RETRIEVED_DOCUMENTS) instanceof List<?> documents) {
+            return Mono.just(Optional.of((List<Document>) documents));
+        }
+        if (chatClientRequest.context().get(ChatContextKeys.RETRIEVAL_PREFETCH) instanceof Mono<?> prefetch) {
+            return (Mono<Optional<List<Document>>>) prefetch;
+        }
+        return search(knowledgeBaseId, chatClientRequest.prompt().getUserMessage().getText());
+    }
+
+    private ChatClientRequest augment(ChatClientRequest chatClientRequest, Object knowledgeBaseId,
+                                      Optional<List<Document>> documents) {
+        String question = chatClientRequest.prompt().getUserMessage().getText();
+        Map<String, Object> context = new HashMap<>(chatClientRequest.context());
+        context.remove(ChatContextKeys.RETRIEVAL_PREFETCH);
+        context.put(ChatContextKeys.RETRIEVED_DOCUMENTS, documents.orElse(List.of()));
+        return chatClientRequest.mutate()
+                .prompt(chatClientRequest.prompt().augmentUserMessage(augment(question, documents.orElse(null), knowledgeBaseId)))
+                .context(context)
+                .build();
+    }
+
+    private String augment(String question, List<Document> documents, Object knowledgeBaseId) {
+        // 如果RAG处理失败，回退到原始提示
+        if (documents == null) {
+            return question + "\n\n注：知识库搜索失败，以下回答基于模型的通用知识。";
+        }
+        if (documents.isEmpty()) {
+            logger.info("No relevant documents found for query: {}", question);
+            return question + "\n\n注：未在知识库中找到相关信息，以下回答基于模型的通用知识。";
+        }
+
+        // 构建上下文
+        String context = documents.stream()
+                .map(doc -> {
+                    String content = doc.getFormattedContent();
+                    String source = doc.getMetadata().getOrDefault("document_name", "未知来源").toString();
+                    return String.format("来源：%s\n内容：%s", source, content);
+                })
+                .collect(Collectors.joining("\n\n---\n\n"));
+
+        logger.info("Built RAG prompt with {} context documents for knowledge base: {}",
+                documents.size(), knowledgeBaseId);
+        return new PromptTemplate(RAG_PROMPT_TEMPLATE).render(Map.of(
+                "context", context,
+                "question", question
+        ));
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    public static Builder builder(KnowledgeBaseService knowledgeBaseService) {
+        return new Builder(knowledgeBaseService);
+    }
+
+    public static final class Builder {
+
+        private final KnowledgeBaseService knowledgeBaseService;
+        private int topK = 5;
+        private double similarityThreshold = 0.7;
+        // 与原QuestionAnswerAdvisor位置一致：记忆和语义缓存之后，单飞和准入控制之前
+        private int order = 0;
+        private Scheduler scheduler = BaseAdvisor.DEFAULT_SCHEDULER;
+        private Duration timeout = Duration.ofSeconds(3);
+
+        private Builder(KnowledgeBaseService knowledgeBaseService) {
+            this.knowledgeBaseService = knowledgeBaseService;
+        }
+
+        public Builder topK(int topK) {
+            this.topK = topK;
+            return this;
+        }
+
+        public Builder similarityThreshold(double similarityThreshold) {
+            this.similarityThreshold = similarityThreshold;
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public Builder scheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * 检索超时时间，超时后不带知识库上下文继续生成
+         */
+        public Builder timeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public RetrievalAdvisor build() {
+            return new RetrievalAdvisor(knowledgeBaseService, topK, similarityThreshold, order, scheduler, timeout);
+        }
+    }
+}
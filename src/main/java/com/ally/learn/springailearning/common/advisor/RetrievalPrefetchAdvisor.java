@@ -0,0 +1,100 @@
+package com.ally.learn.springailearning.common.advisor;
+
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.document.Document;
+import org.springframework.util.Assert;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * @author cgl
+ * @description 检索预取Advisor - 位于聊天记忆之前，请求一进入advisor链就在检索调度器上发起知识库检索（问题嵌入+向量检索），
+ * 与记忆加载、语义缓存查找并行执行；RetrievalAdvisor在组装提示前等待该结果，两者在生成前汇合。
+ * 预取随本次请求的流结束而释放：客户端取消或语义缓存命中等提前结束时，尚未完成的检索被取消
+ * @date 2025-06-20
+ * @Version 1.0
+ **/
+public class RetrievalPrefetchAdvisor implements StreamAdvisor {
+
+    private final RetrievalAdvisor retrievalAdvisor;
+    private final int order;
+    private final boolean enabled;
+
+    private RetrievalPrefetchAdvisor(RetrievalAdvisor retrievalAdvisor, int order, boolean enabled) {
+        Assert.notNull(retrievalAdvisor, "retrievalAdvisor cannot be null");
+        this.retrievalAdvisor = retrievalAdvisor;
+        this.order = order;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest,
+                                                 StreamAdvisorChain streamAdvisorChain) {
+        Object knowledgeBaseId = chatClientRequest.context().get(ChatContextKeys.KNOWLEDGE_BASE_ID);
+        if (!enabled || knowledgeBaseId == null || chatClientRequest.context().containsKey(ChatContextKeys.RETRIEVED_DOCUMENTS)) {
+            return streamAdvisorChain.nextStream(chatClientRequest);
+        }
+        return Flux.defer(() -> {
+            Sinks.One<Optional<List<Document>>> prefetch = Sinks.one();
+            // 立即开始检索，不等RetrievalAdvisor订阅；search出错时也会返回空结果，结果一定会写入
+            Disposable search = retrievalAdvisor
+                    .search(knowledgeBaseId.toString(), chatClientRequest.prompt().getUserMessage().getText())
+                    .subscribe(prefetch::tryEmitValue);
+            Map<String, Object> context = new HashMap<>(chatClientRequest.context());
+            context.put(ChatContextKeys.RETRIEVAL_PREFETCH, prefetch.asMono());
+            return streamAdvisorChain.nextStream(chatClientRequest.mutate().context(context).build())
+                    .doFinally(signal -> search.dispose());
+        });
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    public static Builder builder(RetrievalAdvisor retrievalAdvisor) {
+        return new Builder(retrievalAdvisor);
+    }
+
+    public static final class Builder {
+
+        private final RetrievalAdvisor retrievalAdvisor;
+        // 位于聊天记忆advisor之前，让检索与记忆加载同时进行
+        private int order = Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER - 2;
+        private boolean enabled = true;
+
+        private Builder(RetrievalAdvisor retrievalAdvisor) {
+            this.retrievalAdvisor = retrievalAdvisor;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        /**
+         * 关闭时不预取，由RetrievalAdvisor在链中按顺序检索
+         */
+        public Builder enabled(boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public RetrievalPrefetchAdvisor build() {
+            return new RetrievalPrefetchAdvisor(retrievalAdvisor, order, enabled);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.ally.learn.springailearning.common.advisor;
+
+import com.ally.learn.springailearning.common.service.SemanticAnswerCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.deepseek.DeepSeekAssistantMessage;
+import org.springframework.core.Ordered;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * @author cgl
+ * @description 语义缓存Advisor - 知识库问答先按问题向量查找语义相近的历史答案，命中则直接返回，不再调用模型；
+ * 未命中时把查找结果放入context，生成正常结束后由StreamAggregationAdvisor回调写回缓存。
+ * 带有对话历史的请求不走缓存，因为答案依赖上下文
+ * @date 2025-06-17
+ * @Version 1.0
+ **/
+public class SemanticCacheAdvisor implements StreamAdvisor, StreamCompletionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(SemanticCacheAdvisor.class);
+
+    public static final String CACHE_LOOKUP = "semantic_cache_lookup";
+    public static final String CACHE_HIT_METADATA = "semantic_cache_hit";
+
+    private final SemanticAnswerCache semanticAnswerCache;
+    private final int order;
+    private final Scheduler scheduler;
+
+    private SemanticCacheAdvisor(SemanticAnswerCache semanticAnswerCache, int order, Scheduler scheduler) {
+        this.semanticAnswerCache = semanticAnswerCache;
+        this.order = order;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest,
+                                                 StreamAdvisorChain streamAdvisorChain) {
+        Object knowledgeBaseId = chatClientRequest.context().get(ChatContextKeys.KNOWLEDGE_BASE_ID);
+        if (!semanticAnswerCache.isEnabled() || knowledgeBaseId == null || hasHistory(chatClientRequest)) {
+            return streamAdvisorChain.nextStream(chatClientRequest);
+        }
+        String question = chatClientRequest.prompt().getUserMessage().getText();
+        if (!StringUtils.hasText(question)) {
+            return streamAdvisorChain.nextStream(chatClientRequest);
+        }
+
+        ChatOptions options = chatClientRequest.prompt().getOptions();
+        String model = options != null ? options.getModel() : null;
+
+        // 嵌入模型调用是阻塞的，放到独立调度器执行
+        return Mono.fromCallable(() -> Optional.of(
+                        semanticAnswerCache.lookup(knowledgeBaseId.toString(), model, question)))
+                .subscribeOn(scheduler)
+                .timeout(semanticAnswerCache.getLookupTimeout())
+                .onErrorResume(e -> {
+                    logger.warn("Semantic cache lookup failed, falling back to model", e);
+                    return Mono.just(Optional.empty());
+                })
+                .flatMapMany(lookup -> {
+                    if (lookup.isEmpty()) {
+                        return streamAdvisorChain.nextStream(chatClientRequest);
+                    }
+                    return lookup.get().hit()
+                            ? Flux.just(toCachedResponse(lookup.get().answer(), chatClientRequest.context()))
+                            : streamAdvisorChain.nextStream(withLookup(chatClientRequest, lookup.get()));
+                });
+    }
+
+    @Override
+    public void onStreamComplete(ChatClientResponse aggregatedResponse) {
+        if (!(aggregatedResponse.context().get(CACHE_LOOKUP) instanceof SemanticAnswerCache.Lookup lookup)) {
+            return;
+        }
+        ChatResponse chatResponse = aggregatedResponse.chatResponse();
+        if (chatResponse == null || chatResponse.getResult() == null) {
+            return;
+        }
+        Generation generation = chatResponse.getResult();
+        // 只缓存正常结束的完整答案，取消或出错的部分答案不缓存
+        String finishReason = generation.getMetadata() != null ? generation.getMetadata().getFinishReason() : null;
+        if (!"STOP".equalsIgnoreCase(finishReason) || !StringUtils.hasText(generation.getOutput().getText())) {
+            return;
+        }
+        String reasoningContent = generation.getOutput() instanceof DeepSeekAssistantMessage deepSeekMessage
+                ? deepSeekMessage.getReasoningContent() : null;
+        semanticAnswerCache.store(lookup, generation.getOutput().getText(), reasoningContent);
+    }
+
+    private boolean hasHistory(ChatClientRequest chatClientRequest) {
+        for (Message message : chatClientRequest.prompt().getInstructions()) {
+            if (message.getMessageType() == MessageType.ASSISTANT || message.getMessageType() == MessageType.TOOL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ChatClientRequest withLookup(ChatClientRequest chatClientRequest, SemanticAnswerCache.Lookup lookup) {
+        Map<String, Object> context = new HashMap<>(chatClientRequest.context());
+        context.put(CACHE_LOOKUP, lookup);
+        return chatClientRequest.mutate().context(context).build();
+    }
+
+    private ChatClientResponse toCachedResponse(SemanticAnswerCache.CachedAnswer answer, Map<String, Object> context) {
+        Map<String, Object> metadata = Map.of(CACHE_HIT_METADATA, true);
+        AssistantMessage assistantMessage;
+        if (StringUtils.hasText(answer.reasoningContent())) {
+            DeepSeekAssistantMessage deepSeekAssistantMessage = new DeepSeekAssistantMessage(answer.content(), metadata);
+            deepSeekAssistantMessage.setReasoningContent(answer.reasoningContent());
+            assistantMessage = deepSeekAssistantMessage;
+        } else {
+            assistantMessage = new AssistantMessage(answer.content(), metadata);
+        }
+        ChatResponse chatResponse = new ChatResponse(List.of(new Generation(assistantMessage,
+                ChatGenerationMetadata.builder().finishReason("STOP").build())));
+        return ChatClientResponse.builder().chatResponse(chatResponse).context(context).build();
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    public static Builder builder(SemanticAnswerCache semanticAnswerCache) {
+        return new Builder(semanticAnswerCache);
+    }
+
+    public static final class Builder {
+
+        private final SemanticAnswerCache semanticAnswerCache;
+        // 位于聊天记忆之后（可以判断是否有历史），RAG增强之前（使用原始问题）
+        private int order = Ordered.HIGHEST_PRECEDENCE + 2000;
+        private Scheduler scheduler = Schedulers.boundedElastic();
+
+        private Builder(SemanticAnswerCache semanticAnswerCache) {
+            this.semanticAnswerCache = semanticAnswerCache;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public Builder scheduler(Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public SemanticCacheAdvisor build() {
+            return new SemanticCacheAdvisor(semanticAnswerCache, order, scheduler);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.ally.learn.springailearning.common.advisor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.core.Ordered;
+import reactor.core.Disposable;
+import reactor.core.publisher.ConnectableFlux;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author cgl
+ * @description 单飞Advisor - 合并并发的相同请求：模型、知识库、归一化后的提示完全一致时共享同一次上游生成，
+ * 结果多播给所有订阅者，后加入者从头回放，所有订阅者都取消后停止上游。带有对话历史的会话直接绕过。
+ * 需放在记忆和RAG advisor之后（最靠近模型），这样每个会话的记忆仍由各自的advisor写入
+ * @date 2025-06-17
+ * @Version 1.0
+ **/
+public class SingleFlightAdvisor implements StreamAdvisor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SingleFlightAdvisor.class);
+
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final int order;
+
+    private SingleFlightAdvisor(int order) {
+        this.order = order;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest,
+                                                 StreamAdvisorChain streamAdvisorChain) {
+        String key = flightKey(chatClientRequest);
+        if (key == null) {
+            return streamAdvisorChain.nextStream(chatClientRequest);
+        }
+
+        // 订阅时才加入，订阅者计数与实际订阅一一对应
+        return Flux.defer(() -> {
+            boolean[] leader = {false};
+            Flight flight = inFlight.compute(key, (k, existing) -> {
+                if (existing != null) {
+                    existing.subscribers++;
+                    return existing;
+                }
+                leader[0] = true;
+                return newFlight(k, chatClientRequest, streamAdvisorChain);
+            });
+            Flux<ChatClientResponse> responses = flight.responses.doFinally(signalType -> leave(key, flight));
+            if (leader[0]) {
+                flight.connect();
+                return responses;
+            }
+
+            logger.debug("Joining in-flight generation: {}", key);
+            // 共享响应的context属于发起者，需替换为当前请求的context，保证记忆写入正确的会话；
+            // 并标记为跟随者，用量统计不重复计入同一次生成的token
+            Map<String, Object> context = new HashMap<>(chatClientRequest.context());
+            context.put(ChatContextKeys.SINGLE_FLIGHT_FOLLOWER, true);
+            return responses.map(chatClientResponse -> ChatClientResponse.builder()
+                    .chatResponse(chatClientResponse.chatResponse())
+                    .context(context)
+                    .build());
+        });
+    }
+
+    private Flight newFlight(String key, ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        Flight flight = new Flight();
+        // 上游结束时先移除再向订阅者发出结束信号，之后的请求重新发起生成
+        flight.responses = streamAdvisorChain.nextStream(chatClientRequest)
+                .doOnTerminate(() -> inFlight.remove(key, flight))
+                .replay();
+        return flight;
+    }
+
+    /**
+     * 订阅者离开；最后一个订阅者离开时，在计数归零的同一次compute中移除登记，之后再断开上游，
+     * 新请求不会加入即将断开的生成
+     */
+    private void leave(String key, Flight flight) {
+        boolean[] last = {false};
+        inFlight.computeIfPresent(key, (k, existing) -> {
+            if (existing != flight || --existing.subscribers > 0) {
+                return existing;
+            }
+            last[0] = true;
+            return null;
+        });
+        if (last[0]) {
+            flight.disconnect();
+        }
+    }
+
+    /**
+     * 计算单飞key，不适合合并的请求返回null
+     */
+    private String flightKey(ChatClientRequest chatClientRequest) {
+        StringBuilder source = new StringBuilder();
+        ChatOptions options = chatClientRequest.prompt().getOptions();
+        source.append(options != null ? options.getModel() : "").append('\u0000');
+        Object knowledgeBaseId = chatClientRequest.context().get(ChatContextKeys.KNOWLEDGE_BASE_ID);
+        source.append(knowledgeBaseId != null ? knowledgeBaseId : "").append('\u0000');
+
+        for (Message message : chatClientRequest.prompt().getInstructions()) {
+            // 存在助手或工具消息说明会话有历史，答案依赖上下文，不做合并
+            if (message.getMessageType() == MessageType.ASSISTANT || message.getMessageType() == MessageType.TOOL) {
+                return null;
+            }
+            source.append(message.getMessageType().getValue()).append(':');
+            normalize(source, message.getText());
+            source.append('\u0000');
+        }
+        return sha256(source.toString());
+    }
+
+    /**
+     * 去除首尾空白、合并连续空白并转为小写
+     */
+    private static void normalize(StringBuilder target, String text) {
+        if (text == null) {
+            return;
+        }
+        boolean pendingSpace = false;
+        boolean started = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = started;
+                continue;
+            }
+            if (pendingSpace) {
+                target.append(' ');
+                pendingSpace = false;
+            }
+            target.append(Character.toLowerCase(c));
+            started = true;
+        }
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    /**
+     * 一次共享的上游生成，subscribers只在inFlight的compute内读写
+     */
+    private static final class Flight {
+
+        private ConnectableFlux<ChatClientResponse> responses;
+        private int subscribers = 1;
+        private volatile Disposable connection;
+
+        private void connect() {
+            connection = responses.connect();
+        }
+
+        private void disconnect() {
+            Disposable current = connection;
+            if (current != null) {
+                current.dispose();
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        // 紧挨模型调用，位于记忆和RAG advisor之后
+        private int order = Ordered.LOWEST_PRECEDENCE - 1000;
+
+        private Builder() {
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public SingleFlightAdvisor build() {
+            return new SingleFlightAdvisor(this.order);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.ally.learn.springailearning.common.advisor;
+
+import com.ally.learn.springailearning.common.config.MessageAggregator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author cgl
+ * @description 流式响应聚合Advisor - 每个请求只聚合一次，并将完整响应分发给所有监听器（记忆、历史、指标等）
+ * @date 2025-06-16
+ * @Version 1.0
+ **/
+public class StreamAggregationAdvisor implements StreamAdvisor {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamAggregationAdvisor.class);
+
+    private final List<StreamCompletionListener> listeners;
+    private final int order;
+    private final Scheduler listenerScheduler;
+
+    private StreamAggregationAdvisor(List<StreamCompletionListener> listeners, int order, Scheduler listenerScheduler) {
+        this.listeners = List.copyOf(listeners);
+        this.order = order;
+        this.listenerScheduler = listenerScheduler;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest,
+                                                 StreamAdvisorChain streamAdvisorChain) {
+        Flux<ChatClientResponse> chatClientResponses = streamAdvisorChain.nextStream(chatClientRequest);
+        if (listeners.isEmpty()) {
+            return chatClientResponses;
+        }
+        // 上游在事件循环线程上发射时，监听器（Redis写入等阻塞操作）切换到listenerScheduler执行。
+        // 正常结束时先执行完监听器（包括其返回的异步写入）再向下游发出完成信号，保证下一轮对话能读到本轮记忆；
+        // 取消或出错时不再等待
+        return Flux.defer(() -> {
+            AtomicReference<ChatClientResponse> aggregated = new AtomicReference<>();
+            return new MessageAggregator().aggregateChatClientResponse(chatClientResponses, aggregated::set)
+                    .concatWith(onListenerScheduler(Mono.defer(() -> notifyListeners(aggregated.getAndSet(null))))
+                            .then(Mono.empty()))
+                    .doFinally(signalType -> {
+                        ChatClientResponse remaining = aggregated.getAndSet(null);
+                        if (remaining != null) {
+                            onListenerScheduler(notifyListeners(remaining)).subscribe();
+                        }
+                    });
+        });
+    }
+
+    private Mono<Void> onListenerScheduler(Mono<Void> notification) {
+        return listenerScheduler != null ? notification.subscribeOn(listenerScheduler) : notification;
+    }
+
+    /**
+     * 按注册顺序依次回调，前一个监听器的写入完成后再回调下一个
+     */
+    private Mono<Void> notifyListeners(ChatClientResponse aggregatedResponse) {
+        if (aggregatedResponse == null) {
+            return Mono.empty();
+        }
+        return Flux.fromIterable(listeners)
+                .concatMap(listener -> Mono.defer(() -> listener.onStreamCompleteAsync(aggregatedResponse))
+                        .onErrorResume(e -> {
+                            // 单个监听器失败不影响其他监听器
+                            logger.error("Stream completion listener failed: {}", listener, e);
+                            return Mono.empty();
+                        }))
+                .then();
+    }
+
+    @Override
+    public String getName() {
+        return this.getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return this.order;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private final List<StreamCompletionListener> listeners = new ArrayList<>();
+        // 位于聊天记忆advisor之外，保证看到的是最终输出给调用方的流
+        private int order = Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER - 1;
+        // 为空时在流结束的线程上同步回调监听器
+        private Scheduler listenerScheduler;
+
+        private Builder() {
+        }
+
+        public Builder listener(StreamCompletionListener listener) {
+            Assert.notNull(listener, "listener cannot be null");
+            this.listeners.add(listener);
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public Builder listenerScheduler(Scheduler listenerScheduler) {
+            this.listenerScheduler = listenerScheduler;
+            return this;
+        }
+
+        public StreamAggregationAdvisor build() {
+            return new StreamAggregationAdvisor(this.listeners, this.order, this.listenerScheduler);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.ally.learn.springailearning.common.advisor;
+
+import org.springframework.ai.chat.client.ChatClientResponse;
+import reactor.core.publisher.Mono;
+
+/**
+ * @author cgl
+ * @description 流式响应聚合完成监听器，由StreamAggregationAdvisor在流结束（完成、取消或出错）时统一回调
+ * @date 2025-06-16
+ * @Version 1.0
+ **/
+@FunctionalInterface
+public interface StreamCompletionListener {
+
+    /**
+     * 流式响应聚合完成
+     * @param aggregatedResponse 聚合后的完整响应，context为流中最后一个响应携带的上下文
+     */
+    void onStreamComplete(ChatClientResponse aggregatedResponse);
+
+    /**
+     * 非阻塞的回调，StreamAggregationAdvisor实际调用该方法；流正常结束时等返回的Mono完成后再向下游发出完成信号。
+     * 默认同步执行onStreamComplete，写入本身是异步的监听器应覆盖该方法返回写入结果
+     */
+    default Mono<Void> onStreamCompleteAsync(ChatClientResponse aggregatedResponse) {
+        return Mono.fromRunnable(() -> onStreamComplete(aggregatedResponse));
+    }
+}
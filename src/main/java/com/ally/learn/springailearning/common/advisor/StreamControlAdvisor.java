@@ -1,5 +1,6 @@
 package com.ally.learn.springailearning.common.advisor;
 
+import com.ally.learn.springailearning.common.service.ChatStreamMetrics;
 import com.ally.learn.springailearning.common.service.StreamControlService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,11 +25,16 @@ public class StreamControlAdvisor implements StreamAdvisor {
     private final StreamControlService streamControlService;
     private final int order;
     private final Scheduler scheduler;
+    private final ChatStreamMetrics chatStreamMetrics;
+    private final boolean fastPath;
 
-    private StreamControlAdvisor(StreamControlService streamControlService, int order, Scheduler scheduler) {
+    private StreamControlAdvisor(StreamControlService streamControlService, int order, Scheduler scheduler,
+                                 ChatStreamMetrics chatStreamMetrics, boolean fastPath) {
         this.streamControlService = streamControlService;
         this.order = order;
         this.scheduler = scheduler;
+        this.chatStreamMetrics = chatStreamMetrics;
+        this.fastPath = fastPath;
     }
 
     @Override
@@ -39,9 +45,20 @@ public class StreamControlAdvisor implements StreamAdvisor {
         
         logger.debug("Stream control advisor activated for session: {}", sessionId);
         
-        return streamAdvisorChain.nextStream(chatClientRequest)
-                .publishOn(scheduler)
-                .takeUntilOther(streamControlService.getCancelSignal(sessionId))
+        // 流结束（完成、出错或取消）时释放登记，避免登记表无限增长
+        return Flux.using(() -> streamControlService.register(sessionId),
+                        registration -> {
+                            Flux<ChatClientResponse> stream = streamAdvisorChain.nextStream(chatClientRequest);
+                            if (chatStreamMetrics == null) {
+                                return hop(stream).takeUntilOther(registration.cancelSignal());
+                            }
+                            // 在切换线程前记录，token到达时间不受下游调度影响
+                            ChatStreamMetrics.Recorder recorder = chatStreamMetrics.start(chatClientRequest);
+                            return hop(stream.doOnNext(recorder::onResponse))
+                                    .takeUntilOther(registration.cancelSignal().doOnSuccess(v -> recorder.onStopped()))
+                                    .doFinally(recorder::finish);
+                        },
+                        StreamControlService.Registration::release)
                 .doOnCancel(() -> {
                     logger.info("Stream cancelled for session: {}", sessionId);
                 })
@@ -50,6 +67,14 @@ public class StreamControlAdvisor implements StreamAdvisor {
                 });
     }
     
+    /**
+     * 快速路径下token留在上游线程直接向下游发射，不经过队列和线程切换；
+     * 停止仍由takeUntilOther在取消信号到达时截断，不需要逐token检查
+     */
+    private Flux<ChatClientResponse> hop(Flux<ChatClientResponse> stream) {
+        return fastPath ? stream : stream.publishOn(scheduler);
+    }
+
     private String getSessionId(ChatClientRequest request) {
         // 从context中获取会话ID
         Object sessionId = request.context().get(ChatMemory.CONVERSATION_ID);
@@ -74,6 +99,8 @@ public class StreamControlAdvisor implements StreamAdvisor {
         private final StreamControlService streamControlService;
         private int order = 50; // 设置较高的优先级，早于其他advisor执行
         private Scheduler scheduler = Schedulers.boundedElastic();
+        private ChatStreamMetrics chatStreamMetrics;
+        private boolean fastPath;
 
         private Builder(StreamControlService streamControlService) {
             this.streamControlService = streamControlService;
@@ -89,8 +116,21 @@ public class StreamControlAdvisor implements StreamAdvisor {
             return this;
         }
 
+        public Builder metrics(ChatStreamMetrics chatStreamMetrics) {
+            this.chatStreamMetrics = chatStreamMetrics;
+            return this;
+        }
+
+        /**
+         * 开启后不再publishOn，外层advisor中的阻塞回调需自行切换线程（见StreamAggregationAdvisor.listenerScheduler）
+         */
+        public Builder fastPath(boolean fastPath) {
+            this.fastPath = fastPath;
+            return this;
+        }
+
         public StreamControlAdvisor build() {
-            return new StreamControlAdvisor(streamControlService, order, scheduler);
+            return new StreamControlAdvisor(streamControlService, order, scheduler, chatStreamMetrics, fastPath);
         }
     }
 } 
\ No newline at end of file
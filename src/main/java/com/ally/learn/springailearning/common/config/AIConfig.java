@@ -1,16 +1,34 @@
 package com.ally.learn.springailearning.common.config;
 
+import com.ally.learn.springailearning.common.advisor.ConcurrencyLimitAdvisor;
 import com.ally.learn.springailearning.common.advisor.CustomMessageChatMemoryAdvisor;
 import com.ally.learn.springailearning.common.advisor.MySqlChatHistoryAdvisor;
+import com.ally.learn.springailearning.common.advisor.ReactiveChatMemoryAdvisor;
+import com.ally.learn.springailearning.common.advisor.RetrievalAdvisor;
+import com.ally.learn.springailearning.common.advisor.RetrievalPrefetchAdvisor;
+import com.ally.learn.springailearning.common.advisor.SemanticCacheAdvisor;
+import com.ally.learn.springailearning.common.advisor.SingleFlightAdvisor;
+import com.ally.learn.springailearning.common.advisor.StreamAggregationAdvisor;
+import com.ally.learn.springailearning.common.advisor.StreamCompletionListener;
 import com.ally.learn.springailearning.common.advisor.StreamControlAdvisor;
+import com.ally.learn.springailearning.common.memory.ConversationCompactionService;
+import com.ally.learn.springailearning.common.memory.ReactiveChatMemory;
+import com.ally.learn.springailearning.common.model.HedgingChatModel;
 import com.ally.learn.springailearning.common.tool.DateTools;
+import com.ally.learn.springailearning.common.service.AdmissionControlService;
+import com.ally.learn.springailearning.common.service.ChatStreamMetrics;
+import com.ally.learn.springailearning.common.service.SemanticAnswerCache;
 import com.ally.learn.springailearning.common.service.StreamControlService;
+import com.ally.learn.springailearning.common.service.UsageAccountingService;
+import com.ally.learn.springailearning.rag.config.RagProperties;
+import com.ally.learn.springailearning.rag.service.KnowledgeBaseService;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.deepseek.DeepSeekChatModel;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -27,22 +45,87 @@ public class AIConfig {
     @Bean("deepSeekClient")
     public ChatClient deepSeekClient(DateTools dateTools,
                                      DeepSeekChatModel deepSeekChatModel,
+                                     ObjectProvider<OpenAiChatModel> openAiChatModel,
+                                     HedgingProperties hedgingProperties,
+                                     MeterRegistry meterRegistry,
                                      ChatMemory chatMemory,
+                                     ReactiveChatMemory reactiveChatMemory,
+                                     ConversationCompactionService conversationCompactionService,
                                      StreamControlService streamControlService,
-                                     VectorStore vectorStore) {
-        return ChatClient.builder(deepSeekChatModel)
+                                     StreamControlProperties streamControlProperties,
+                                     ChatStreamMetrics chatStreamMetrics,
+                                     SemanticAnswerCache semanticAnswerCache,
+                                     AdmissionControlService admissionControlService,
+                                     UsageAccountingService usageAccountingService,
+                                     ExecutionSchedulers executionSchedulers,
+                                     KnowledgeBaseService knowledgeBaseService,
+                                     RagProperties ragProperties,
+                                     ChatMemoryProperties chatMemoryProperties) {
+        // 聊天记忆advisor：阻塞客户端在记忆调度器上读写，响应式客户端直接组合进响应流
+        Advisor chatMemoryAdvisor;
+        StreamCompletionListener chatMemoryListener;
+        if (chatMemoryProperties.getClient() == ChatMemoryProperties.Client.REACTIVE) {
+            ReactiveChatMemoryAdvisor reactiveChatMemoryAdvisor = ReactiveChatMemoryAdvisor.builder(reactiveChatMemory)
+                    .loadTimeout(chatMemoryProperties.getLoadTimeout())
+                    .build();
+            chatMemoryAdvisor = reactiveChatMemoryAdvisor;
+            chatMemoryListener = reactiveChatMemoryAdvisor;
+        } else {
+            CustomMessageChatMemoryAdvisor customMessageChatMemoryAdvisor = CustomMessageChatMemoryAdvisor.builder(chatMemory)
+                    .scheduler(executionSchedulers.scheduler(ExecutionSchedulers.Path.MEMORY))
+                    .loadTimeout(chatMemoryProperties.getLoadTimeout())
+                    .build();
+            chatMemoryAdvisor = customMessageChatMemoryAdvisor;
+            chatMemoryListener = customMessageChatMemoryAdvisor;
+        }
+        // 历史记录advisor
+        MySqlChatHistoryAdvisor chatHistoryAdvisor = MySqlChatHistoryAdvisor.builder().build();
+        // 语义缓存advisor
+        SemanticCacheAdvisor semanticCacheAdvisor = SemanticCacheAdvisor.builder(semanticAnswerCache)
+                .scheduler(executionSchedulers.scheduler(ExecutionSchedulers.Path.RETRIEVAL))
+                .build();
+        // 知识库检索advisor - 每个请求在所选知识库中只检索一次，结果写入context
+        RetrievalAdvisor retrievalAdvisor = RetrievalAdvisor.builder(knowledgeBaseService)
+                .topK(ragProperties.getDefaultTopK())
+                .similarityThreshold(ragProperties.getDefaultThreshold())
+                .timeout(ragProperties.getRetrievalTimeout())
+                .scheduler(executionSchedulers.scheduler(ExecutionSchedulers.Path.RETRIEVAL))
+                .build();
+        // 对冲路由模型：DeepSeek为主，首token超时或报错时启动OpenAI兼容的备用模型
+        HedgingChatModel hedgingChatModel = new HedgingChatModel(deepSeekChatModel, openAiChatModel.getIfAvailable(),
+                hedgingProperties, meterRegistry);
+        return ChatClient.builder(hedgingChatModel)
                 .defaultAdvisors(
+                    // 流式聚合advisor - 每个请求只聚合一次，完成后回调记忆、历史记录、语义缓存和用量统计
+                    StreamAggregationAdvisor.builder()
+                        .listenerScheduler(streamControlProperties.isFastPath()
+                                ? executionSchedulers.scheduler(ExecutionSchedulers.Path.MEMORY) : null)
+                        .listener(chatMemoryListener)
+                        // 记忆写入后再登记压缩
+                        .listener(conversationCompactionService)
+                        .listener(chatHistoryAdvisor)
+                        .listener(semanticCacheAdvisor)
+                        .listener(usageAccountingService)
+                        .build(),
                     // 流控制advisor - 最高优先级，最先执行
                     StreamControlAdvisor.builder(streamControlService)
                         .order(-1)
+                        .scheduler(executionSchedulers.scheduler(ExecutionSchedulers.Path.STREAM_CONTROL))
+                        .metrics(chatStreamMetrics)
+                        .fastPath(streamControlProperties.isFastPath())
+                        .build(),
+                    // 检索预取advisor - 在记忆加载前发起检索，两者并行
+                    RetrievalPrefetchAdvisor.builder(retrievalAdvisor)
+                        .enabled(ragProperties.isPrefetchEnabled())
                         .build(),
-                    // 聊天记忆advisor
-                    CustomMessageChatMemoryAdvisor.builder(chatMemory).build(),
-                    // 历史记录advisor
-                    MySqlChatHistoryAdvisor.builder().build(),
-                    QuestionAnswerAdvisor.builder(vectorStore)
-                        .searchRequest(SearchRequest.builder().similarityThreshold(0.8d).topK(6).build())
-                        .build()
+                    chatMemoryAdvisor,
+                    semanticCacheAdvisor,
+                    chatHistoryAdvisor,
+                    retrievalAdvisor,
+                    // 单飞advisor - 合并并发的相同无历史请求，紧挨模型调用
+                    SingleFlightAdvisor.builder().build(),
+                    // 准入控制advisor - 按模型限制并发的上游调用
+                    ConcurrencyLimitAdvisor.builder(admissionControlService).build()
                 )
                 .defaultSystem("""
                         你是一个乐观的小助手
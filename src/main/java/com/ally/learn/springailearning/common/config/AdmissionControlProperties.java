@@ -0,0 +1,48 @@
+package com.ally.learn.springailearning.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author cgl
+ * @description 模型调用准入控制配置：按模型的自适应并发上限（AIMD）+ 短公平队列
+ * @date 2025-06-17
+ * @Version 1.0
+ **/
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.chat.admission")
+public class AdmissionControlProperties {
+
+    private boolean enabled = true;
+    // 每个模型的排队上限，队列满时立即拒绝
+    private int queueSize = 50;
+    // 排队最长等待时间
+    private Duration maxWait = Duration.ofSeconds(10);
+    // 首token延迟超过该值视为过载，触发乘性减小
+    private Duration latencyThreshold = Duration.ofSeconds(5);
+    // 非流式调用的整体耗时超过该值视为过载，整体耗时包含完整生成，不能与首token阈值共用
+    private Duration callLatencyThreshold = Duration.ofSeconds(60);
+    // 过载或429时并发上限的缩减比例
+    private double backoffRatio = 0.7;
+    // 未单独配置的模型使用的默认限制
+    private Limit defaults = new Limit();
+    // key为模型名，如deepseek-chat、deepseek-reasoner
+    private Map<String, Limit> models = new HashMap<>();
+
+    public Limit limitFor(String model) {
+        return models.getOrDefault(model, defaults);
+    }
+
+    @Data
+    public static class Limit {
+        private int initialLimit = 10;
+        private int minLimit = 1;
+        private int maxLimit = 50;
+    }
+}
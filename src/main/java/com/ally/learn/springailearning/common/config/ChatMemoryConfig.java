@@ -1,6 +1,15 @@
 package com.ally.learn.springailearning.common.config;
 
+import com.ally.learn.springailearning.common.memory.AppendableChatMemoryRepository;
+import com.ally.learn.springailearning.common.memory.NearCacheChatMemoryRepository;
+import com.ally.learn.springailearning.common.memory.ReactiveChatMemory;
+import com.ally.learn.springailearning.common.memory.ReactiveTokenWindowChatMemory;
+import com.ally.learn.springailearning.common.memory.TokenWindowChatMemory;
+import com.ally.learn.springailearning.common.memory.WriteBehindChatMemoryRepository;
+import com.ally.learn.springailearning.common.repository.ReactiveRedisChatMemoryRepository;
 import com.ally.learn.springailearning.common.repository.RedisChatMemoryRepository;
+import com.ally.learn.springailearning.common.service.RedisPubSubService;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.memory.MessageWindowChatMemory;
 import org.springframework.context.annotation.Bean;
@@ -17,14 +26,50 @@ import org.springframework.context.annotation.Primary;
 public class ChatMemoryConfig {
 
     /**
-     * 创建基于Redis的聊天记忆Bean
+     * 创建基于Redis的聊天记忆Bean，按token预算裁剪窗口
      */
     @Bean
     @Primary
-    public ChatMemory redisChatMemory(RedisChatMemoryRepository redisChatMemoryRepository) {
-        return MessageWindowChatMemory.builder()
-                .maxMessages(20) // 最多保留20条消息
-                .chatMemoryRepository(redisChatMemoryRepository)
+    public ChatMemory redisChatMemory(RedisChatMemoryRepository redisChatMemoryRepository,
+                                      ChatMemoryProperties chatMemoryProperties,
+                                      RedisPubSubService redisPubSubService,
+                                      MeterRegistry meterRegistry) {
+        AppendableChatMemoryRepository chatMemoryRepository = redisChatMemoryRepository;
+        ChatMemoryProperties.NearCache nearCache = chatMemoryProperties.getNearCache();
+        if (nearCache.isEnabled()) {
+            // 会话通常固定在同一节点，进程内缓存最近的窗口，省去每轮读取Redis
+            chatMemoryRepository = new NearCacheChatMemoryRepository(redisChatMemoryRepository, redisPubSubService,
+                    meterRegistry, nearCache.getMaxEntries(), nearCache.getTtl());
+        }
+        boolean incrementalWrites = chatMemoryProperties.getWriteMode() == ChatMemoryProperties.WriteMode.APPEND;
+        ChatMemoryProperties.WriteBehind writeBehind = chatMemoryProperties.getWriteBehind();
+        if (incrementalWrites && writeBehind.isEnabled()) {
+            // 放在近端缓存外层，批量写入后近端缓存按版本号更新；容器关闭时随ChatMemory一起刷完剩余写入
+            chatMemoryRepository = new WriteBehindChatMemoryRepository(chatMemoryRepository, meterRegistry,
+                    writeBehind.getFlushInterval(), writeBehind.getMaxBatchSize(), writeBehind.getMaxPending(),
+                    writeBehind.getAwaitTimeout());
+        }
+        // 按模型的token预算裁剪，而不是固定条数
+        return TokenWindowChatMemory.builder()
+                .chatMemoryRepository(chatMemoryRepository)
+                .defaultTokenBudget(chatMemoryProperties.getDefaultTokenBudget())
+                .modelTokenBudgets(chatMemoryProperties.getTokenBudgets())
+                .maxMessages(chatMemoryProperties.getMaxMessages())
+                .incrementalWrites(incrementalWrites)
+                .build();
+    }
+
+    /**
+     * 非阻塞的聊天记忆，app.chat.memory.client=reactive时由记忆advisor使用，与redisChatMemory读写同一份数据
+     */
+    @Bean
+    public ReactiveChatMemory reactiveChatMemory(ReactiveRedisChatMemoryRepository reactiveRedisChatMemoryRepository,
+                                                 ChatMemoryProperties chatMemoryProperties) {
+        return ReactiveTokenWindowChatMemory.builder()
+                .chatMemoryRepository(reactiveRedisChatMemoryRepository)
+                .defaultTokenBudget(chatMemoryProperties.getDefaultTokenBudget())
+                .modelTokenBudgets(chatMemoryProperties.getTokenBudgets())
+                .maxMessages(chatMemoryProperties.getMaxMessages())
                 .build();
     }
 
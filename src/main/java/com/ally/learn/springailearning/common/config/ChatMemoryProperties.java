@@ -0,0 +1,113 @@
+package com.ally.learn.springailearning.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author cgl
+ * @description 聊天记忆窗口配置：按估算token数裁剪历史消息
+ * @date 2025-06-19
+ * @Version 1.0
+ **/
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.chat.memory")
+public class ChatMemoryProperties {
+
+    // 未单独配置的模型使用的历史token预算
+    private int defaultTokenBudget = 4000;
+    // 按模型名配置的历史token预算
+    private Map<String, Integer> tokenBudgets = new HashMap<>();
+    // 条数上限
+    private int maxMessages = 100;
+    // 流式请求加载记忆的超时时间，超时后不带历史继续生成
+    private Duration loadTimeout = Duration.ofSeconds(2);
+    // 记忆读写方式：JEDIS阻塞客户端（在记忆调度器上执行），REACTIVE非阻塞客户端（直接组合进响应流）
+    private Client client = Client.JEDIS;
+    // 写入方式：APPEND只追加新消息（服务端脚本原子裁剪），REPLACE每次整体替换窗口
+    private WriteMode writeMode = WriteMode.APPEND;
+    // 存储格式：BINARY紧凑二进制，JSON兼容旧版本；两种格式写入的数据都可以读取
+    private Codec codec = Codec.BINARY;
+    // 二进制消息体达到该字节数时压缩，0表示不压缩
+    private int compressionThreshold = 1024;
+
+    private Compaction compaction = new Compaction();
+
+    private NearCache nearCache = new NearCache();
+
+    private Sweeper sweeper = new Sweeper();
+
+    private WriteBehind writeBehind = new WriteBehind();
+
+    public enum Client {
+        JEDIS, REACTIVE
+    }
+
+    public enum WriteMode {
+        APPEND, REPLACE
+    }
+
+    public enum Codec {
+        BINARY, JSON
+    }
+
+    /**
+     * 进程内近端缓存配置：缓存最近读取的对话窗口，其他节点写入时通过Redis发布订阅失效
+     */
+    @Data
+    public static class NearCache {
+        private boolean enabled = true;
+        private int maxEntries = 10000;
+        // 兜底过期时间，覆盖订阅断线期间漏掉的失效消息
+        private Duration ttl = Duration.ofSeconds(30);
+    }
+
+    /**
+     * 写后批量配置：追加先进入队列，由后台线程把所有会话的写入合并到一个流水线，仅对APPEND写入方式生效
+     */
+    @Data
+    public static class WriteBehind {
+        private boolean enabled = false;
+        private Duration flushInterval = Duration.ofMillis(5);
+        // 攒够该数量时立即刷新，也是单个流水线的最大写入数
+        private int maxBatchSize = 256;
+        // 积压超过该数量时调用方同步等待，对Redis形成背压
+        private int maxPending = 10000;
+        // 读取、替换或删除前等待该会话积压写入的最长时间
+        private Duration awaitTimeout = Duration.ofSeconds(1);
+    }
+
+    /**
+     * 对话索引清理配置：定时分批移除数据已过期的对话ID，每批一次流水线往返
+     */
+    @Data
+    public static class Sweeper {
+        private boolean enabled = true;
+        private Duration interval = Duration.ofSeconds(60);
+        private int batchSize = 500;
+        // 单次运行最多处理的批数，积压时留到下次运行
+        private int maxBatchesPerRun = 20;
+    }
+
+    /**
+     * 后台压缩配置：对话估算token数超过阈值时，把较早的消息替换为模型生成的摘要
+     */
+    @Data
+    public static class Compaction {
+        // 压缩会额外调用模型，默认关闭
+        private boolean enabled = false;
+        // 触发压缩的对话token数
+        private int triggerTokens = 3000;
+        // 保留最近的消息条数，不参与摘要
+        private int keepRecentMessages = 6;
+        // 同一对话的多次触发在该延迟内合并为一次
+        private Duration delay = Duration.ofSeconds(2);
+        private String model = "deepseek-chat";
+        private int maxSummaryTokens = 500;
+    }
+}
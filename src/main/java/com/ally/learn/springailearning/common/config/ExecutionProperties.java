@@ -0,0 +1,32 @@
+package com.ally.learn.springailearning.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * @author cgl
+ * @description 阻塞任务执行模式配置，可按路径分别选择boundedElastic线程池或虚拟线程（需Java 21+）
+ * @date 2025-06-18
+ * @Version 1.0
+ **/
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.execution")
+public class ExecutionProperties {
+
+    // 非流式聊天（.call()）
+    private Mode chat = Mode.BOUNDED_ELASTIC;
+    // 聊天记忆读写（Redis/Jedis）
+    private Mode memory = Mode.BOUNDED_ELASTIC;
+    // 流控制advisor的publishOn
+    private Mode streamControl = Mode.BOUNDED_ELASTIC;
+    // 语义缓存嵌入、向量检索
+    private Mode retrieval = Mode.BOUNDED_ELASTIC;
+    // 文档解析（Tika/PDF）与入库
+    private Mode ingestion = Mode.BOUNDED_ELASTIC;
+
+    public enum Mode {
+        BOUNDED_ELASTIC, VIRTUAL
+    }
+}
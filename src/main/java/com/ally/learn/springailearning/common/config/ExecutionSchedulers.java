@@ -0,0 +1,76 @@
+package com.ally.learn.springailearning.common.config;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author cgl
+ * @description 阻塞任务调度器：按路径提供boundedElastic或虚拟线程调度器。
+ * 项目以Java 17编译，虚拟线程执行器通过反射创建；运行时低于Java 21时回退到boundedElastic
+ * @date 2025-06-18
+ * @Version 1.0
+ **/
+@Component
+public class ExecutionSchedulers {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionSchedulers.class);
+
+    public enum Path {
+        CHAT, MEMORY, STREAM_CONTROL, RETRIEVAL, INGESTION
+    }
+
+    private final Map<Path, Scheduler> schedulers = new EnumMap<>(Path.class);
+    private final List<Scheduler> ownedSchedulers = new ArrayList<>();
+
+    public ExecutionSchedulers(ExecutionProperties properties) {
+        schedulers.put(Path.CHAT, create(Path.CHAT, properties.getChat()));
+        schedulers.put(Path.MEMORY, create(Path.MEMORY, properties.getMemory()));
+        schedulers.put(Path.STREAM_CONTROL, create(Path.STREAM_CONTROL, properties.getStreamControl()));
+        schedulers.put(Path.RETRIEVAL, create(Path.RETRIEVAL, properties.getRetrieval()));
+        schedulers.put(Path.INGESTION, create(Path.INGESTION, properties.getIngestion()));
+    }
+
+    public Scheduler scheduler(Path path) {
+        return schedulers.get(path);
+    }
+
+    private Scheduler create(Path path, ExecutionProperties.Mode mode) {
+        if (mode == ExecutionProperties.Mode.VIRTUAL) {
+            ExecutorService executor = newVirtualThreadExecutor();
+            if (executor != null) {
+                logger.info("Execution path {} runs on virtual threads", path);
+                Scheduler scheduler = Schedulers.fromExecutorService(executor, "virtual-" + path.name().toLowerCase());
+                ownedSchedulers.add(scheduler);
+                return scheduler;
+            }
+            logger.warn("Virtual threads require Java 21+, execution path {} falls back to boundedElastic", path);
+        }
+        return Schedulers.boundedElastic();
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void dispose() {
+        ownedSchedulers.forEach(Scheduler::dispose);
+    }
+}
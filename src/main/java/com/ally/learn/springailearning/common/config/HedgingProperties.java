@@ -0,0 +1,40 @@
+package com.ally.learn.springailearning.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author cgl
+ * @description 模型对冲请求配置：主模型（DeepSeek）首token超时或报错时启动备用模型（OpenAI兼容接口）
+ * @date 2025-06-18
+ * @Version 1.0
+ **/
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.chat.hedging")
+public class HedgingProperties {
+
+    // 对冲会向备用模型重复发起请求，默认关闭
+    private boolean enabled = false;
+    // 备用模型名，按主模型名覆盖，未配置时使用defaultSecondaryModel
+    private String defaultSecondaryModel = "deepseek-ai/DeepSeek-V3";
+    private Map<String, String> secondaryModels = new HashMap<>();
+    // 用主模型最近首token延迟的该分位数作为对冲等待时间
+    private double percentile = 0.95;
+    private int windowSize = 200;
+    // 样本不足时使用initialDelay
+    private int minSamples = 20;
+    private Duration initialDelay = Duration.ofSeconds(3);
+    private Duration minDelay = Duration.ofMillis(500);
+    private Duration maxDelay = Duration.ofSeconds(10);
+
+    public String secondaryModelFor(String primaryModel) {
+        return primaryModel != null ? secondaryModels.getOrDefault(primaryModel, defaultSecondaryModel)
+                : defaultSecondaryModel;
+    }
+}
@@ -2,6 +2,7 @@ package com.ally.learn.springailearning.common.config;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientResponse;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.metadata.*;
 import org.springframework.ai.chat.model.ChatResponse;
@@ -13,12 +14,13 @@ import reactor.core.publisher.Flux;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
  * @author cgl
  * @description 自定义消息聚合器，支持DeepSeek的reasoningContent，并处理流取消情况
+ * 每次订阅创建独立的累加器，重订阅/重试不会共享或污染状态
  * @date 2025-06-10
  * @Version 1.0
  **/
@@ -28,187 +30,185 @@ public class MessageAggregator {
 
 	public Flux<ChatResponse> aggregate(Flux<ChatResponse> fluxChatResponse,
 										Consumer<ChatResponse> onAggregationComplete) {
+		return aggregate(fluxChatResponse, Accumulator::accept,
+				(accumulator, aggregatedChatResponse) -> onAggregationComplete.accept(aggregatedChatResponse));
+	}
+
+	/**
+	 * 聚合ChatClientResponse流，原样透传每个元素，不再为每个token重建ChatClientResponse；
+	 * 聚合结果携带流中最后一个响应的context
+	 */
+	public Flux<ChatClientResponse> aggregateChatClientResponse(Flux<ChatClientResponse> fluxChatClientResponse,
+																Consumer<ChatClientResponse> onAggregationComplete) {
+		return aggregate(fluxChatClientResponse, (accumulator, chatClientResponse) -> {
+			accumulator.context = chatClientResponse.context();
+			accumulator.accept(chatClientResponse.chatResponse());
+		}, (accumulator, aggregatedChatResponse) -> onAggregationComplete.accept(ChatClientResponse.builder()
+				.chatResponse(aggregatedChatResponse)
+				.context(accumulator.context != null ? accumulator.context : Map.of())
+				.build()));
+	}
+
+	private <T> Flux<T> aggregate(Flux<T> flux, BiConsumer<Accumulator, T> onNext,
+								  BiConsumer<Accumulator, ChatResponse> onAggregationComplete) {
+		// defer保证每次订阅（包括retry/repeat）都拿到全新的累加器
+		return Flux.defer(() -> {
+			Accumulator accumulator = new Accumulator();
+			return flux.doOnSubscribe(subscription -> logger.debug("Stream subscription started"))
+				.doOnNext(item -> onNext.accept(accumulator, item))
+				.doOnComplete(() -> {
+					logger.info("Stream completed normally");
+					accumulator.complete(onAggregationComplete, true);
+				}).doOnCancel(() -> {
+					logger.info("Stream was cancelled, saving partial response");
+					// 流被取消时也保存部分响应
+					accumulator.complete(onAggregationComplete, false);
+				}).doOnError(e -> {
+					logger.error("Stream error occurred", e);
+					// 错误时也可以选择保存部分响应
+					if (accumulator.hasPartialContent()) {
+						logger.info("Saving partial response due to error");
+					}
+					accumulator.complete(onAggregationComplete, false);
+				}).doFinally(signalType -> logger.debug("Stream finished with signal: {}", signalType));
+		});
+	}
+
+	/**
+	 * 单次订阅的聚合状态。Reactor保证同一订阅内onNext与终止信号串行，因此无需原子引用
+	 */
+	private static final class Accumulator {
 
 		// Assistant Message
-		AtomicReference<StringBuilder> messageTextContentRef = new AtomicReference<>(new StringBuilder());
-		AtomicReference<StringBuilder> messageReasoningContentRef = new AtomicReference<>(new StringBuilder());
-		AtomicReference<Map<String, Object>> messageMetadataMapRef = new AtomicReference<>();
+		private final StringBuilder textContent = new StringBuilder();
+		private StringBuilder reasoningContent;
+		private Map<String, Object> messageMetadata;
+		private Map<String, Object> lastMergedMetadata;
 
 		// ChatGeneration Metadata
-		AtomicReference<ChatGenerationMetadata> generationMetadataRef = new AtomicReference<>(
-				ChatGenerationMetadata.NULL);
+		private ChatGenerationMetadata generationMetadata = ChatGenerationMetadata.NULL;
 
 		// Usage
-		AtomicReference<Integer> metadataUsagePromptTokensRef = new AtomicReference<>(0);
-		AtomicReference<Integer> metadataUsageGenerationTokensRef = new AtomicReference<>(0);
-		AtomicReference<Integer> metadataUsageTotalTokensRef = new AtomicReference<>(0);
-
-		AtomicReference<PromptMetadata> metadataPromptMetadataRef = new AtomicReference<>(PromptMetadata.empty());
-		AtomicReference<RateLimit> metadataRateLimitRef = new AtomicReference<>(new EmptyRateLimit());
+		private int promptTokens;
+		private int completionTokens;
+		private int totalTokens;
 
-		AtomicReference<String> metadataIdRef = new AtomicReference<>("");
-		AtomicReference<String> metadataModelRef = new AtomicReference<>("");
+		private PromptMetadata promptMetadata = PromptMetadata.empty();
+		private RateLimit rateLimit = new EmptyRateLimit();
 
-		return fluxChatResponse.doOnSubscribe(subscription -> {
-			logger.debug("Stream subscription started");
-			resetReferences(messageTextContentRef, messageReasoningContentRef, messageMetadataMapRef,
-					metadataIdRef, metadataModelRef, metadataUsagePromptTokensRef,
-					metadataUsageGenerationTokensRef, metadataUsageTotalTokensRef,
-					metadataPromptMetadataRef, metadataRateLimitRef);
+		private String id = "";
+		private String model = "";
 
-		}).doOnNext(chatResponse -> {
+		private Map<String, Object> context;
+		private boolean completed;
 
-			if (chatResponse.getResult() != null) {
-				if (chatResponse.getResult().getMetadata() != null
-						&& chatResponse.getResult().getMetadata() != ChatGenerationMetadata.NULL) {
-					generationMetadataRef.set(chatResponse.getResult().getMetadata());
+		void accept(ChatResponse chatResponse) {
+			if (chatResponse == null) {
+				return;
+			}
+			Generation result = chatResponse.getResult();
+			if (result != null) {
+				if (result.getMetadata() != null && result.getMetadata() != ChatGenerationMetadata.NULL) {
+					generationMetadata = result.getMetadata();
 				}
-				AssistantMessage output = chatResponse.getResult().getOutput();
-				if (output instanceof DeepSeekAssistantMessage && ((DeepSeekAssistantMessage) output).getReasoningContent() != null) {
-					messageReasoningContentRef.get().append(((DeepSeekAssistantMessage) output).getReasoningContent());
+				AssistantMessage output = result.getOutput();
+				if (output instanceof DeepSeekAssistantMessage deepSeekMessage
+						&& deepSeekMessage.getReasoningContent() != null) {
+					if (reasoningContent == null) {
+						reasoningContent = new StringBuilder();
+					}
+					reasoningContent.append(deepSeekMessage.getReasoningContent());
 				}
 				if (output.getText() != null) {
-					messageTextContentRef.get().append(output.getText());
+					textContent.append(output.getText());
 				}
-				messageMetadataMapRef.get().putAll(output.getMetadata());
+				mergeMetadata(output.getMetadata());
 			}
 			if (chatResponse.getMetadata() != null) {
-				updateMetadata(chatResponse, metadataUsagePromptTokensRef, metadataUsageGenerationTokensRef,
-						metadataUsageTotalTokensRef, metadataPromptMetadataRef, metadataRateLimitRef,
-						metadataIdRef, metadataModelRef);
+				updateMetadata(chatResponse.getMetadata());
 			}
-		}).doOnComplete(() -> {
-			logger.info("Stream completed normally");
-			saveAggregatedResponse(messageTextContentRef, messageReasoningContentRef, messageMetadataMapRef,
-					generationMetadataRef, metadataUsagePromptTokensRef, metadataUsageGenerationTokensRef,
-					metadataUsageTotalTokensRef, metadataPromptMetadataRef, metadataRateLimitRef,
-					metadataIdRef, metadataModelRef, onAggregationComplete);
-		}).doOnCancel(() -> {
-			logger.info("Stream was cancelled, saving partial response");
-			// 流被取消时也保存部分响应
-			if (hasPartialContent(messageTextContentRef, messageReasoningContentRef)) {
-				saveAggregatedResponse(messageTextContentRef, messageReasoningContentRef, messageMetadataMapRef,
-						generationMetadataRef, metadataUsagePromptTokensRef, metadataUsageGenerationTokensRef,
-						metadataUsageTotalTokensRef, metadataPromptMetadataRef, metadataRateLimitRef,
-						metadataIdRef, metadataModelRef, onAggregationComplete);
+		}
+
+		/**
+		 * 大多数chunk携带的元数据与上一个相同，仅在内容变化时才合并
+		 */
+		private void mergeMetadata(Map<String, Object> metadata) {
+			if (metadata == null || metadata.isEmpty() || metadata == lastMergedMetadata
+					|| metadata.equals(lastMergedMetadata)) {
+				return;
 			}
-		}).doOnError(e -> {
-			logger.error("Stream error occurred", e);
-			// 错误时也可以选择保存部分响应
-			if (hasPartialContent(messageTextContentRef, messageReasoningContentRef)) {
-				logger.info("Saving partial response due to error");
-				saveAggregatedResponse(messageTextContentRef, messageReasoningContentRef, messageMetadataMapRef,
-						generationMetadataRef, metadataUsagePromptTokensRef, metadataUsageGenerationTokensRef,
-						metadataUsageTotalTokensRef, metadataPromptMetadataRef, metadataRateLimitRef,
-						metadataIdRef, metadataModelRef, onAggregationComplete);
+			if (messageMetadata == null) {
+				messageMetadata = new HashMap<>(metadata);
+			} else {
+				messageMetadata.putAll(metadata);
 			}
-		}).doFinally(signalType -> {
-			logger.debug("Stream finished with signal: {}", signalType);
-		});
-	}
-
-	private void updateMetadata(ChatResponse chatResponse,
-								AtomicReference<Integer> metadataUsagePromptTokensRef,
-								AtomicReference<Integer> metadataUsageGenerationTokensRef,
-								AtomicReference<Integer> metadataUsageTotalTokensRef,
-								AtomicReference<PromptMetadata> metadataPromptMetadataRef,
-								AtomicReference<RateLimit> metadataRateLimitRef,
-								AtomicReference<String> metadataIdRef,
-								AtomicReference<String> metadataModelRef) {
-		if (chatResponse.getMetadata().getUsage() != null) {
-			Usage usage = chatResponse.getMetadata().getUsage();
-			metadataUsagePromptTokensRef.set(
-					usage.getPromptTokens() > 0 ? usage.getPromptTokens() : metadataUsagePromptTokensRef.get());
-			metadataUsageGenerationTokensRef.set(usage.getCompletionTokens() > 0 ? usage.getCompletionTokens()
-					: metadataUsageGenerationTokensRef.get());
-			metadataUsageTotalTokensRef
-				.set(usage.getTotalTokens() > 0 ? usage.getTotalTokens() : metadataUsageTotalTokensRef.get());
-		}
-		if (chatResponse.getMetadata().getPromptMetadata() != null
-				&& chatResponse.getMetadata().getPromptMetadata().iterator().hasNext()) {
-			metadataPromptMetadataRef.set(chatResponse.getMetadata().getPromptMetadata());
-		}
-		if (chatResponse.getMetadata().getRateLimit() != null
-				&& !(metadataRateLimitRef.get() instanceof EmptyRateLimit)) {
-			metadataRateLimitRef.set(chatResponse.getMetadata().getRateLimit());
+			lastMergedMetadata = metadata;
 		}
-		if (StringUtils.hasText(chatResponse.getMetadata().getId())) {
-			metadataIdRef.set(chatResponse.getMetadata().getId());
+
+		private void updateMetadata(ChatResponseMetadata metadata) {
+			Usage usage = metadata.getUsage();
+			if (usage != null) {
+				promptTokens = positiveOr(usage.getPromptTokens(), promptTokens);
+				completionTokens = positiveOr(usage.getCompletionTokens(), completionTokens);
+				totalTokens = positiveOr(usage.getTotalTokens(), totalTokens);
+			}
+			if (metadata.getPromptMetadata() != null && metadata.getPromptMetadata().iterator().hasNext()) {
+				promptMetadata = metadata.getPromptMetadata();
+			}
+			if (metadata.getRateLimit() != null && !(metadata.getRateLimit() instanceof EmptyRateLimit)) {
+				rateLimit = metadata.getRateLimit();
+			}
+			if (StringUtils.hasText(metadata.getId())) {
+				id = metadata.getId();
+			}
+			if (StringUtils.hasText(metadata.getModel())) {
+				model = metadata.getModel();
+			}
 		}
-		if (StringUtils.hasText(chatResponse.getMetadata().getModel())) {
-			metadataModelRef.set(chatResponse.getMetadata().getModel());
+
+		private static int positiveOr(Integer value, int current) {
+			return value != null && value > 0 ? value : current;
 		}
-	}
 
-	private boolean hasPartialContent(AtomicReference<StringBuilder> messageTextContentRef,
-									  AtomicReference<StringBuilder> messageReasoningContentRef) {
-		return messageTextContentRef.get().length() > 0 || messageReasoningContentRef.get().length() > 0;
-	}
+		boolean hasPartialContent() {
+			return textContent.length() > 0 || (reasoningContent != null && reasoningContent.length() > 0);
+		}
 
-	private void saveAggregatedResponse(AtomicReference<StringBuilder> messageTextContentRef,
-										AtomicReference<StringBuilder> messageReasoningContentRef,
-										AtomicReference<Map<String, Object>> messageMetadataMapRef,
-										AtomicReference<ChatGenerationMetadata> generationMetadataRef,
-										AtomicReference<Integer> metadataUsagePromptTokensRef,
-										AtomicReference<Integer> metadataUsageGenerationTokensRef,
-										AtomicReference<Integer> metadataUsageTotalTokensRef,
-										AtomicReference<PromptMetadata> metadataPromptMetadataRef,
-										AtomicReference<RateLimit> metadataRateLimitRef,
-										AtomicReference<String> metadataIdRef,
-										AtomicReference<String> metadataModelRef,
-										Consumer<ChatResponse> onAggregationComplete) {
-		
-		var usage = new DefaultUsage(metadataUsagePromptTokensRef.get(), metadataUsageGenerationTokensRef.get(),
-				metadataUsageTotalTokensRef.get());
-
-		var chatResponseMetadata = ChatResponseMetadata.builder()
-			.id(metadataIdRef.get())
-			.model(metadataModelRef.get())
-			.rateLimit(metadataRateLimitRef.get())
-			.usage(usage)
-			.promptMetadata(metadataPromptMetadataRef.get())
-			.build();
-			
-		if (messageReasoningContentRef.get().length() > 0) {
-			DeepSeekAssistantMessage assistantMessage = new DeepSeekAssistantMessage(
-					messageTextContentRef.get().toString(), messageMetadataMapRef.get());
-			assistantMessage.setReasoningContent(messageReasoningContentRef.get().toString());
-			onAggregationComplete.accept(new ChatResponse(List.of(new Generation(
-					assistantMessage,
-					generationMetadataRef.get())), chatResponseMetadata));
-		} else {
-			onAggregationComplete.accept(new ChatResponse(List.of(new Generation(
-					new AssistantMessage(messageTextContentRef.get().toString(), messageMetadataMapRef.get()),
-					generationMetadataRef.get())), chatResponseMetadata));
+		/**
+		 * 每次订阅最多回调一次；取消或出错时仅在已有部分内容时回调
+		 */
+		void complete(BiConsumer<Accumulator, ChatResponse> onAggregationComplete, boolean normalCompletion) {
+			if (completed || (!normalCompletion && !hasPartialContent())) {
+				return;
+			}
+			completed = true;
+			onAggregationComplete.accept(this, toChatResponse());
 		}
-		
-		// 清理引用
-		resetReferences(messageTextContentRef, messageReasoningContentRef, messageMetadataMapRef,
-				metadataIdRef, metadataModelRef, metadataUsagePromptTokensRef,
-				metadataUsageGenerationTokensRef, metadataUsageTotalTokensRef,
-				metadataPromptMetadataRef, metadataRateLimitRef);
-	}
 
-	private void resetReferences(AtomicReference<StringBuilder> messageTextContentRef,
-								 AtomicReference<StringBuilder> messageReasoningContentRef,
-								 AtomicReference<Map<String, Object>> messageMetadataMapRef,
-								 AtomicReference<String> metadataIdRef,
-								 AtomicReference<String> metadataModelRef,
-								 AtomicReference<Integer> metadataUsagePromptTokensRef,
-								 AtomicReference<Integer> metadataUsageGenerationTokensRef,
-								 AtomicReference<Integer> metadataUsageTotalTokensRef,
-								 AtomicReference<PromptMetadata> metadataPromptMetadataRef,
-								 AtomicReference<RateLimit> metadataRateLimitRef) {
-		messageTextContentRef.set(new StringBuilder());
-		messageReasoningContentRef.set(new StringBuilder());
-		messageMetadataMapRef.set(new HashMap<>());
-		metadataIdRef.set("");
-		metadataModelRef.set("");
-		metadataUsagePromptTokensRef.set(0);
-		metadataUsageGenerationTokensRef.set(0);
-		metadataUsageTotalTokensRef.set(0);
-		metadataPromptMetadataRef.set(PromptMetadata.empty());
-		metadataRateLimitRef.set(new EmptyRateLimit());
+		private ChatResponse toChatResponse() {
+			var usage = new DefaultUsage(promptTokens, completionTokens, totalTokens);
+
+			var chatResponseMetadata = ChatResponseMetadata.builder()
+				.id(id)
+				.model(model)
+				.rateLimit(rateLimit)
+				.usage(usage)
+				.promptMetadata(promptMetadata)
+				.build();
+
+			Map<String, Object> metadata = messageMetadata != null ? messageMetadata : new HashMap<>();
+			AssistantMessage assistantMessage;
+			if (reasoningContent != null && reasoningContent.length() > 0) {
+				DeepSeekAssistantMessage deepSeekAssistantMessage = new DeepSeekAssistantMessage(
+						textContent.toString(), metadata);
+				deepSeekAssistantMessage.setReasoningContent(reasoningContent.toString());
+				assistantMessage = deepSeekAssistantMessage;
+			} else {
+				assistantMessage = new AssistantMessage(textContent.toString(), metadata);
+			}
+			return new ChatResponse(List.of(new Generation(assistantMessage, generationMetadata)),
+					chatResponseMetadata);
+		}
 	}
 
 	public record DefaultUsage(Integer promptTokens, Integer completionTokens, Integer totalTokens) implements Usage {
@@ -237,4 +237,4 @@ public class MessageAggregator {
 			return usage;
 		}
 	}
-}
\ No newline at end of file
+}
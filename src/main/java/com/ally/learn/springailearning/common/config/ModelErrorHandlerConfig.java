@@ -0,0 +1,61 @@
+package com.ally.learn.springailearning.common.config;
+
+import com.ally.learn.springailearning.common.model.NonTransientUpstreamException;
+import com.ally.learn.springailearning.common.model.TransientUpstreamException;
+import org.springframework.ai.retry.autoconfigure.SpringAiRetryProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.ResponseErrorHandler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author cgl
+ * @description 非流式模型调用的HTTP错误处理：重试判定规则与Spring AI默认的处理器一致（spring.ai.retry.*），
+ * 区别是抛出的异常保留状态码，准入控制可以可靠地识别上游429
+ * @date 2025-06-24
+ * @Version 1.0
+ **/
+@Configuration
+public class ModelErrorHandlerConfig {
+
+    @Bean
+    public ResponseErrorHandler responseErrorHandler(SpringAiRetryProperties retryProperties) {
+        return new ResponseErrorHandler() {
+
+            @Override
+            public boolean hasError(ClientHttpResponse response) throws IOException {
+                return response.getStatusCode().isError();
+            }
+
+            @Override
+            public void handleError(URI url, HttpMethod method, ClientHttpResponse response) throws IOException {
+                HttpStatusCode status = response.getStatusCode();
+                if (!status.isError()) {
+                    return;
+                }
+                String error = StreamUtils.copyToString(response.getBody(), StandardCharsets.UTF_8);
+                String message = String.format("HTTP %s - %s", status.value(),
+                        error.isEmpty() ? "No response body available" : error);
+                if (retryProperties.getOnHttpCodes().contains(status.value())) {
+                    throw new TransientUpstreamException(status.value(), message);
+                }
+                if (!retryProperties.isOnClientErrors() && status.is4xxClientError()) {
+                    throw new NonTransientUpstreamException(status.value(), message);
+                }
+                if (!CollectionUtils.isEmpty(retryProperties.getExcludeOnHttpCodes())
+                        && retryProperties.getExcludeOnHttpCodes().contains(status.value())) {
+                    throw new NonTransientUpstreamException(status.value(), message);
+                }
+                throw new TransientUpstreamException(status.value(), message);
+            }
+        };
+    }
+}
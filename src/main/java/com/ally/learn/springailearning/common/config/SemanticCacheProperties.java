@@ -0,0 +1,31 @@
+package com.ally.learn.springailearning.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * @author cgl
+ * @description 语义答案缓存配置
+ * @date 2025-06-17
+ * @Version 1.0
+ **/
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.chat.semantic-cache")
+public class SemanticCacheProperties {
+
+    private boolean enabled = true;
+    // 余弦相似度阈值，达到阈值才视为命中
+    private double similarityThreshold = 0.95;
+    private Duration ttl = Duration.ofMinutes(30);
+    // 每个知识库最多缓存的答案数，超出后淘汰最久未使用的
+    private int maxEntriesPerKnowledgeBase = 500;
+    // 查找超时时间，超时按未命中处理
+    private Duration lookupTimeout = Duration.ofSeconds(1);
+    // 是否通过Redis广播知识库变更，使其他节点上的缓存同时失效
+    private boolean clusterEnabled = true;
+    private String channel = "chat:semantic-cache:invalidate";
+}
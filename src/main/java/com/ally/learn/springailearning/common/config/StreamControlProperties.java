@@ -0,0 +1,25 @@
+package com.ally.learn.springailearning.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * @author cgl
+ * @description 流停止控制配置
+ * @date 2025-06-18
+ * @Version 1.0
+ **/
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.chat.stream-control")
+public class StreamControlProperties {
+
+    // 单节点最多同时登记的会话数，超出后新的流不可停止（只记录告警，不影响生成）
+    private int maxEntries = 10000;
+    // 是否通过Redis广播停止请求，使任意节点收到的/stop都能停止其他节点上的流
+    private boolean clusterEnabled = true;
+    private String channel = "chat:stream:cancel";
+    // 快速路径：token不再publishOn切换线程，直接在上游线程发射，流结束回调改在memory调度器执行
+    private boolean fastPath = false;
+}
@@ -0,0 +1,27 @@
+package com.ally.learn.springailearning.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * @author cgl
+ * @description token用量统计配置
+ * @date 2025-06-19
+ * @Version 1.0
+ **/
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.chat.usage")
+public class UsageAccountingProperties {
+
+    private boolean enabled = true;
+    // 内存计数刷入Redis的间隔，调度注解直接读取该配置
+    private Duration flushInterval = Duration.ofSeconds(10);
+    // 会话维度用量的保留时间，与对话记忆一致
+    private Duration sessionTtl = Duration.ofDays(7);
+    // 每个排行ZSet保留的成员数，刷新时裁剪，也是排行查询的条数上限
+    private int rankMaxSize = 1000;
+}
@@ -0,0 +1,53 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author cgl
+ * @description 支持增量追加的聊天记忆存储：只写入新消息，由存储端原子地完成追加、按条数裁剪和续期
+ * @date 2025-06-21
+ * @Version 1.0
+ **/
+public interface AppendableChatMemoryRepository extends ChatMemoryRepository {
+
+    /**
+     * 追加新消息并把对话裁剪到最近的maxMessages条（开头的系统消息保留）
+     * @return 追加后的对话版本号，每次写入递增
+     */
+    long append(String conversationId, List<Message> messages, int maxMessages);
+
+    /**
+     * 批量追加，可以跨多个对话；同一对话的请求按列表顺序生效
+     * @return 与请求一一对应的追加后版本号，失败的为-1
+     */
+    default List<Long> appendAll(List<AppendRequest> requests) {
+        List<Long> versions = new ArrayList<>(requests.size());
+        for (AppendRequest request : requests) {
+            versions.add(append(request.conversationId(), request.messages(), request.maxMessages()));
+        }
+        return versions;
+    }
+
+    /**
+     * 对话当前的版本号，从未写入过时为0
+     */
+    long getVersion(String conversationId);
+
+    /**
+     * 原子地读取对话消息及其版本号
+     */
+    VersionedMessages findWithVersion(String conversationId);
+
+    record AppendRequest(String conversationId, List<Message> messages, int maxMessages) {
+    }
+
+    /**
+     * @param version 读取时的版本号，读取失败时为-1
+     */
+    record VersionedMessages(long version, List<Message> messages) {
+    }
+}
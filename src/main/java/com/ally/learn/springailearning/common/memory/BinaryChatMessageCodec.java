@@ -0,0 +1,335 @@
+package com.ally.learn.springailearning.common.memory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author cgl
+ * @description 紧凑二进制编解码器。格式：魔数(1字节) + 类型(1字节) + 标志(1字节) + 消息体；
+ * 消息体为varint长度前缀的UTF-8文本和元数据，元数据值带1字节类型标记，常见的字符串、整数、布尔值不经过JSON。
+ * 消息体超过阈值时用Deflate压缩（标志位0x01），压缩后的消息体前缀原始长度。
+ * 类型字节不参与压缩，存储端脚本可以直接判断是否为系统消息
+ * @date 2025-06-21
+ * @Version 1.0
+ **/
+public class BinaryChatMessageCodec implements ChatMessageCodec {
+
+    public static final byte MAGIC = (byte) 0xC7;
+    public static final byte TYPE_USER = 1;
+    public static final byte TYPE_ASSISTANT = 2;
+    public static final byte TYPE_SYSTEM = 3;
+
+    private static final int HEADER_LENGTH = 3;
+    private static final byte FLAG_DEFLATE = 0x01;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_STRING = 1;
+    private static final byte VALUE_INT = 2;
+    private static final byte VALUE_LONG = 3;
+    private static final byte VALUE_DOUBLE = 4;
+    private static final byte VALUE_TRUE = 5;
+    private static final byte VALUE_FALSE = 6;
+    // 其他类型的元数据值退回JSON
+    private static final byte VALUE_JSON = 7;
+
+    private final int compressionThreshold;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * @param compressionThreshold 消息体达到该字节数时尝试压缩，小于等于0时不压缩
+     */
+    public BinaryChatMessageCodec(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        byte type = typeOf(message);
+        Output body = new Output(64 + (message.getText() != null ? message.getText().length() * 3 : 0));
+        body.writeString(message.getText());
+        Map<String, Object> metadata = message.getMetadata();
+        body.writeVarint(metadata.size());
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            body.writeString(entry.getKey());
+            writeValue(body, entry.getValue());
+        }
+
+        byte flags = 0;
+        Output payload = body;
+        if (compressionThreshold > 0 && body.size >= compressionThreshold) {
+            Output compressed = deflate(body);
+            // 压缩收益不明显时保留原文，读取时省去解压
+            if (compressed.size < body.size) {
+                flags |= FLAG_DEFLATE;
+                payload = compressed;
+            }
+        }
+        byte[] bytes = new byte[HEADER_LENGTH + payload.size];
+        bytes[0] = MAGIC;
+        bytes[1] = type;
+        bytes[2] = flags;
+        System.arraycopy(payload.buffer, 0, bytes, HEADER_LENGTH, payload.size);
+        return bytes;
+    }
+
+    @Override
+    public Message decode(byte[] bytes) throws IOException {
+        if (!canDecode(bytes)) {
+            throw new IOException("Not a binary chat message");
+        }
+        Input body = (bytes[2] & FLAG_DEFLATE) != 0
+                ? inflate(bytes)
+                : new Input(bytes, HEADER_LENGTH);
+        String text = body.readString();
+        int metadataSize = body.readVarint();
+        Map<String, Object> metadata = new HashMap<>(Math.max(4, metadataSize * 2));
+        for (int i = 0; i < metadataSize; i++) {
+            metadata.put(body.readString(), readValue(body));
+        }
+        return switch (bytes[1]) {
+            case TYPE_USER -> UserMessage.builder().text(text).metadata(metadata).build();
+            case TYPE_ASSISTANT -> new AssistantMessage(text, metadata);
+            case TYPE_SYSTEM -> SystemMessage.builder().text(text).metadata(metadata).build();
+            default -> null;
+        };
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+    }
+
+    /**
+     * DeepSeek的助手消息按普通助手消息存储，与JSON格式一致，推理内容不进入历史
+     */
+    private byte typeOf(Message message) {
+        return switch (message.getMessageType()) {
+            case USER -> TYPE_USER;
+            case ASSISTANT -> TYPE_ASSISTANT;
+            case SYSTEM -> TYPE_SYSTEM;
+            default -> throw new IllegalArgumentException("Unsupported message type: " + message.getMessageType());
+        };
+    }
+
+    private void writeValue(Output output, Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(VALUE_NULL);
+        } else if (value instanceof String string) {
+            output.writeByte(VALUE_STRING);
+            output.writeString(string);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            output.writeByte(VALUE_INT);
+            output.writeVarlong(zigzag(((Number) value).longValue()));
+        } else if (value instanceof Long longValue) {
+            output.writeByte(VALUE_LONG);
+            output.writeVarlong(zigzag(longValue));
+        } else if (value instanceof Double || value instanceof Float) {
+            output.writeByte(VALUE_DOUBLE);
+            output.writeLong(Double.doubleToRawLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof Boolean booleanValue) {
+            output.writeByte(booleanValue ? VALUE_TRUE : VALUE_FALSE);
+        } else {
+            output.writeByte(VALUE_JSON);
+            output.writeString(objectMapper.writeValueAsString(value));
+        }
+    }
+
+    private Object readValue(Input input) throws IOException {
+        byte tag = input.readByte();
+        return switch (tag) {
+            case VALUE_NULL -> null;
+            case VALUE_STRING -> input.readString();
+            case VALUE_INT -> Integer.valueOf((int) unzigzag(input.readVarlong()));
+            case VALUE_LONG -> Long.valueOf(unzigzag(input.readVarlong()));
+            case VALUE_DOUBLE -> Double.valueOf(Double.longBitsToDouble(input.readLong()));
+            case VALUE_TRUE -> Boolean.TRUE;
+            case VALUE_FALSE -> Boolean.FALSE;
+            case VALUE_JSON -> objectMapper.readValue(input.readString(), Object.class);
+            default -> throw new IOException("Unknown metadata value tag: " + tag);
+        };
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private Output deflate(Output body) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(body.buffer, 0, body.size);
+            deflater.finish();
+            Output compressed = new Output(body.size / 2 + 16);
+            compressed.writeVarint(body.size);
+            byte[] chunk = new byte[Math.max(64, body.size / 2)];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(chunk);
+                compressed.writeBytes(chunk, 0, length);
+            }
+            return compressed;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private Input inflate(byte[] bytes) throws IOException {
+        Input header = new Input(bytes, HEADER_LENGTH);
+        int length = header.readVarint();
+        byte[] body = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, header.position, bytes.length - header.position);
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                int count = inflater.inflate(body, inflated, length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != length) {
+                throw new IOException("Truncated compressed chat message");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted compressed chat message", e);
+        } finally {
+            inflater.end();
+        }
+        return new Input(body, 0);
+    }
+
+    private static final class Output {
+
+        private byte[] buffer;
+        private int size;
+
+        private Output(int capacity) {
+            this.buffer = new byte[Math.max(16, capacity)];
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+            }
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] bytes, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        private void writeVarint(int value) {
+            writeVarlong(value & 0xFFFFFFFFL);
+        }
+
+        private void writeVarlong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        /**
+         * 长度加1写入，0表示null
+         */
+        private void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1);
+            writeBytes(bytes, 0, bytes.length);
+        }
+    }
+
+    private static final class Input {
+
+        private final byte[] buffer;
+        private int position;
+
+        private Input(byte[] buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        private byte readByte() throws IOException {
+            if (position >= buffer.length) {
+                throw new IOException("Unexpected end of chat message");
+            }
+            return buffer[position++];
+        }
+
+        private int readVarint() throws IOException {
+            long value = readVarlong();
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("Length out of range: " + value);
+            }
+            return (int) value;
+        }
+
+        private long readVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        private long readLong() throws IOException {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (readByte() & 0xFF);
+            }
+            return value;
+        }
+
+        private String readString() throws IOException {
+            int length = readVarint();
+            if (length == 0) {
+                return null;
+            }
+            length--;
+            if (length > buffer.length - position) {
+                throw new IOException("Unexpected end of chat message");
+            }
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
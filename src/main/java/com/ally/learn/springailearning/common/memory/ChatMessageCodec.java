@@ -0,0 +1,24 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.springframework.ai.chat.messages.Message;
+
+/**
+ * @author cgl
+ * @description 聊天消息的存储编解码器
+ * @date 2025-06-21
+ * @Version 1.0
+ **/
+public interface ChatMessageCodec {
+
+    byte[] encode(Message message) throws Exception;
+
+    /**
+     * @return 解码后的消息，无法识别的消息类型返回null
+     */
+    Message decode(byte[] bytes) throws Exception;
+
+    /**
+     * 是否能解码给定的数据，用于同时读取不同格式写入的历史数据
+     */
+    boolean canDecode(byte[] bytes);
+}
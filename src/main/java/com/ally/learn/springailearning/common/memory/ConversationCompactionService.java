@@ -0,0 +1,167 @@
+package com.ally.learn.springailearning.common.memory;
+
+import com.ally.learn.springailearning.common.advisor.StreamCompletionListener;
+import com.ally.learn.springailearning.common.config.ChatMemoryProperties;
+import com.ally.learn.springailearning.common.config.ExecutionSchedulers;
+import com.ally.learn.springailearning.common.repository.RedisChatMemoryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.deepseek.DeepSeekChatModel;
+import org.springframework.ai.deepseek.DeepSeekChatOptions;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author cgl
+ * @description 对话后台压缩：流结束后登记压缩请求，延迟合并同一对话的重复触发，在独立调度器上检查对话token数，
+ * 超过阈值时用模型把较早的消息总结为一条摘要系统消息，替换回Redis。请求路径只做一次登记，不读写Redis；
+ * 摘要期间对话有新写入时放弃本次替换，下次触发时重试
+ * @date 2025-06-19
+ * @Version 1.0
+ **/
+@Service
+public class ConversationCompactionService implements StreamCompletionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationCompactionService.class);
+
+    public static final String SUMMARY_METADATA = "conversation_summary";
+
+    private static final String SUMMARY_INSTRUCTION = """
+            你是对话记录压缩助手。请把下面的历史对话总结为一段简洁的摘要，保留用户的目标、偏好、已确认的事实、
+            关键结论和尚未解决的问题，省略寒暄和重复内容。只输出摘要正文。
+            """;
+
+    private final RedisChatMemoryRepository chatMemoryRepository;
+    private final DeepSeekChatModel deepSeekChatModel;
+    private final ChatMemoryProperties.Compaction properties;
+    private final TokenEstimator tokenEstimator = new TokenEstimator();
+    // 记忆路径的调度器，摘要调用不占用请求路径的线程
+    private final Scheduler scheduler;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    public ConversationCompactionService(RedisChatMemoryRepository chatMemoryRepository,
+                                         DeepSeekChatModel deepSeekChatModel,
+                                         ChatMemoryProperties chatMemoryProperties,
+                                         ExecutionSchedulers executionSchedulers) {
+        this.chatMemoryRepository = chatMemoryRepository;
+        this.deepSeekChatModel = deepSeekChatModel;
+        this.properties = chatMemoryProperties.getCompaction();
+        this.scheduler = executionSchedulers.scheduler(ExecutionSchedulers.Path.MEMORY);
+    }
+
+    @Override
+    public void onStreamComplete(ChatClientResponse aggregatedResponse) {
+        Object conversationId = aggregatedResponse.context().get(ChatMemory.CONVERSATION_ID);
+        if (conversationId != null) {
+            requestCompaction(conversationId.toString());
+        }
+    }
+
+    /**
+     * 登记压缩请求；已登记未执行的对话不重复登记
+     */
+    public void requestCompaction(String conversationId) {
+        if (!properties.isEnabled() || !StringUtils.hasText(conversationId)) {
+            return;
+        }
+        if (pending.add(conversationId)) {
+            schedule(conversationId);
+        }
+    }
+
+    /**
+     * 延迟由并行调度器计时，到期后切换到记忆调度器执行；虚拟线程调度器不支持延迟任务
+     */
+    private void schedule(String conversationId) {
+        Mono.delay(properties.getDelay())
+                .publishOn(scheduler)
+                .subscribe(tick -> run(conversationId));
+    }
+
+    private void run(String conversationId) {
+        // 同一对话上一次压缩还没结束，稍后再执行
+        if (!running.add(conversationId)) {
+            schedule(conversationId);
+            return;
+        }
+        pending.remove(conversationId);
+        try {
+            compact(conversationId);
+        } catch (Exception e) {
+            logger.error("Error compacting conversation: {}", conversationId, e);
+        } finally {
+            running.remove(conversationId);
+        }
+    }
+
+    private void compact(String conversationId) {
+        List<Message> messages = chatMemoryRepository.findByConversationId(conversationId);
+        int totalTokens = messages.stream().mapToInt(tokenEstimator::count).sum();
+        int prefixLength = messages.size() - properties.getKeepRecentMessages();
+        if (totalTokens <= properties.getTriggerTokens() || prefixLength < 2) {
+            return;
+        }
+        // 保留的部分从用户消息开始，避免留下没有提问的回答
+        while (prefixLength < messages.size() && !(messages.get(prefixLength) instanceof UserMessage)) {
+            prefixLength++;
+        }
+        if (prefixLength >= messages.size()) {
+            return;
+        }
+        List<Message> prefix = messages.subList(0, prefixLength);
+        String summary = summarize(prefix);
+        if (!StringUtils.hasText(summary)) {
+            return;
+        }
+
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(SUMMARY_METADATA, true);
+        SystemMessage summaryMessage = SystemMessage.builder()
+                .text("以下是此前对话的摘要：\n" + summary)
+                .metadata(metadata)
+                .build();
+        metadata.put(TokenEstimator.TOKEN_COUNT_METADATA, tokenEstimator.estimate(summaryMessage));
+
+        if (chatMemoryRepository.replacePrefix(conversationId, new ArrayList<>(prefix), summaryMessage)) {
+            logger.info("Compacted {} messages of conversation {} into a summary", prefixLength, conversationId);
+        } else {
+            logger.debug("Conversation {} changed during compaction, skipped", conversationId);
+        }
+    }
+
+    private String summarize(List<Message> messages) {
+        StringBuilder transcript = new StringBuilder();
+        for (Message message : messages) {
+            transcript.append(switch (message.getMessageType()) {
+                case USER -> "用户：";
+                case ASSISTANT -> "助手：";
+                default -> "";
+            }).append(message.getText()).append("\n\n");
+        }
+        Prompt prompt = new Prompt(List.of(new SystemMessage(SUMMARY_INSTRUCTION), new UserMessage(transcript.toString())),
+                DeepSeekChatOptions.builder()
+                        .model(properties.getModel())
+                        .maxTokens(properties.getMaxSummaryTokens())
+                        .temperature(0.3)
+                        .build());
+        ChatResponse chatResponse = deepSeekChatModel.call(prompt);
+        return chatResponse.getResult() != null ? chatResponse.getResult().getOutput().getText() : null;
+    }
+}
@@ -0,0 +1,81 @@
+package com.ally.learn.springailearning.common.memory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author cgl
+ * @description JSON编解码器：消息类型的类名、文本和完整元数据，早期写入的记忆都是这种格式
+ * @date 2025-06-21
+ * @Version 1.0
+ **/
+public class JsonChatMessageCodec implements ChatMessageCodec {
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonChatMessageCodec.class);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    public byte[] encode(Message message) throws Exception {
+        // 创建一个简化的消息表示
+        MessageData messageData = new MessageData(
+            message.getClass().getSimpleName(),
+            message.getText(),
+            message.getMetadata()
+        );
+        return objectMapper.writeValueAsBytes(messageData);
+    }
+
+    @Override
+    public Message decode(byte[] bytes) throws Exception {
+        MessageData messageData = objectMapper.readValue(bytes, MessageData.class);
+
+        // 根据消息类型创建相应的Message实例
+        return switch (messageData.type()) {
+            // 保留元数据（包括缓存的token数），避免每次读取后重新估算
+            case "UserMessage" -> UserMessage.builder()
+                .text(messageData.content())
+                .metadata(metadataOf(messageData))
+                .build();
+            // DeepSeek的助手消息按普通助手消息恢复，推理内容不进入历史
+            case "AssistantMessage", "DeepSeekAssistantMessage" -> new AssistantMessage(
+                messageData.content(),
+                metadataOf(messageData)
+            );
+            case "SystemMessage" -> SystemMessage.builder()
+                .text(messageData.content())
+                .metadata(metadataOf(messageData))
+                .build();
+            default -> {
+                logger.warn("Unknown message type: {}", messageData.type());
+                yield null;
+            }
+        };
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == '{';
+    }
+
+    private Map<String, Object> metadataOf(MessageData messageData) {
+        return messageData.metadata() != null ? new HashMap<>(messageData.metadata()) : new HashMap<>();
+    }
+
+    /**
+     * 消息数据传输对象
+     */
+    private record MessageData(
+        String type,
+        String content,
+        Map<String, Object> metadata
+    ) {}
+}
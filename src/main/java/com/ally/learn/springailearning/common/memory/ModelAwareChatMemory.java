@@ -0,0 +1,21 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * @author cgl
+ * @description 可按模型返回不同大小记忆窗口的ChatMemory
+ * @date 2025-06-19
+ * @Version 1.0
+ **/
+public interface ModelAwareChatMemory extends ChatMemory {
+
+    /**
+     * 获取适用于指定模型的记忆窗口
+     * @param model 模型名，为空时使用默认窗口
+     */
+    List<Message> get(String conversationId, String model);
+}
@@ -0,0 +1,200 @@
+package com.ally.learn.springailearning.common.memory;
+
+import com.ally.learn.springailearning.common.repository.RedisChatMemoryRepository;
+import com.ally.learn.springailearning.common.service.RedisPubSubService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author cgl
+ * @description 对话窗口的进程内近端缓存：按对话ID缓存最近读取的消息及其版本号，容量按LRU淘汰，条目有TTL。
+ * 本节点的追加写入直接更新缓存；任意节点写入后存储库会发布"对话ID|版本号"，版本号更新的条目被失效，
+ * 会话在节点间切换时也不会读到旧窗口。订阅断线期间可能漏掉的失效由TTL兜底
+ * @date 2025-06-21
+ * @Version 1.0
+ **/
+public class NearCacheChatMemoryRepository implements AppendableChatMemoryRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(NearCacheChatMemoryRepository.class);
+
+    private final AppendableChatMemoryRepository delegate;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries;
+    // 正在从Redis加载的对话及加载期间收到的最大版本号，避免把加载过程中已被覆盖的旧窗口放入缓存
+    private final ConcurrentHashMap<String, Long> loading = new ConcurrentHashMap<>();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter invalidationCounter;
+
+    public NearCacheChatMemoryRepository(AppendableChatMemoryRepository delegate, RedisPubSubService redisPubSubService,
+                                         MeterRegistry meterRegistry, int maxEntries, Duration ttl) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        Assert.isTrue(maxEntries > 0, "maxEntries must be greater than 0");
+        this.delegate = delegate;
+        this.ttlMillis = ttl.toMillis();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hitCounter = meterRegistry.counter("chat.memory.near.cache.requests", "result", "hit");
+        this.missCounter = meterRegistry.counter("chat.memory.near.cache.requests", "result", "miss");
+        this.invalidationCounter = meterRegistry.counter("chat.memory.near.cache.invalidations");
+        Gauge.builder("chat.memory.near.cache.entries", this, NearCacheChatMemoryRepository::size)
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.near.cache.hit.ratio", this, NearCacheChatMemoryRepository::hitRatio)
+                .register(meterRegistry);
+        redisPubSubService.subscribe(RedisChatMemoryRepository.CHANGE_CHANNEL, this::onChange);
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        return delegate.findConversationIds();
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(conversationId);
+            if (entry != null && now - entry.loadedAt < ttlMillis) {
+                hitCounter.increment();
+                return new ArrayList<>(entry.messages);
+            }
+        }
+        missCounter.increment();
+        loading.put(conversationId, -1L);
+        VersionedMessages loaded = delegate.findWithVersion(conversationId);
+        Long changedVersion = loading.remove(conversationId);
+        if (loaded.version() >= 0 && (changedVersion == null || changedVersion <= loaded.version())) {
+            synchronized (entries) {
+                Entry current = entries.get(conversationId);
+                if (current == null || current.version <= loaded.version()) {
+                    entries.put(conversationId, new Entry(List.copyOf(loaded.messages()), loaded.version(), now));
+                }
+            }
+        }
+        return loaded.messages();
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        delegate.saveAll(conversationId, messages);
+        invalidate(conversationId);
+    }
+
+    @Override
+    public long append(String conversationId, List<Message> messages, int maxMessages) {
+        long version = delegate.append(conversationId, messages, maxMessages);
+        applyAppend(conversationId, messages, maxMessages, version);
+        return version;
+    }
+
+    @Override
+    public List<Long> appendAll(List<AppendRequest> requests) {
+        List<Long> versions = delegate.appendAll(requests);
+        for (int i = 0; i < requests.size(); i++) {
+            AppendRequest request = requests.get(i);
+            applyAppend(request.conversationId(), request.messages(), request.maxMessages(), versions.get(i));
+        }
+        return versions;
+    }
+
+    /**
+     * 写入后版本号正好比缓存的版本大1时，说明期间没有其他写入，按存储端的规则在本地追加并裁剪
+     */
+    private void applyAppend(String conversationId, List<Message> messages, int maxMessages, long version) {
+        synchronized (entries) {
+            Entry entry = entries.get(conversationId);
+            if (entry == null) {
+                return;
+            }
+            if (version < 0 || entry.version != version - 1) {
+                entries.remove(conversationId);
+                return;
+            }
+            List<Message> updated = new ArrayList<>(entry.messages.size() + messages.size());
+            updated.addAll(entry.messages);
+            messages.forEach(message -> updated.add(StoredWindow.asStored(message)));
+            entries.put(conversationId, new Entry(List.copyOf(StoredWindow.trim(updated, maxMessages)), version,
+                    System.currentTimeMillis()));
+        }
+    }
+
+    @Override
+    public long getVersion(String conversationId) {
+        return delegate.getVersion(conversationId);
+    }
+
+    @Override
+    public VersionedMessages findWithVersion(String conversationId) {
+        return delegate.findWithVersion(conversationId);
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        delegate.deleteByConversationId(conversationId);
+        invalidate(conversationId);
+    }
+
+    /**
+     * 处理存储库发布的变更：缓存的版本比变更旧时失效，本节点已经应用过的追加会被忽略
+     */
+    private void onChange(String message) {
+        int separator = message.lastIndexOf('|');
+        if (separator <= 0) {
+            return;
+        }
+        String conversationId = message.substring(0, separator);
+        long version;
+        try {
+            version = Long.parseLong(message.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring malformed chat memory change: {}", message);
+            return;
+        }
+        loading.computeIfPresent(conversationId, (key, seen) -> Math.max(seen, version));
+        synchronized (entries) {
+            Entry entry = entries.get(conversationId);
+            if (entry != null && entry.version < version) {
+                entries.remove(conversationId);
+                invalidationCounter.increment();
+            }
+        }
+    }
+
+    private void invalidate(String conversationId) {
+        synchronized (entries) {
+            entries.remove(conversationId);
+        }
+    }
+
+    private int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private double hitRatio() {
+        double hits = hitCounter.count();
+        double total = hits + missCounter.count();
+        return total > 0 ? hits / total : 0;
+    }
+
+    private record Entry(List<Message> messages, long version, long loadedAt) {
+    }
+}
@@ -0,0 +1,25 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.springframework.ai.chat.messages.Message;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * @author cgl
+ * @description 非阻塞的ChatMemory，可直接组合进响应式的advisor链
+ * @date 2025-06-22
+ * @Version 1.0
+ **/
+public interface ReactiveChatMemory {
+
+    /**
+     * 获取适用于指定模型的记忆窗口
+     * @param model 模型名，为空时使用默认窗口
+     */
+    Mono<List<Message>> get(String conversationId, String model);
+
+    Mono<Void> add(String conversationId, List<Message> messages);
+
+    Mono<Void> clear(String conversationId);
+}
@@ -0,0 +1,31 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.springframework.ai.chat.messages.Message;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * @author cgl
+ * @description 非阻塞的聊天记忆存储，语义与AppendableChatMemoryRepository一致；出错时记录日志并返回空结果，不中断对话
+ * @date 2025-06-22
+ * @Version 1.0
+ **/
+public interface ReactiveChatMemoryRepository {
+
+    Mono<List<Message>> findByConversationId(String conversationId);
+
+    /**
+     * 追加新消息并把对话裁剪到最近的maxMessages条（开头的系统消息保留）
+     * @return 追加后的对话版本号，失败时为-1
+     */
+    Mono<Long> append(String conversationId, List<Message> messages, int maxMessages);
+
+    /**
+     * 用给定的消息替换对话的全部记忆
+     * @return 替换后的对话版本号，失败时为-1
+     */
+    Mono<Long> saveAll(String conversationId, List<Message> messages);
+
+    Mono<Void> deleteByConversationId(String conversationId);
+}
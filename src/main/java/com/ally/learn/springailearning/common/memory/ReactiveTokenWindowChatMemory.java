@@ -0,0 +1,105 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author cgl
+ * @description TokenWindowChatMemory的非阻塞版本：裁剪规则相同，读写通过ReactiveChatMemoryRepository完成，不占用线程等待Redis。
+ * 普通消息增量追加；新消息包含系统消息时读出旧窗口合并后整体替换
+ * @date 2025-06-22
+ * @Version 1.0
+ **/
+public class ReactiveTokenWindowChatMemory implements ReactiveChatMemory {
+
+    private final ReactiveChatMemoryRepository chatMemoryRepository;
+    private final TokenWindowPolicy policy;
+
+    private ReactiveTokenWindowChatMemory(ReactiveChatMemoryRepository chatMemoryRepository,
+                                          TokenEstimator tokenEstimator, int defaultTokenBudget,
+                                          Map<String, Integer> modelTokenBudgets, int maxMessages) {
+        Assert.notNull(chatMemoryRepository, "chatMemoryRepository cannot be null");
+        this.chatMemoryRepository = chatMemoryRepository;
+        this.policy = new TokenWindowPolicy(tokenEstimator, defaultTokenBudget, modelTokenBudgets, maxMessages);
+    }
+
+    @Override
+    public Mono<List<Message>> get(String conversationId, String model) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        return chatMemoryRepository.findByConversationId(conversationId)
+                .map(messages -> policy.window(messages, model));
+    }
+
+    @Override
+    public Mono<Void> add(String conversationId, List<Message> messages) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        Assert.notNull(messages, "messages cannot be null");
+        List<Message> newMessages = policy.prepare(messages);
+        if (newMessages.isEmpty()) {
+            return Mono.empty();
+        }
+        if (!TokenWindowPolicy.hasSystemMessage(newMessages)) {
+            return chatMemoryRepository.append(conversationId, newMessages, policy.getMaxMessages()).then();
+        }
+        return chatMemoryRepository.findByConversationId(conversationId)
+                .flatMap(memoryMessages -> chatMemoryRepository.saveAll(conversationId,
+                        policy.merge(memoryMessages, newMessages)))
+                .then();
+    }
+
+    @Override
+    public Mono<Void> clear(String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        return chatMemoryRepository.deleteByConversationId(conversationId);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private ReactiveChatMemoryRepository chatMemoryRepository;
+        private TokenEstimator tokenEstimator = new TokenEstimator();
+        private int defaultTokenBudget = 4000;
+        private Map<String, Integer> modelTokenBudgets = Map.of();
+        private int maxMessages = 100;
+
+        private Builder() {
+        }
+
+        public Builder chatMemoryRepository(ReactiveChatMemoryRepository chatMemoryRepository) {
+            this.chatMemoryRepository = chatMemoryRepository;
+            return this;
+        }
+
+        public Builder tokenEstimator(TokenEstimator tokenEstimator) {
+            this.tokenEstimator = tokenEstimator;
+            return this;
+        }
+
+        public Builder defaultTokenBudget(int defaultTokenBudget) {
+            this.defaultTokenBudget = defaultTokenBudget;
+            return this;
+        }
+
+        public Builder modelTokenBudgets(Map<String, Integer> modelTokenBudgets) {
+            this.modelTokenBudgets = modelTokenBudgets;
+            return this;
+        }
+
+        public Builder maxMessages(int maxMessages) {
+            this.maxMessages = maxMessages;
+            return this;
+        }
+
+        public ReactiveTokenWindowChatMemory build() {
+            return new ReactiveTokenWindowChatMemory(chatMemoryRepository, tokenEstimator, defaultTokenBudget,
+                    modelTokenBudgets, maxMessages);
+        }
+    }
+}
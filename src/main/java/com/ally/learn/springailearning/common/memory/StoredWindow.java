@@ -0,0 +1,46 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author cgl
+ * @description 在本地重现存储端追加脚本的效果，供近端缓存和写后覆盖层在不读Redis的情况下得到一致的窗口
+ * @date 2025-06-23
+ * @Version 1.0
+ **/
+final class StoredWindow {
+
+    private StoredWindow() {
+    }
+
+    /**
+     * 与存储端脚本一致：超出条数上限时丢弃最早的消息，开头的系统消息保留
+     */
+    static List<Message> trim(List<Message> messages, int maxMessages) {
+        if (messages.size() <= maxMessages) {
+            return messages;
+        }
+        boolean keepHead = messages.get(0).getMessageType() == MessageType.SYSTEM;
+        List<Message> trimmed = new ArrayList<>(maxMessages);
+        if (keepHead) {
+            trimmed.add(messages.get(0));
+        }
+        trimmed.addAll(messages.subList(messages.size() - (keepHead ? maxMessages - 1 : maxMessages), messages.size()));
+        return trimmed;
+    }
+
+    /**
+     * 与从Redis读回的形式一致：模型特有的助手消息子类按普通助手消息保存
+     */
+    static Message asStored(Message message) {
+        if (message instanceof AssistantMessage && message.getClass() != AssistantMessage.class) {
+            return new AssistantMessage(message.getText(), message.getMetadata());
+        }
+        return message;
+    }
+}
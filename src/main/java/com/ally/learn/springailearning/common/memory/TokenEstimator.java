@@ -0,0 +1,60 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.springframework.ai.chat.messages.Message;
+
+/**
+ * @author cgl
+ * @description 本地token估算器：按DeepSeek官方给出的换算比例（英文字符约0.3 token，中文字符约0.6 token）逐字符估算，
+ * 不加载分词器，用于记忆窗口裁剪，不要求精确
+ * @date 2025-06-19
+ * @Version 1.0
+ **/
+public class TokenEstimator {
+
+    // 写入记忆时缓存在消息元数据中的token数
+    public static final String TOKEN_COUNT_METADATA = "token_count";
+
+    private static final double ASCII_TOKENS = 0.3;
+    private static final double CJK_TOKENS = 0.6;
+    // 其他字符（标点、表情等）按1个token保守估算
+    private static final double OTHER_TOKENS = 1.0;
+    // 每条消息的角色标记等固定开销
+    private static final int MESSAGE_OVERHEAD = 4;
+
+    public int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        double tokens = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (codePoint < 0x80) {
+                tokens += ASCII_TOKENS;
+            } else if (Character.isIdeographic(codePoint)) {
+                tokens += CJK_TOKENS;
+            } else {
+                tokens += OTHER_TOKENS;
+            }
+        }
+        return (int) Math.ceil(tokens);
+    }
+
+    /**
+     * 估算消息占用的token数；推理内容不会回传给模型，不计入
+     */
+    public int estimate(Message message) {
+        return estimate(message.getText()) + MESSAGE_OVERHEAD;
+    }
+
+    /**
+     * 优先使用元数据中缓存的token数，没有时现场估算
+     */
+    public int count(Message message) {
+        Object cached = message.getMetadata().get(TOKEN_COUNT_METADATA);
+        if (cached instanceof Number number) {
+            return number.intValue();
+        }
+        return estimate(message);
+    }
+}
@@ -0,0 +1,139 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.util.Assert;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author cgl
+ * @description 按token预算裁剪的聊天记忆：从最新的消息往前累加估算token数，超出预算的旧消息被丢弃，系统消息始终保留。
+ * 每条消息的token数在写入时估算一次并保存在消息元数据中，读取时直接使用。
+ * 存储时按所有模型中最大的预算裁剪，读取时再按具体模型的预算裁剪。
+ * 增量写入模式下只追加新消息，存储端按条数上限裁剪，token预算只在读取时生效
+ * @date 2025-06-19
+ * @Version 1.0
+ **/
+public class TokenWindowChatMemory implements ModelAwareChatMemory, AutoCloseable {
+
+    private final ChatMemoryRepository chatMemoryRepository;
+    private final TokenWindowPolicy policy;
+    private final boolean incrementalWrites;
+
+    private TokenWindowChatMemory(ChatMemoryRepository chatMemoryRepository, TokenEstimator tokenEstimator,
+                                  int defaultTokenBudget, Map<String, Integer> modelTokenBudgets, int maxMessages,
+                                  boolean incrementalWrites) {
+        Assert.notNull(chatMemoryRepository, "chatMemoryRepository cannot be null");
+        Assert.isTrue(!incrementalWrites || chatMemoryRepository instanceof AppendableChatMemoryRepository,
+                "incrementalWrites requires an AppendableChatMemoryRepository");
+        this.chatMemoryRepository = chatMemoryRepository;
+        this.policy = new TokenWindowPolicy(tokenEstimator, defaultTokenBudget, modelTokenBudgets, maxMessages);
+        this.incrementalWrites = incrementalWrites;
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        Assert.notNull(messages, "messages cannot be null");
+        List<Message> newMessages = policy.prepare(messages);
+        // 新消息中包含系统消息时需要替换旧的系统消息，只能整体重写
+        if (incrementalWrites && !TokenWindowPolicy.hasSystemMessage(newMessages)) {
+            // 无需读出旧窗口，追加、裁剪和续期在存储端一次完成
+            ((AppendableChatMemoryRepository) chatMemoryRepository).append(conversationId, newMessages,
+                    policy.getMaxMessages());
+            return;
+        }
+        List<Message> memoryMessages = chatMemoryRepository.findByConversationId(conversationId);
+        chatMemoryRepository.saveAll(conversationId, policy.merge(memoryMessages, newMessages));
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        return get(conversationId, null);
+    }
+
+    @Override
+    public List<Message> get(String conversationId, String model) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        return policy.window(chatMemoryRepository.findByConversationId(conversationId), model);
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        chatMemoryRepository.deleteByConversationId(conversationId);
+    }
+
+    /**
+     * 关闭存储库持有的资源，例如写后模式下刷完队列中的写入
+     */
+    @Override
+    public void close() {
+        if (chatMemoryRepository instanceof WriteBehindChatMemoryRepository writeBehindRepository) {
+            writeBehindRepository.close();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private ChatMemoryRepository chatMemoryRepository;
+        private TokenEstimator tokenEstimator = new TokenEstimator();
+        private int defaultTokenBudget = 4000;
+        private Map<String, Integer> modelTokenBudgets = Map.of();
+        private int maxMessages = 100;
+        private boolean incrementalWrites = false;
+
+        private Builder() {
+        }
+
+        public Builder chatMemoryRepository(ChatMemoryRepository chatMemoryRepository) {
+            this.chatMemoryRepository = chatMemoryRepository;
+            return this;
+        }
+
+        public Builder tokenEstimator(TokenEstimator tokenEstimator) {
+            this.tokenEstimator = tokenEstimator;
+            return this;
+        }
+
+        public Builder defaultTokenBudget(int defaultTokenBudget) {
+            this.defaultTokenBudget = defaultTokenBudget;
+            return this;
+        }
+
+        /**
+         * 按模型名设置token预算，未配置的模型使用默认预算
+         */
+        public Builder modelTokenBudgets(Map<String, Integer> modelTokenBudgets) {
+            this.modelTokenBudgets = modelTokenBudgets;
+            return this;
+        }
+
+        /**
+         * 条数上限，防止大量极短消息无限累积
+         */
+        public Builder maxMessages(int maxMessages) {
+            this.maxMessages = maxMessages;
+            return this;
+        }
+
+        /**
+         * 只追加新消息而不是每次整体替换窗口，要求存储库实现AppendableChatMemoryRepository
+         */
+        public Builder incrementalWrites(boolean incrementalWrites) {
+            this.incrementalWrites = incrementalWrites;
+            return this;
+        }
+
+        public TokenWindowChatMemory build() {
+            return new TokenWindowChatMemory(chatMemoryRepository, tokenEstimator, defaultTokenBudget,
+                    modelTokenBudgets, maxMessages, incrementalWrites);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author cgl
+ * @description 按token预算裁剪记忆窗口的规则，由阻塞和响应式两种ChatMemory共用
+ * @date 2025-06-22
+ * @Version 1.0
+ **/
+final class TokenWindowPolicy {
+
+    private final TokenEstimator tokenEstimator;
+    private final int defaultTokenBudget;
+    private final Map<String, Integer> modelTokenBudgets;
+    private final int storageTokenBudget;
+    private final int maxMessages;
+
+    TokenWindowPolicy(TokenEstimator tokenEstimator, int defaultTokenBudget, Map<String, Integer> modelTokenBudgets,
+                      int maxMessages) {
+        Assert.isTrue(defaultTokenBudget > 0, "defaultTokenBudget must be greater than 0");
+        Assert.isTrue(maxMessages > 0, "maxMessages must be greater than 0");
+        this.tokenEstimator = tokenEstimator;
+        this.defaultTokenBudget = defaultTokenBudget;
+        this.modelTokenBudgets = Map.copyOf(modelTokenBudgets);
+        this.storageTokenBudget = Math.max(defaultTokenBudget,
+                modelTokenBudgets.values().stream().mapToInt(Integer::intValue).max().orElse(0));
+        this.maxMessages = maxMessages;
+    }
+
+    int getMaxMessages() {
+        return maxMessages;
+    }
+
+    /**
+     * 写入前为新消息估算token数
+     */
+    List<Message> prepare(List<Message> messages) {
+        return messages.stream().map(this::withTokenCount).toList();
+    }
+
+    static boolean hasSystemMessage(List<Message> messages) {
+        return messages.stream().anyMatch(SystemMessage.class::isInstance);
+    }
+
+    /**
+     * 合并已存储的消息和新消息并按存储预算裁剪；新消息中包含系统消息时替换旧的系统消息
+     */
+    List<Message> merge(List<Message> memoryMessages, List<Message> newMessages) {
+        boolean hasNewSystemMessage = hasSystemMessage(newMessages);
+        List<Message> processedMessages = new ArrayList<>();
+        for (Message message : memoryMessages) {
+            if (!(hasNewSystemMessage && message instanceof SystemMessage)) {
+                processedMessages.add(message);
+            }
+        }
+        processedMessages.addAll(newMessages);
+        return trim(processedMessages, storageTokenBudget);
+    }
+
+    /**
+     * 按模型的预算裁剪出本次请求使用的窗口
+     */
+    List<Message> window(List<Message> messages, String model) {
+        return trim(messages, budgetFor(model));
+    }
+
+    private int budgetFor(String model) {
+        return model != null ? modelTokenBudgets.getOrDefault(model, defaultTokenBudget) : defaultTokenBudget;
+    }
+
+    /**
+     * 从最新的消息往前保留，直到超出token预算或条数上限；至少保留最新一条，
+     * 裁剪后窗口不以助手或工具消息开头
+     */
+    private List<Message> trim(List<Message> messages, int tokenBudget) {
+        int systemTokens = 0;
+        int systemCount = 0;
+        for (Message message : messages) {
+            if (message instanceof SystemMessage) {
+                systemTokens += tokenCount(message);
+                systemCount++;
+            }
+        }
+        int remainingTokens = tokenBudget - systemTokens;
+        int remainingMessages = maxMessages - systemCount;
+        int keepFrom = messages.size();
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            Message message = messages.get(i);
+            if (message instanceof SystemMessage) {
+                continue;
+            }
+            int tokens = tokenCount(message);
+            if (keepFrom < messages.size() && (tokens > remainingTokens || remainingMessages <= 0)) {
+                break;
+            }
+            remainingTokens -= tokens;
+            remainingMessages--;
+            keepFrom = i;
+        }
+        while (keepFrom < messages.size() - 1 && isOrphanedReply(messages.get(keepFrom))) {
+            keepFrom++;
+        }
+        if (keepFrom == 0) {
+            return messages;
+        }
+        List<Message> trimmed = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if (i >= keepFrom || message instanceof SystemMessage) {
+                trimmed.add(message);
+            }
+        }
+        return trimmed;
+    }
+
+    private boolean isOrphanedReply(Message message) {
+        return message.getMessageType() == MessageType.ASSISTANT || message.getMessageType() == MessageType.TOOL;
+    }
+
+    private int tokenCount(Message message) {
+        return tokenEstimator.count(message);
+    }
+
+    /**
+     * 写入前估算token数并保存到元数据；元数据不可修改时复制一份新消息
+     */
+    private Message withTokenCount(Message message) {
+        if (message.getMetadata().get(TokenEstimator.TOKEN_COUNT_METADATA) instanceof Number) {
+            return message;
+        }
+        int tokens = tokenEstimator.estimate(message);
+        try {
+            message.getMetadata().put(TokenEstimator.TOKEN_COUNT_METADATA, tokens);
+            return message;
+        } catch (UnsupportedOperationException e) {
+            Map<String, Object> metadata = new HashMap<>(message.getMetadata());
+            metadata.put(TokenEstimator.TOKEN_COUNT_METADATA, tokens);
+            if (message instanceof UserMessage userMessage) {
+                return userMessage.mutate().metadata(metadata).build();
+            }
+            if (message instanceof SystemMessage) {
+                return SystemMessage.builder().text(message.getText()).metadata(metadata).build();
+            }
+            return message;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.ally.learn.springailearning.common.memory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author cgl
+ * @description 写后批量的聊天记忆存储：追加先进入无锁队列立即返回，单个刷新线程每隔几毫秒或攒够一批时，
+ * 把所有会话的追加放进一个流水线写入，一次借用连接、一次往返。
+ * 尚未确认的追加按会话保存在覆盖层中，读取时叠加在Redis的结果上，本节点的下一轮对话能读到自己刚写入的消息；
+ * 整体替换、删除和按版本读取前先等待该会话的追加刷完，保证写入顺序。
+ * 其他节点在一个刷新间隔内可能读不到这些消息，适用于会话固定在同一节点的部署
+ * @date 2025-06-23
+ * @Version 1.0
+ **/
+public class WriteBehindChatMemoryRepository implements AppendableChatMemoryRepository, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindChatMemoryRepository.class);
+
+    private static final int QUEUED = 0;
+    private static final int FLUSHING = 1;
+    private static final int DONE = 2;
+
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    private final AppendableChatMemoryRepository delegate;
+    private final long flushIntervalNanos;
+    private final int maxBatchSize;
+    private final int maxPending;
+    private final long awaitTimeoutMillis;
+
+    // 多个请求线程写入，只有刷新线程消费
+    private final ConcurrentLinkedQueue<PendingAppend> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // 每个会话尚未确认的追加，按提交顺序排列；列表不可变，整体替换
+    private final ConcurrentHashMap<String, List<PendingAppend>> overlay = new ConcurrentHashMap<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final Counter failureCounter;
+    private final DistributionSummary batchSizeSummary;
+
+    public WriteBehindChatMemoryRepository(AppendableChatMemoryRepository delegate, MeterRegistry meterRegistry,
+                                           Duration flushInterval, int maxBatchSize, int maxPending,
+                                           Duration awaitTimeout) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        Assert.isTrue(maxBatchSize > 0, "maxBatchSize must be greater than 0");
+        Assert.isTrue(maxPending >= maxBatchSize, "maxPending must not be less than maxBatchSize");
+        this.delegate = delegate;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.maxPending = maxPending;
+        this.awaitTimeoutMillis = awaitTimeout.toMillis();
+        this.failureCounter = meterRegistry.counter("chat.memory.write.behind.failures");
+        this.batchSizeSummary = DistributionSummary.builder("chat.memory.write.behind.batch.size")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.write.behind.pending", pendingCount, AtomicInteger::get)
+                .register(meterRegistry);
+        this.flusher = new Thread(this::runFlusher, "chat-memory-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        return delegate.findConversationIds();
+    }
+
+    /**
+     * 没有未确认的追加时直接读取；否则按版本号判断哪些追加已经包含在读到的结果中，其余的叠加在末尾
+     */
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        List<PendingAppend> pending = overlay.get(conversationId);
+        if (pending == null) {
+            return delegate.findByConversationId(conversationId);
+        }
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            // 正在写入的追加是否已生效无法判断，等它完成
+            await(pending.stream().filter(append -> append.state == FLUSHING).toList());
+            VersionedMessages stored = delegate.findWithVersion(conversationId);
+            if (stored.version() < 0) {
+                return stored.messages();
+            }
+            List<Message> messages = stored.messages();
+            boolean settled = true;
+            for (PendingAppend append : pending) {
+                // 读取之后才检查状态：此时仍在排队的追加一定不在读到的结果中
+                int state = append.state;
+                if (state == FLUSHING) {
+                    settled = false;
+                    break;
+                }
+                if (state == QUEUED || append.version > stored.version()) {
+                    List<Message> combined = new ArrayList<>(messages);
+                    append.request.messages().forEach(message -> combined.add(StoredWindow.asStored(message)));
+                    messages = StoredWindow.trim(combined, append.request.maxMessages());
+                }
+            }
+            if (settled) {
+                return messages;
+            }
+        }
+        awaitPending(conversationId);
+        return delegate.findByConversationId(conversationId);
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        awaitPending(conversationId);
+        delegate.saveAll(conversationId, messages);
+    }
+
+    /**
+     * 追加进入队列后立即返回，版本号在刷新后才确定，因此返回0；积压超过上限时调用方等待本次追加刷完，对Redis形成背压
+     */
+    @Override
+    public long append(String conversationId, List<Message> messages, int maxMessages) {
+        if (messages == null || messages.isEmpty() || !running) {
+            awaitPending(conversationId);
+            return delegate.append(conversationId, messages, maxMessages);
+        }
+        PendingAppend pending = new PendingAppend(new AppendRequest(conversationId, List.copyOf(messages), maxMessages));
+        // 入队和登记覆盖层在同一个compute中完成，同一会话的追加在两处的顺序一致
+        overlay.compute(conversationId, (key, appends) -> {
+            queue.offer(pending);
+            if (appends == null) {
+                return List.of(pending);
+            }
+            List<PendingAppend> updated = new ArrayList<>(appends.size() + 1);
+            updated.addAll(appends);
+            updated.add(pending);
+            return List.copyOf(updated);
+        });
+        int count = pendingCount.incrementAndGet();
+        if (count >= maxBatchSize) {
+            LockSupport.unpark(flusher);
+        }
+        if (count > maxPending) {
+            await(List.of(pending));
+        }
+        return 0;
+    }
+
+    @Override
+    public long getVersion(String conversationId) {
+        awaitPending(conversationId);
+        return delegate.getVersion(conversationId);
+    }
+
+    @Override
+    public VersionedMessages findWithVersion(String conversationId) {
+        awaitPending(conversationId);
+        return delegate.findWithVersion(conversationId);
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        awaitPending(conversationId);
+        delegate.deleteByConversationId(conversationId);
+    }
+
+    /**
+     * 停止接收新的追加并刷完队列中剩余的写入
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(Math.max(awaitTimeoutMillis, 1000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            logger.warn("Chat memory write-behind closed with {} writes not flushed", queue.size());
+        }
+    }
+
+    private void runFlusher() {
+        while (true) {
+            if (running && pendingCount.get() < maxBatchSize) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+            try {
+                flush();
+            } catch (Exception e) {
+                logger.error("Error flushing chat memory writes", e);
+            }
+            if (!running && queue.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    private void flush() {
+        List<PendingAppend> batch = new ArrayList<>(maxBatchSize);
+        PendingAppend pending;
+        while ((pending = queue.poll()) != null) {
+            pending.state = FLUSHING;
+            batch.add(pending);
+            if (batch.size() == maxBatchSize) {
+                write(batch);
+                batch = new ArrayList<>(maxBatchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    private void write(List<PendingAppend> batch) {
+        List<AppendRequest> requests = batch.stream().map(append -> append.request).toList();
+        List<Long> versions;
+        try {
+            versions = delegate.appendAll(requests);
+        } catch (Exception e) {
+            logger.error("Error writing {} batched chat memory appends", batch.size(), e);
+            versions = Collections.nCopies(batch.size(), -1L);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            PendingAppend append = batch.get(i);
+            append.version = versions.get(i);
+            if (append.version < 0) {
+                // 与同步追加一致：失败的写入记录日志后丢弃
+                failureCounter.increment();
+            }
+            append.state = DONE;
+        }
+        for (PendingAppend append : batch) {
+            overlay.computeIfPresent(append.request.conversationId(), (key, appends) -> {
+                List<PendingAppend> remaining = appends.stream().filter(other -> other != append).toList();
+                return remaining.isEmpty() ? null : remaining;
+            });
+            append.done.complete(null);
+        }
+        pendingCount.addAndGet(-batch.size());
+        batchSizeSummary.record(batch.size());
+    }
+
+    /**
+     * 唤醒刷新线程并等待该会话已提交的追加全部写入
+     */
+    private void awaitPending(String conversationId) {
+        List<PendingAppend> pending = overlay.get(conversationId);
+        if (pending != null) {
+            LockSupport.unpark(flusher);
+            await(pending);
+        }
+    }
+
+    private void await(List<PendingAppend> appends) {
+        if (appends.isEmpty()) {
+            return;
+        }
+        try {
+            CompletableFuture.allOf(appends.stream().map(append -> append.done).toArray(CompletableFuture[]::new))
+                    .get(awaitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Timed out waiting for {} chat memory writes to flush", appends.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Error waiting for chat memory writes to flush", e);
+        }
+    }
+
+    private static final class PendingAppend {
+
+        private final AppendRequest request;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile int state = QUEUED;
+        // 写入后的版本号，失败为-1
+        private volatile long version = -1;
+
+        private PendingAppend(AppendRequest request) {
+            this.request = request;
+        }
+    }
+}
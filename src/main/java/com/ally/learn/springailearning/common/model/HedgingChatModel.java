@@ -0,0 +1,284 @@
+package com.ally.learn.springailearning.common.model;
+
+import com.ally.learn.springailearning.common.config.HedgingProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.deepseek.DeepSeekAssistantMessage;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author cgl
+ * @description 对冲路由ChatModel：流式请求先调用主模型，若在首token截止时间（主模型近期首token延迟的p95）内没有输出，
+ * 或在输出首token前报错，则启动备用模型，两者谁先输出就用谁，另一个被取消。
+ * 首token指首个带文本或推理内容的chunk。首token之后的错误不再切换，避免向客户端输出两段不同的回答。
+ * 非流式调用只在超时、5xx和429时切换
+ * @date 2025-06-18
+ * @Version 1.0
+ **/
+public class HedgingChatModel implements ChatModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(HedgingChatModel.class);
+
+    private final ChatModel primary;
+    private final ChatModel secondary;
+    private final HedgingProperties properties;
+    private final MeterRegistry meterRegistry;
+    // 按主模型名统计首token延迟
+    private final ConcurrentHashMap<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    public HedgingChatModel(ChatModel primary, ChatModel secondary, HedgingProperties properties,
+                            MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        if (!isHedgingAvailable()) {
+            return primary.call(prompt);
+        }
+        try {
+            return primary.call(prompt);
+        } catch (RuntimeException e) {
+            // 请求本身有问题（4xx等）时备用模型同样会失败，只对超时、5xx和429切换
+            if (!isFailoverable(e)) {
+                throw e;
+            }
+            logger.warn("Primary model call failed, falling back to secondary model", e);
+            hedgeCounter("error").increment();
+            return secondary.call(toSecondaryPrompt(prompt));
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        if (!isHedgingAvailable()) {
+            return primary.stream(prompt);
+        }
+        return Flux.defer(() -> {
+            String model = modelOf(prompt);
+            LatencyWindow latencyWindow = latencies.computeIfAbsent(model, k -> new LatencyWindow(properties.getWindowSize()));
+            Duration deadline = deadline(latencyWindow);
+            long start = System.nanoTime();
+            // 主模型在首token前报错时立即触发备用模型，不必等到截止时间
+            Sinks.Empty<Void> primaryFailed = Sinks.empty();
+            AtomicBoolean primaryFirstToken = new AtomicBoolean();
+            AtomicBoolean primaryError = new AtomicBoolean();
+
+            Flux<ChatResponse> primaryStream = holdUntilFirstToken(primary.stream(prompt))
+                    .doOnNext(chatResponse -> {
+                        if (primaryFirstToken.compareAndSet(false, true)) {
+                            latencyWindow.record(System.nanoTime() - start);
+                        }
+                    })
+                    .doOnError(e -> {
+                        if (!primaryFirstToken.get()) {
+                            logger.warn("Primary model {} failed before first token, hedging", model, e);
+                            primaryError.set(true);
+                            primaryFailed.tryEmitEmpty();
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        // 被备用模型抢先时，已等待的时长作为延迟下限计入统计，避免p95被低估
+                        if (primaryFirstToken.compareAndSet(false, true)) {
+                            latencyWindow.record(System.nanoTime() - start);
+                        }
+                    });
+
+            Flux<ChatResponse> secondaryStream = Mono.firstWithSignal(Mono.delay(deadline).then(), primaryFailed.asMono())
+                    .thenMany(Flux.defer(() -> {
+                        hedgeCounter(primaryError.get() ? "error" : "deadline").increment();
+                        logger.info("Starting secondary model for {} after {} ms", model,
+                                Duration.ofNanos(System.nanoTime() - start).toMillis());
+                        return holdUntilFirstToken(secondary.stream(toSecondaryPrompt(prompt)));
+                    }));
+
+            return Flux.firstWithValue(countWinner(primaryStream, "primary"), countWinner(secondaryStream, "secondary"));
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return primary.getDefaultOptions();
+    }
+
+    private boolean isHedgingAvailable() {
+        return properties.isEnabled() && secondary != null;
+    }
+
+    /**
+     * 暂存首token之前只有角色或元数据的空chunk，与首个带文本或推理内容的chunk一起发出，
+     * 避免空chunk被当作首token赢得对冲、提前取消另一个模型
+     */
+    private Flux<ChatResponse> holdUntilFirstToken(Flux<ChatResponse> stream) {
+        return Flux.defer(() -> {
+            AtomicBoolean firstToken = new AtomicBoolean();
+            return stream.bufferUntil(chatResponse -> firstToken.get()
+                            || (hasToken(chatResponse) && firstToken.compareAndSet(false, true)))
+                    .concatMapIterable(chatResponses -> chatResponses);
+        });
+    }
+
+    private boolean hasToken(ChatResponse chatResponse) {
+        Generation generation = chatResponse.getResult();
+        if (generation == null || generation.getOutput() == null) {
+            return false;
+        }
+        if (StringUtils.hasLength(generation.getOutput().getText())) {
+            return true;
+        }
+        return generation.getOutput() instanceof DeepSeekAssistantMessage deepSeekMessage
+                && StringUtils.hasLength(deepSeekMessage.getReasoningContent());
+    }
+
+    /**
+     * 超时、5xx和429可以切换到备用模型：流式调用为WebClientResponseException，
+     * 非流式调用为ModelErrorHandlerConfig抛出的带状态码异常
+     */
+    private static boolean isFailoverable(Throwable error) {
+        Throwable current = error;
+        while (current != null) {
+            if (current instanceof TimeoutException || current instanceof SocketTimeoutException
+                    || current instanceof HttpTimeoutException) {
+                return true;
+            }
+            if (current instanceof WebClientResponseException responseException) {
+                return isFailoverableStatus(responseException.getStatusCode().value());
+            }
+            if (current instanceof RestClientResponseException responseException) {
+                return isFailoverableStatus(responseException.getStatusCode().value());
+            }
+            if (current instanceof UpstreamHttpStatus upstreamHttpStatus) {
+                return isFailoverableStatus(upstreamHttpStatus.getStatusCode());
+            }
+            current = current.getCause();
+        }
+        return false;
+    }
+
+    private static boolean isFailoverableStatus(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    private Duration deadline(LatencyWindow latencyWindow) {
+        long percentileNanos = latencyWindow.percentile(properties.getPercentile(), properties.getMinSamples());
+        if (percentileNanos < 0) {
+            return properties.getInitialDelay();
+        }
+        long nanos = Math.max(properties.getMinDelay().toNanos(), Math.min(properties.getMaxDelay().toNanos(), percentileNanos));
+        return Duration.ofNanos(nanos);
+    }
+
+    /**
+     * 把主模型的请求选项转换成备用模型（OpenAI兼容）的选项，保留工具回调
+     */
+    private Prompt toSecondaryPrompt(Prompt prompt) {
+        ChatOptions options = prompt.getOptions();
+        OpenAiChatOptions.Builder builder = OpenAiChatOptions.builder()
+                .model(properties.secondaryModelFor(options != null ? options.getModel() : null));
+        if (options != null) {
+            builder.temperature(options.getTemperature())
+                    .topP(options.getTopP())
+                    .maxTokens(options.getMaxTokens())
+                    .frequencyPenalty(options.getFrequencyPenalty())
+                    .presencePenalty(options.getPresencePenalty())
+                    .stop(options.getStopSequences());
+            if (options instanceof ToolCallingChatOptions toolCallingOptions) {
+                if (toolCallingOptions.getToolCallbacks() != null) {
+                    builder.toolCallbacks(toolCallingOptions.getToolCallbacks());
+                }
+                if (toolCallingOptions.getToolNames() != null) {
+                    builder.toolNames(toolCallingOptions.getToolNames());
+                }
+                if (toolCallingOptions.getToolContext() != null) {
+                    builder.toolContext(toolCallingOptions.getToolContext());
+                }
+                builder.internalToolExecutionEnabled(toolCallingOptions.getInternalToolExecutionEnabled());
+            }
+        }
+        return new Prompt(prompt.getInstructions(), builder.build());
+    }
+
+    private String modelOf(Prompt prompt) {
+        ChatOptions options = prompt.getOptions() != null ? prompt.getOptions() : primary.getDefaultOptions();
+        return options != null && options.getModel() != null ? options.getModel() : "default";
+    }
+
+    private Flux<ChatResponse> countWinner(Flux<ChatResponse> stream, String provider) {
+        AtomicBoolean first = new AtomicBoolean();
+        return stream.doOnNext(chatResponse -> {
+            if (first.compareAndSet(false, true)) {
+                winnerCounter(provider).increment();
+            }
+        });
+    }
+
+    private Counter hedgeCounter(String reason) {
+        return Counter.builder("chat.hedge.started")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private Counter winnerCounter(String provider) {
+        return Counter.builder("chat.hedge.winner")
+                .tag("provider", provider)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 固定大小的首token延迟滑动窗口
+     */
+    private static final class LatencyWindow {
+
+        private final long[] samples;
+        private int next;
+        private int count;
+
+        private LatencyWindow(int size) {
+            this.samples = new long[Math.max(1, size)];
+        }
+
+        private synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        /**
+         * @return 分位数延迟（纳秒），样本不足时返回-1
+         */
+        private synchronized long percentile(double percentile, int minSamples) {
+            if (count < Math.max(1, minSamples)) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.ally.learn.springailearning.common.model;
+
+import org.springframework.ai.retry.NonTransientAiException;
+
+/**
+ * @author cgl
+ * @description 不重试的上游错误（按spring.ai.retry配置判定），保留HTTP状态码
+ * @date 2025-06-24
+ * @Version 1.0
+ **/
+public class NonTransientUpstreamException extends NonTransientAiException implements UpstreamHttpStatus {
+
+    private final int statusCode;
+
+    public NonTransientUpstreamException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    @Override
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
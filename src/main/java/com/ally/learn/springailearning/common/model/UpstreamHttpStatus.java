@@ -0,0 +1,12 @@
+package com.ally.learn.springailearning.common.model;
+
+/**
+ * @author cgl
+ * @description 携带上游HTTP状态码的模型调用异常，准入控制据此识别429，而不是解析异常消息
+ * @date 2025-06-24
+ * @Version 1.0
+ **/
+public interface UpstreamHttpStatus {
+
+    int getStatusCode();
+}
@@ -0,0 +1,82 @@
+package com.ally.learn.springailearning.common.repository;
+
+import com.ally.learn.springailearning.common.config.ChatMemoryProperties;
+import com.ally.learn.springailearning.common.memory.BinaryChatMessageCodec;
+import com.ally.learn.springailearning.common.memory.ChatMessageCodec;
+import com.ally.learn.springailearning.common.memory.JsonChatMessageCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author cgl
+ * @description 聊天记忆存储的消息序列化：按配置的编解码器写入，读取时按数据格式自动选择解码器，
+ * 由阻塞和响应式两种存储库共用
+ * @date 2025-06-22
+ * @Version 1.0
+ **/
+class ChatMessageSerializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatMessageSerializer.class);
+
+    private final ChatMessageCodec writeCodec;
+    private final List<ChatMessageCodec> readCodecs;
+
+    ChatMessageSerializer(ChatMemoryProperties chatMemoryProperties) {
+        ChatMessageCodec binaryCodec = new BinaryChatMessageCodec(chatMemoryProperties.getCompressionThreshold());
+        ChatMessageCodec jsonCodec = new JsonChatMessageCodec();
+        this.writeCodec = chatMemoryProperties.getCodec() == ChatMemoryProperties.Codec.JSON ? jsonCodec : binaryCodec;
+        this.readCodecs = List.of(binaryCodec, jsonCodec);
+    }
+
+    byte[] serialize(Message message) throws Exception {
+        return writeCodec.encode(message);
+    }
+
+    /**
+     * 逐条编码，无法编码的消息跳过并记录日志
+     */
+    List<byte[]> serializeAll(List<Message> messages) {
+        List<byte[]> encodedMessages = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            try {
+                encodedMessages.add(serialize(message));
+            } catch (Exception e) {
+                logger.error("Error serializing message: {}", message, e);
+            }
+        }
+        return encodedMessages;
+    }
+
+    /**
+     * 逐条解码，单条消息损坏时跳过并记录日志
+     */
+    List<Message> deserializeAll(String conversationId, List<byte[]> encodedMessages) {
+        List<Message> messages = new ArrayList<>(encodedMessages.size());
+        for (byte[] encodedMessage : encodedMessages) {
+            try {
+                Message message = deserialize(encodedMessage);
+                if (message != null) {
+                    messages.add(message);
+                }
+            } catch (Exception e) {
+                logger.error("Error deserializing message of {} bytes for conversation: {}",
+                        encodedMessage.length, conversationId, e);
+            }
+        }
+        return messages;
+    }
+
+    Message deserialize(byte[] encodedMessage) throws Exception {
+        for (ChatMessageCodec codec : readCodecs) {
+            if (codec.canDecode(encodedMessage)) {
+                return codec.decode(encodedMessage);
+            }
+        }
+        logger.warn("Unrecognized chat message format, {} bytes", encodedMessage.length);
+        return null;
+    }
+}
@@ -0,0 +1,147 @@
+package com.ally.learn.springailearning.common.repository;
+
+import com.ally.learn.springailearning.common.config.ChatMemoryProperties;
+import com.ally.learn.springailearning.common.memory.ReactiveChatMemoryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author cgl
+ * @description 基于Lettuce响应式命令的聊天记忆存储库，与RedisChatMemoryRepository共用键结构、追加脚本和消息编码，
+ * 两者写入的数据可以互相读取；每次写入同样递增版本号并发布变更，各节点的近端缓存照常失效
+ * @date 2025-06-22
+ * @Version 1.0
+ **/
+@Repository
+public class ReactiveRedisChatMemoryRepository implements ReactiveChatMemoryRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveRedisChatMemoryRepository.class);
+
+    private static final RedisScript<Long> APPEND_SCRIPT =
+            RedisScript.of(RedisChatMemoryRepository.APPEND_SCRIPT, Long.class);
+
+    /**
+     * 整体替换消息列表。KEYS: 消息列表、版本号、对话索引；ARGV: 过期秒数、对话ID、变更频道、当前时间、消息...
+     */
+    private static final RedisScript<Long> REPLACE_SCRIPT = RedisScript.of("""
+            redis.call('DEL', KEYS[1])
+            if #ARGV > 4 then
+                redis.call('RPUSH', KEYS[1], unpack(ARGV, 5))
+                redis.call('EXPIRE', KEYS[1], ARGV[1])
+            end
+            redis.call('ZADD', KEYS[3], ARGV[4], ARGV[2])
+            local version = redis.call('INCR', KEYS[2])
+            redis.call('EXPIRE', KEYS[2], ARGV[1])
+            redis.call('PUBLISH', ARGV[3], ARGV[2] .. '|' .. version)
+            return version
+            """, Long.class);
+
+    /**
+     * 删除对话，版本号继续递增。KEYS: 消息列表、版本号、对话索引；ARGV: 过期秒数、对话ID、变更频道、当前时间
+     */
+    private static final RedisScript<Long> DELETE_SCRIPT = RedisScript.of("""
+            redis.call('DEL', KEYS[1])
+            redis.call('ZREM', KEYS[3], ARGV[2])
+            local version = redis.call('INCR', KEYS[2])
+            redis.call('EXPIRE', KEYS[2], ARGV[1])
+            redis.call('PUBLISH', ARGV[3], ARGV[2] .. '|' .. version)
+            return version
+            """, Long.class);
+
+    private final ReactiveRedisTemplate<String, byte[]> redisTemplate;
+    private final ChatMessageSerializer serializer;
+
+    public ReactiveRedisChatMemoryRepository(ReactiveRedisConnectionFactory connectionFactory,
+                                             ChatMemoryProperties chatMemoryProperties) {
+        RedisSerializationContext<String, byte[]> serializationContext = RedisSerializationContext
+                .<String, byte[]>newSerializationContext(RedisSerializer.string())
+                .value(RedisSerializer.byteArray())
+                .build();
+        this.redisTemplate = new ReactiveRedisTemplate<>(connectionFactory, serializationContext);
+        this.serializer = new ChatMessageSerializer(chatMemoryProperties);
+    }
+
+    @Override
+    public Mono<List<Message>> findByConversationId(String conversationId) {
+        return redisTemplate.opsForList()
+                .range(RedisChatMemoryRepository.CONVERSATION_KEY_PREFIX + conversationId, 0, -1)
+                .collectList()
+                .map(encodedMessages -> serializer.deserializeAll(conversationId, encodedMessages))
+                .onErrorResume(e -> {
+                    logger.error("Error finding messages for conversation: {}", conversationId, e);
+                    return Mono.just(new ArrayList<>());
+                });
+    }
+
+    @Override
+    public Mono<Long> append(String conversationId, List<Message> messages, int maxMessages) {
+        if (messages == null || messages.isEmpty()) {
+            return Mono.just(-1L);
+        }
+        List<byte[]> args = RedisChatMemoryRepository.appendScriptArgs(conversationId, maxMessages);
+        args.addAll(serializer.serializeAll(messages));
+        if (args.size() == RedisChatMemoryRepository.APPEND_SCRIPT_FIXED_ARGS) {
+            return Mono.just(-1L);
+        }
+        return execute(APPEND_SCRIPT, conversationId, args)
+                .doOnNext(version -> logger.debug("Appended {} messages for conversation: {}, version {}",
+                        args.size() - RedisChatMemoryRepository.APPEND_SCRIPT_FIXED_ARGS, conversationId, version))
+                .onErrorResume(e -> {
+                    logger.error("Error appending messages for conversation: {}", conversationId, e);
+                    return Mono.just(-1L);
+                });
+    }
+
+    @Override
+    public Mono<Long> saveAll(String conversationId, List<Message> messages) {
+        List<byte[]> args = fixedArgs(conversationId);
+        args.addAll(serializer.serializeAll(messages));
+        return execute(REPLACE_SCRIPT, conversationId, args)
+                .onErrorResume(e -> {
+                    logger.error("Error saving messages for conversation: {}", conversationId, e);
+                    return Mono.just(-1L);
+                });
+    }
+
+    @Override
+    public Mono<Void> deleteByConversationId(String conversationId) {
+        return execute(DELETE_SCRIPT, conversationId, fixedArgs(conversationId))
+                .doOnNext(version -> logger.debug("Deleted conversation: {}", conversationId))
+                .onErrorResume(e -> {
+                    logger.error("Error deleting conversation: {}", conversationId, e);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * 脚本执行器先尝试EVALSHA，脚本未缓存时自动改用EVAL
+     */
+    private Mono<Long> execute(RedisScript<Long> script, String conversationId, List<byte[]> args) {
+        List<String> keys = List.of(RedisChatMemoryRepository.CONVERSATION_KEY_PREFIX + conversationId,
+                RedisChatMemoryRepository.CONVERSATION_VERSION_KEY_PREFIX + conversationId,
+                RedisChatMemoryRepository.CONVERSATION_INDEX_KEY);
+        return redisTemplate.execute(script, keys, args).next();
+    }
+
+    private List<byte[]> fixedArgs(String conversationId) {
+        List<byte[]> args = new ArrayList<>();
+        args.add(String.valueOf(RedisChatMemoryRepository.CONVERSATION_TTL_SECONDS).getBytes(StandardCharsets.UTF_8));
+        args.add(conversationId.getBytes(StandardCharsets.UTF_8));
+        args.add(RedisChatMemoryRepository.CHANGE_CHANNEL.getBytes(StandardCharsets.UTF_8));
+        args.add(String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+        return args;
+    }
+}
@@ -1,47 +1,142 @@
 package com.ally.learn.springailearning.common.repository;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ally.learn.springailearning.common.config.ChatMemoryProperties;
+import com.ally.learn.springailearning.common.memory.AppendableChatMemoryRepository;
+import com.ally.learn.springailearning.common.memory.BinaryChatMessageCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.ai.chat.memory.ChatMemoryRepository;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Repository;
+import org.springframework.web.server.ResponseStatusException;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.jedis.params.ZAddParams;
+import redis.clients.jedis.resps.Tuple;
+import redis.clients.jedis.util.SafeEncoder;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 /**
  * @author cgl
- * @description 基于Redis的聊天记忆存储库
+ * @description 基于Redis的聊天记忆存储库。消息按配置的编解码器写入，读取时按数据格式自动选择解码器，
+ * 切换格式后旧数据仍可读取，随窗口滚动逐步被新格式替换（见ChatMessageSerializer）
  * @date 2025-06-13
  * @Version 1.0
  **/
 @Repository
-public class RedisChatMemoryRepository implements ChatMemoryRepository {
+public class RedisChatMemoryRepository implements AppendableChatMemoryRepository {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisChatMemoryRepository.class);
     
-    private static final String CONVERSATION_KEY_PREFIX = "chat:conversation:";
-    private static final String CONVERSATION_LIST_KEY = "chat:conversations";
+    static final String CONVERSATION_KEY_PREFIX = "chat:conversation:";
+    // 版本号不能放在消息列表的命名空间下，否则会话ID为"version:X"时会与对话X的版本号冲突
+    static final String CONVERSATION_VERSION_KEY_PREFIX = "chat:memory:version:";
+    // 对话索引：有序集合，分数为最近一次写入（续期）的毫秒时间戳，分数加TTL即为过期时间。
+    // 与版本号一样不放在消息列表的命名空间下，避免会话ID为"index"时覆盖索引
+    static final String CONVERSATION_INDEX_KEY = "chat:memory:index";
+    // 早期版本使用的无序集合，由清理任务分批迁移到索引
+    private static final String LEGACY_CONVERSATION_LIST_KEY = "chat:conversations";
+    static final long CONVERSATION_TTL_SECONDS = 7 * 24 * 60 * 60;
+    static final int APPEND_SCRIPT_FIXED_ARGS = 7;
+    // findConversationIds分段读取索引的大小
+    private static final int INDEX_SCAN_BATCH = 1000;
+
+    /**
+     * 每次写入后发布"对话ID|版本号"，供各节点的近端缓存失效
+     */
+    public static final String CHANGE_CHANNEL = "chat:memory:changed";
+
+    /**
+     * 追加消息、按条数裁剪、续期、登记对话、递增版本号并发布变更，整体在服务端原子执行。
+     * KEYS: 消息列表、版本号、对话索引；ARGV: 条数上限、过期秒数、对话ID、二进制魔数、二进制系统消息类型、变更频道、当前时间、消息...
+     * 开头是系统消息（如压缩摘要）时裁剪跳过它；二进制格式直接看类型字节，JSON格式需要解析
+     */
+    static final String APPEND_SCRIPT = """
+            local length = redis.call('RPUSH', KEYS[1], unpack(ARGV, 8))
+            local maxMessages = tonumber(ARGV[1])
+            if length > maxMessages then
+                local head = redis.call('LINDEX', KEYS[1], 0)
+                local first = string.byte(head, 1)
+                local isSystem = false
+                if first == tonumber(ARGV[4]) then
+                    isSystem = string.byte(head, 2) == tonumber(ARGV[5])
+                elseif first == 123 then
+                    local ok, decoded = pcall(cjson.decode, head)
+                    isSystem = ok and type(decoded) == 'table' and decoded['type'] == 'SystemMessage'
+                end
+                if isSystem then
+                    redis.call('LTRIM', KEYS[1], length - maxMessages + 1, -1)
+                    redis.call('LPUSH', KEYS[1], head)
+                else
+                    redis.call('LTRIM', KEYS[1], length - maxMessages, -1)
+                end
+            end
+            redis.call('EXPIRE', KEYS[1], ARGV[2])
+            redis.call('ZADD', KEYS[3], ARGV[7], ARGV[3])
+            local version = redis.call('INCR', KEYS[2])
+            redis.call('EXPIRE', KEYS[2], ARGV[2])
+            redis.call('PUBLISH', ARGV[6], ARGV[3] .. '|' .. version)
+            return version
+            """;
     
+    /**
+     * 清理一批候选对话：分数仍是读取时的值（期间没有新写入登记）才处理，数据已过期的移出索引，
+     * 仍存在的按剩余过期时间修正分数，检查与修改在服务端原子执行。
+     * KEYS: 对话索引、各候选对话的消息列表；ARGV: 当前时间、过期毫秒数，之后每个候选依次为对话ID和读取到的分数
+     */
+    static final String SWEEP_SCRIPT = """
+            local now = tonumber(ARGV[1])
+            local ttl = tonumber(ARGV[2])
+            local removed = 0
+            for i = 2, #KEYS do
+                local member = ARGV[2 * i - 1]
+                local score = redis.call('ZSCORE', KEYS[1], member)
+                if score and tonumber(score) == tonumber(ARGV[2 * i]) then
+                    local remaining = redis.call('PTTL', KEYS[i])
+                    if remaining == -2 then
+                        redis.call('ZREM', KEYS[1], member)
+                        removed = removed + 1
+                    elseif remaining >= 0 then
+                        redis.call('ZADD', KEYS[1], now - ttl + remaining, member)
+                    else
+                        redis.call('ZADD', KEYS[1], now, member)
+                    end
+                end
+            end
+            return removed
+            """;
+
     private final JedisPool jedisPool;
-    private final ObjectMapper objectMapper;
+    private final ChatMessageSerializer serializer;
+    private final LuaScript appendScript = new LuaScript(APPEND_SCRIPT);
+    private final LuaScript sweepScript = new LuaScript(SWEEP_SCRIPT);
 
-    public RedisChatMemoryRepository(JedisPool jedisPool) {
+    public RedisChatMemoryRepository(JedisPool jedisPool, ChatMemoryProperties chatMemoryProperties) {
         this.jedisPool = jedisPool;
-        this.objectMapper = new ObjectMapper();
+        this.serializer = new ChatMessageSerializer(chatMemoryProperties);
     }
 
+    /**
+     * 全部对话ID（最近活跃的在前），分段读取索引，避免单次返回过大；对话很多时使用findRecentConversations分页
+     */
     @Override
     public List<String> findConversationIds() {
         try (Jedis jedis = jedisPool.getResource()) {
-            Set<String> conversationIds = jedis.smembers(CONVERSATION_LIST_KEY);
-            return new ArrayList<>(conversationIds);
+            List<String> conversationIds = new ArrayList<>();
+            for (long start = 0; ; start += INDEX_SCAN_BATCH) {
+                List<String> batch = jedis.zrevrange(CONVERSATION_INDEX_KEY, start, start + INDEX_SCAN_BATCH - 1);
+                conversationIds.addAll(batch);
+                if (batch.size() < INDEX_SCAN_BATCH) {
+                    return conversationIds;
+                }
+            }
         } catch (Exception e) {
             logger.error("Error finding conversation IDs", e);
             return new ArrayList<>();
@@ -51,28 +146,16 @@ public class RedisChatMemoryRepository implements ChatMemoryRepository {
     @Override
     public List<Message> findByConversationId(String conversationId) {
         try (Jedis jedis = jedisPool.getResource()) {
-            String key = CONVERSATION_KEY_PREFIX + conversationId;
-            List<String> messageJsonList = jedis.lrange(key, 0, -1);
-            
-            List<Message> messages = new ArrayList<>();
-            for (String messageJson : messageJsonList) {
-                try {
-                    Message message = deserializeMessage(messageJson);
-                    if (message != null) {
-                        messages.add(message);
-                    }
-                } catch (Exception e) {
-                    logger.error("Error deserializing message: {}", messageJson, e);
-                }
-            }
-            
-            return messages;
+            return serializer.deserializeAll(conversationId, jedis.lrange(conversationKey(conversationId), 0, -1));
         } catch (Exception e) {
             logger.error("Error finding messages for conversation: {}", conversationId, e);
             return new ArrayList<>();
         }
     }
 
+    /**
+     * 用给定的消息替换对话的全部记忆（ChatMemory传入的是裁剪后的完整窗口）
+     */
     @Override
     public void saveAll(String conversationId, List<Message> messages) {
         if (messages == null || messages.isEmpty()) {
@@ -80,28 +163,30 @@ public class RedisChatMemoryRepository implements ChatMemoryRepository {
         }
         
         try (Jedis jedis = jedisPool.getResource()) {
-            String key = CONVERSATION_KEY_PREFIX + conversationId;
+            byte[] key = conversationKey(conversationId);
             
-            // 使用Pipeline批量操作
-            Pipeline pipeline = jedis.pipelined();
+            // 使用事务整体替换，避免并发的压缩任务读到一半写入的列表
+            Transaction transaction = jedis.multi();
             
-            // 添加到对话列表
-            pipeline.sadd(CONVERSATION_LIST_KEY, conversationId);
+            // 登记到对话索引
+            transaction.zadd(CONVERSATION_INDEX_KEY, System.currentTimeMillis(), conversationId);
             
-            // 保存消息（追加到列表末尾）
+            // 替换消息列表
+            transaction.del(key);
             for (Message message : messages) {
                 try {
-                    String messageJson = serializeMessage(message);
-                    pipeline.rpush(key, messageJson);
+                    transaction.rpush(key, serializer.serialize(message));
                 } catch (Exception e) {
                     logger.error("Error serializing message: {}", message, e);
                 }
             }
             
             // 设置过期时间（7天）
-            pipeline.expire(key, 7 * 24 * 60 * 60);
+            transaction.expire(key, CONVERSATION_TTL_SECONDS);
+            Response<Long> version = incrementVersion(transaction, conversationId);
             
-            pipeline.sync();
+            transaction.exec();
+            publishChange(jedis, conversationId, version.get());
             
             logger.debug("Saved {} messages for conversation: {}", messages.size(), conversationId);
         } catch (Exception e) {
@@ -109,17 +194,171 @@ public class RedisChatMemoryRepository implements ChatMemoryRepository {
         }
     }
 
+    /**
+     * 用一条消息（如摘要）替换对话开头的若干条消息。
+     * 通过WATCH保证读取前缀和替换之间没有其他写入，前缀已变化或并发写入时返回false，由调用方稍后重试
+     * @param prefix 期望的前缀消息，必须与当前存储的前缀完全一致
+     */
+    public boolean replacePrefix(String conversationId, List<Message> prefix, Message replacement) {
+        if (prefix.isEmpty()) {
+            return false;
+        }
+        byte[] key = conversationKey(conversationId);
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.watch(key);
+            List<byte[]> currentPrefix = jedis.lrange(key, 0, prefix.size() - 1);
+            if (currentPrefix.size() != prefix.size()) {
+                jedis.unwatch();
+                return false;
+            }
+            for (int i = 0; i < prefix.size(); i++) {
+                if (!prefix.get(i).equals(serializer.deserialize(currentPrefix.get(i)))) {
+                    jedis.unwatch();
+                    return false;
+                }
+            }
+            Transaction transaction = jedis.multi();
+            transaction.ltrim(key, prefix.size(), -1);
+            transaction.lpush(key, serializer.serialize(replacement));
+            transaction.expire(key, CONVERSATION_TTL_SECONDS);
+            // 续期后同步索引分数，保证分数加TTL仍是过期时间
+            transaction.zadd(CONVERSATION_INDEX_KEY, System.currentTimeMillis(), conversationId);
+            Response<Long> version = incrementVersion(transaction, conversationId);
+            // 被WATCH的key在期间有写入时返回null
+            if (transaction.exec() == null) {
+                return false;
+            }
+            publishChange(jedis, conversationId, version.get());
+            return true;
+        } catch (Exception e) {
+            logger.error("Error replacing messages for conversation: {}", conversationId, e);
+            return false;
+        }
+    }
+
+    /**
+     * 增量写入：只传输本轮的新消息，不需要先读出整个窗口；列表长度始终不超过maxMessages，读取保持O(窗口)
+     */
+    @Override
+    public long append(String conversationId, List<Message> messages, int maxMessages) {
+        if (messages == null || messages.isEmpty()) {
+            return getVersion(conversationId);
+        }
+        List<byte[]> args = appendScriptArgs(conversationId, maxMessages);
+        args.addAll(serializer.serializeAll(messages));
+        if (args.size() == APPEND_SCRIPT_FIXED_ARGS) {
+            return getVersion(conversationId);
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            long version = ((Number) appendScript.eval(jedis, appendScriptKeys(conversationId), args)).longValue();
+            logger.debug("Appended {} messages for conversation: {}, version {}",
+                    args.size() - APPEND_SCRIPT_FIXED_ARGS, conversationId, version);
+            return version;
+        } catch (Exception e) {
+            logger.error("Error appending messages for conversation: {}", conversationId, e);
+            return -1;
+        }
+    }
+
+    /**
+     * 批量追加：所有请求的脚本调用放在同一个流水线中，只借用一次连接、一次往返。
+     * 脚本缓存被清空时，返回NOSCRIPT的请求（未执行）按原顺序逐个重试
+     */
+    @Override
+    public List<Long> appendAll(List<AppendRequest> requests) {
+        List<Long> versions = new ArrayList<>(Collections.nCopies(requests.size(), -1L));
+        try (Jedis jedis = jedisPool.getResource()) {
+            byte[] sha = appendScript.sha(jedis);
+            Pipeline pipeline = jedis.pipelined();
+            List<List<byte[]>> argsList = new ArrayList<>(requests.size());
+            List<Response<Object>> responses = new ArrayList<>(requests.size());
+            for (AppendRequest request : requests) {
+                List<byte[]> args = appendScriptArgs(request.conversationId(), request.maxMessages());
+                args.addAll(serializer.serializeAll(request.messages()));
+                argsList.add(args);
+                responses.add(args.size() > APPEND_SCRIPT_FIXED_ARGS
+                        ? pipeline.evalsha(sha, appendScriptKeys(request.conversationId()), args)
+                        : null);
+            }
+            pipeline.sync();
+            for (int i = 0; i < requests.size(); i++) {
+                String conversationId = requests.get(i).conversationId();
+                Response<Object> response = responses.get(i);
+                if (response == null) {
+                    continue;
+                }
+                try {
+                    versions.set(i, ((Number) response.get()).longValue());
+                } catch (JedisNoScriptException e) {
+                    versions.set(i, ((Number) appendScript.eval(jedis, appendScriptKeys(conversationId),
+                            argsList.get(i))).longValue());
+                } catch (Exception e) {
+                    logger.error("Error appending messages for conversation: {}", conversationId, e);
+                }
+            }
+            logger.debug("Appended {} batched writes in one pipeline", requests.size());
+        } catch (Exception e) {
+            logger.error("Error appending {} batched writes", requests.size(), e);
+        }
+        return versions;
+    }
+
+    @Override
+    public long getVersion(String conversationId) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            String version = jedis.get(CONVERSATION_VERSION_KEY_PREFIX + conversationId);
+            return version != null ? Long.parseLong(version) : 0;
+        } catch (Exception e) {
+            logger.error("Error reading version for conversation: {}", conversationId, e);
+            return -1;
+        }
+    }
+
+    /**
+     * 在一个事务中同时读取版本号和消息，两者保持一致，供近端缓存按版本判断新旧
+     */
+    @Override
+    public VersionedMessages findWithVersion(String conversationId) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            Transaction transaction = jedis.multi();
+            Response<String> version = transaction.get(CONVERSATION_VERSION_KEY_PREFIX + conversationId);
+            Response<List<byte[]>> encodedMessages = transaction.lrange(conversationKey(conversationId), 0, -1);
+            transaction.exec();
+            List<Message> messages = serializer.deserializeAll(conversationId, encodedMessages.get());
+            return new VersionedMessages(version.get() != null ? Long.parseLong(version.get()) : 0, messages);
+        } catch (Exception e) {
+            logger.error("Error finding messages for conversation: {}", conversationId, e);
+            return new VersionedMessages(-1, new ArrayList<>());
+        }
+    }
+
+    private Response<Long> incrementVersion(Transaction transaction, String conversationId) {
+        String versionKey = CONVERSATION_VERSION_KEY_PREFIX + conversationId;
+        Response<Long> version = transaction.incr(versionKey);
+        transaction.expire(versionKey, CONVERSATION_TTL_SECONDS);
+        return version;
+    }
+
+    private void publishChange(Jedis jedis, String conversationId, long version) {
+        try {
+            jedis.publish(CHANGE_CHANNEL, conversationId + "|" + version);
+        } catch (Exception e) {
+            logger.warn("Error publishing change for conversation: {}", conversationId, e);
+        }
+    }
+
     @Override
     public void deleteByConversationId(String conversationId) {
         try (Jedis jedis = jedisPool.getResource()) {
-            String key = CONVERSATION_KEY_PREFIX + conversationId;
-            
             Pipeline pipeline = jedis.pipelined();
-            // 删除对话消息
-            pipeline.del(key);
-            // 从对话列表中移除
-            pipeline.srem(CONVERSATION_LIST_KEY, conversationId);
+            // 删除对话消息；版本号继续递增而不是删除，避免读者把新对话误认为旧版本
+            pipeline.del(conversationKey(conversationId));
+            Response<Long> version = pipeline.incr(CONVERSATION_VERSION_KEY_PREFIX + conversationId);
+            pipeline.expire(CONVERSATION_VERSION_KEY_PREFIX + conversationId, CONVERSATION_TTL_SECONDS);
+            // 从对话索引中移除
+            pipeline.zrem(CONVERSATION_INDEX_KEY, conversationId);
             pipeline.sync();
+            publishChange(jedis, conversationId, version.get());
             
             logger.debug("Deleted conversation: {}", conversationId);
         } catch (Exception e) {
@@ -128,63 +367,194 @@ public class RedisChatMemoryRepository implements ChatMemoryRepository {
     }
 
     /**
-     * 清理过期的对话记录
+     * 按最近活跃时间倒序分页列出对话
+     * @param cursor 上一页返回的游标，为空时从最新开始；格式不正确时返回400
      */
-    public void cleanupExpiredConversations() {
+    public ConversationPage findRecentConversations(String cursor, int limit) {
+        double maxScore = Double.POSITIVE_INFINITY;
+        int skip = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            int separator = cursor.indexOf(':');
+            try {
+                maxScore = Long.parseLong(cursor.substring(0, Math.max(0, separator)));
+                skip = Integer.parseInt(cursor.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "无效的游标: " + cursor);
+            }
+            if (skip < 0) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "无效的游标: " + cursor);
+            }
+        }
         try (Jedis jedis = jedisPool.getResource()) {
-            Set<String> conversationIds = jedis.smembers(CONVERSATION_LIST_KEY);
-            
-            for (String conversationId : conversationIds) {
-                String key = CONVERSATION_KEY_PREFIX + conversationId;
-                if (!jedis.exists(key)) {
-                    // 如果对话数据已过期，从列表中移除
-                    jedis.srem(CONVERSATION_LIST_KEY, conversationId);
-                    logger.debug("Cleaned up expired conversation: {}", conversationId);
+            List<Tuple> tuples = jedis.zrevrangeByScoreWithScores(CONVERSATION_INDEX_KEY, maxScore,
+                    Double.NEGATIVE_INFINITY, skip, limit);
+            List<ConversationSummary> conversations = new ArrayList<>(tuples.size());
+            for (Tuple tuple : tuples) {
+                conversations.add(new ConversationSummary(tuple.getElement(), (long) tuple.getScore()));
+            }
+            if (tuples.size() < limit) {
+                return new ConversationPage(conversations, null);
+            }
+            // 游标为"最后一条的分数:该分数已返回的条数"，分数相同的对话不会被跳过或重复
+            double lastScore = tuples.get(tuples.size() - 1).getScore();
+            int sameScore = 0;
+            for (int i = tuples.size() - 1; i >= 0 && tuples.get(i).getScore() == lastScore; i--) {
+                sameScore++;
+            }
+            int nextSkip = lastScore == maxScore ? skip + sameScore : sameScore;
+            return new ConversationPage(conversations, (long) lastScore + ":" + nextSkip);
+        } catch (Exception e) {
+            logger.error("Error listing conversations", e);
+            return new ConversationPage(List.of(), null);
+        }
+    }
+
+    /**
+     * 清理一批已过期的对话索引：只检查分数早于TTL的对话，由清理脚本原子地判断和修改，
+     * 数据已过期的移出索引，仍存在的（由其他途径续期）按剩余时间修正分数；期间被重新写入的对话保持不变
+     * @return 本批检查和移除的数量，检查数小于batchSize说明已没有待清理的对话
+     */
+    public SweepResult sweepExpiredConversations(int batchSize) {
+        long now = System.currentTimeMillis();
+        long ttlMillis = CONVERSATION_TTL_SECONDS * 1000;
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<Tuple> candidates = jedis.zrangeByScoreWithScores(CONVERSATION_INDEX_KEY, Double.NEGATIVE_INFINITY,
+                    now - ttlMillis, 0, batchSize);
+            if (candidates.isEmpty()) {
+                return new SweepResult(0, 0);
+            }
+            List<byte[]> keys = new ArrayList<>(candidates.size() + 1);
+            List<byte[]> args = new ArrayList<>(candidates.size() * 2 + 2);
+            keys.add(SafeEncoder.encode(CONVERSATION_INDEX_KEY));
+            args.add(SafeEncoder.encode(String.valueOf(now)));
+            args.add(SafeEncoder.encode(String.valueOf(ttlMillis)));
+            for (Tuple candidate : candidates) {
+                keys.add(conversationKey(candidate.getElement()));
+                args.add(candidate.getBinaryElement());
+                // 分数都是毫秒时间戳，按整数比较
+                args.add(SafeEncoder.encode(String.valueOf((long) candidate.getScore())));
+            }
+            int removed = ((Number) sweepScript.eval(jedis, keys, args)).intValue();
+            return new SweepResult(candidates.size(), removed);
+        } catch (Exception e) {
+            logger.error("Error sweeping expired conversations", e);
+            return new SweepResult(0, 0);
+        }
+    }
+
+    /**
+     * 从早期的无序集合中取出一批对话ID迁入索引，数据已过期的直接丢弃
+     * @return 本批取出的数量，小于batchSize说明迁移已完成
+     */
+    public int migrateLegacyConversations(int batchSize) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<String> conversationIds = new ArrayList<>(jedis.spop(LEGACY_CONVERSATION_LIST_KEY, batchSize));
+            if (conversationIds.isEmpty()) {
+                return 0;
+            }
+            long now = System.currentTimeMillis();
+            long ttlMillis = CONVERSATION_TTL_SECONDS * 1000;
+            List<Long> remainingTtls = remainingTtls(jedis, conversationIds);
+            Pipeline pipeline = jedis.pipelined();
+            for (int i = 0; i < conversationIds.size(); i++) {
+                long remaining = remainingTtls.get(i);
+                if (remaining != -2) {
+                    // NX：已由新写入登记的对话保留其分数
+                    pipeline.zadd(CONVERSATION_INDEX_KEY, remaining >= 0 ? now - ttlMillis + remaining : now,
+                            conversationIds.get(i), ZAddParams.zAddParams().nx());
                 }
             }
+            pipeline.sync();
+            return conversationIds.size();
         } catch (Exception e) {
-            logger.error("Error cleaning up expired conversations", e);
+            logger.error("Error migrating legacy conversation list", e);
+            return 0;
         }
     }
 
-    private String serializeMessage(Message message) throws JsonProcessingException {
-        // 创建一个简化的消息表示
-        MessageData messageData = new MessageData(
-            message.getClass().getSimpleName(),
-            message.getText(),
-            message.getMetadata()
-        );
-        return objectMapper.writeValueAsString(messageData);
+    /**
+     * 流水线查询对话数据的剩余过期毫秒数，-2表示已不存在，-1表示未设置过期
+     */
+    private List<Long> remainingTtls(Jedis jedis, List<String> conversationIds) {
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Long>> responses = new ArrayList<>(conversationIds.size());
+        for (String conversationId : conversationIds) {
+            responses.add(pipeline.pttl(CONVERSATION_KEY_PREFIX + conversationId));
+        }
+        pipeline.sync();
+        List<Long> remainingTtls = new ArrayList<>(responses.size());
+        responses.forEach(response -> remainingTtls.add(response.get()));
+        return remainingTtls;
     }
 
-    private Message deserializeMessage(String messageJson) throws JsonProcessingException {
-        MessageData messageData = objectMapper.readValue(messageJson, MessageData.class);
-        
-        // 根据消息类型创建相应的Message实例
-        return switch (messageData.type()) {
-            case "UserMessage" -> new org.springframework.ai.chat.messages.UserMessage(
-                messageData.content()
-            );
-            case "AssistantMessage" -> new org.springframework.ai.chat.messages.AssistantMessage(
-                messageData.content(),
-                messageData.metadata()
-            );
-            case "SystemMessage" -> new org.springframework.ai.chat.messages.SystemMessage(
-                messageData.content()
-            );
-            default -> {
-                logger.warn("Unknown message type: {}", messageData.type());
-                yield null;
-            }
-        };
-    }
-
-    /**
-     * 消息数据传输对象
-     */
-    private record MessageData(
-        String type,
-        String content,
-        java.util.Map<String, Object> metadata
-    ) {}
+    /**
+     * 追加脚本的固定参数，调用方在其后加入编码后的消息
+     */
+    static List<byte[]> appendScriptArgs(String conversationId, int maxMessages) {
+        List<byte[]> args = new ArrayList<>();
+        args.add(SafeEncoder.encode(String.valueOf(maxMessages)));
+        args.add(SafeEncoder.encode(String.valueOf(CONVERSATION_TTL_SECONDS)));
+        args.add(SafeEncoder.encode(conversationId));
+        args.add(SafeEncoder.encode(String.valueOf(BinaryChatMessageCodec.MAGIC & 0xFF)));
+        args.add(SafeEncoder.encode(String.valueOf(BinaryChatMessageCodec.TYPE_SYSTEM)));
+        args.add(SafeEncoder.encode(CHANGE_CHANNEL));
+        args.add(SafeEncoder.encode(String.valueOf(System.currentTimeMillis())));
+        return args;
+    }
+
+    private List<byte[]> appendScriptKeys(String conversationId) {
+        return List.of(conversationKey(conversationId),
+                SafeEncoder.encode(CONVERSATION_VERSION_KEY_PREFIX + conversationId),
+                SafeEncoder.encode(CONVERSATION_INDEX_KEY));
+    }
+
+    private byte[] conversationKey(String conversationId) {
+        return SafeEncoder.encode(CONVERSATION_KEY_PREFIX + conversationId);
+    }
+
+    /**
+     * 服务端脚本：优先用EVALSHA只传脚本摘要；Redis重启或脚本缓存被清空后重新加载
+     */
+    private static final class LuaScript {
+
+        private final byte[] script;
+        private volatile byte[] sha;
+
+        private LuaScript(String script) {
+            this.script = SafeEncoder.encode(script);
+        }
+
+        private byte[] sha(Jedis jedis) {
+            byte[] current = sha;
+            if (current == null) {
+                current = jedis.scriptLoad(script);
+                sha = current;
+            }
+            return current;
+        }
+
+        private Object eval(Jedis jedis, List<byte[]> keys, List<byte[]> args) {
+            try {
+                return jedis.evalsha(sha(jedis), keys, args);
+            } catch (JedisNoScriptException e) {
+                sha = jedis.scriptLoad(script);
+                return jedis.evalsha(sha, keys, args);
+            }
+        }
+    }
+
+    /**
+     * @param lastActiveAt 最近一次写入的毫秒时间戳
+     */
+    public record ConversationSummary(String conversationId, long lastActiveAt) {
+    }
+
+    /**
+     * @param nextCursor 下一页游标，没有更多时为null
+     */
+    public record ConversationPage(List<ConversationSummary> conversations, String nextCursor) {
+    }
+
+    public record SweepResult(int examined, int removed) {
+    }
 }
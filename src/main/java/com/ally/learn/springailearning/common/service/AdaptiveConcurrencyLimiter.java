@@ -0,0 +1,191 @@
+package com.ally.learn.springailearning.common.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author cgl
+ * @description 自适应并发限制器：AIMD调整并发上限（正常时加性增大，延迟超阈值或上游429时乘性减小），
+ * 流式调用按首token延迟判断过载，非流式调用按整体耗时和单独的阈值判断；
+ * 超出上限的请求进入FIFO短队列，队列满时立即拒绝
+ * @date 2025-06-17
+ * @Version 1.0
+ **/
+public class AdaptiveConcurrencyLimiter {
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueSize;
+    private final Duration maxWait;
+    private final long latencyThresholdNanos;
+    private final long callLatencyThresholdNanos;
+    private final double backoffRatio;
+
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, int queueSize,
+                                      Duration maxWait, Duration latencyThreshold, Duration callLatencyThreshold,
+                                      double backoffRatio) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.queueSize = queueSize;
+        this.maxWait = maxWait;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.callLatencyThresholdNanos = callLatencyThreshold.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * 获取许可；有空闲直接放行，否则排队，超过最长等待时间或队列已满时返回429错误
+     */
+    public Mono<Permit> acquire() {
+        Mono<Permit> permit = Mono.create(sink -> {
+            Waiter waiter;
+            synchronized (this) {
+                if (queue.isEmpty() && inFlight < (int) limit) {
+                    inFlight++;
+                    sink.success(new Permit(0));
+                    return;
+                }
+                if (queue.size() >= queueSize) {
+                    sink.error(rejected("queue full"));
+                    return;
+                }
+                waiter = new Waiter(sink, System.nanoTime());
+                queue.addLast(waiter);
+            }
+            sink.onCancel(() -> cancel(waiter));
+        });
+        return permit.timeout(maxWait, Mono.error(() -> rejected("wait timeout")));
+    }
+
+    private void cancel(Waiter waiter) {
+        Permit granted;
+        synchronized (this) {
+            if (queue.remove(waiter)) {
+                return;
+            }
+            granted = waiter.permit;
+        }
+        // 许可已分配但订阅者已取消，立即归还
+        if (granted != null) {
+            granted.release(Outcome.IGNORED, 0);
+        }
+    }
+
+    private void onRelease(Outcome outcome, long latencyNanos, long thresholdNanos) {
+        Waiter next;
+        synchronized (this) {
+            inFlight--;
+            adjustLimit(outcome, latencyNanos, thresholdNanos);
+            if (queue.isEmpty() || inFlight >= (int) limit) {
+                return;
+            }
+            next = queue.pollFirst();
+            inFlight++;
+            next.permit = new Permit(System.nanoTime() - next.enqueuedAt);
+        }
+        next.sink.success(next.permit);
+    }
+
+    private void adjustLimit(Outcome outcome, long latencyNanos, long thresholdNanos) {
+        switch (outcome) {
+            case RATE_LIMITED -> limit = Math.max(minLimit, limit * backoffRatio);
+            case SUCCESS -> {
+                if (latencyNanos > thresholdNanos) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                } else {
+                    // 每轮满并发约增加1
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+            }
+            default -> {
+                // 取消或普通错误不调整
+            }
+        }
+    }
+
+    private ResponseStatusException rejected(String reason) {
+        return new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS,
+                "模型 " + name + " 繁忙，请稍后重试（" + reason + "）");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public enum Outcome {
+        SUCCESS, RATE_LIMITED, ERROR, IGNORED
+    }
+
+    private static final class Waiter {
+        private final MonoSink<Permit> sink;
+        private final long enqueuedAt;
+        private Permit permit;
+
+        private Waiter(MonoSink<Permit> sink, long enqueuedAt) {
+            this.sink = sink;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /**
+     * 并发许可，release幂等
+     */
+    public final class Permit {
+
+        private final long waitNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(long waitNanos) {
+            this.waitNanos = waitNanos;
+        }
+
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+
+        /**
+         * 归还流式调用的许可并反馈本次调用结果
+         * @param latencyNanos 首token延迟，用于自适应调整
+         */
+        public void release(Outcome outcome, long latencyNanos) {
+            if (released.compareAndSet(false, true)) {
+                onRelease(outcome, latencyNanos, latencyThresholdNanos);
+            }
+        }
+
+        /**
+         * 归还非流式调用的许可；整体耗时包含完整生成，与单独的整体耗时阈值比较
+         * @param callLatencyNanos 整体耗时
+         */
+        public void releaseCall(Outcome outcome, long callLatencyNanos) {
+            if (released.compareAndSet(false, true)) {
+                onRelease(outcome, callLatencyNanos, callLatencyThresholdNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.ally.learn.springailearning.common.service;
+
+import com.ally.learn.springailearning.common.config.AdmissionControlProperties;
+import com.ally.learn.springailearning.common.model.UpstreamHttpStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author cgl
+ * @description 模型调用准入控制服务：为每个模型维护一个自适应并发限制器，并暴露队列深度、等待时间等指标
+ * @date 2025-06-17
+ * @Version 1.0
+ **/
+@Service
+public class AdmissionControlService {
+
+    private final AdmissionControlProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    public AdmissionControlService(AdmissionControlProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 为指定模型获取并发许可，并记录等待时间和拒绝次数
+     */
+    public Mono<AdaptiveConcurrencyLimiter.Permit> acquire(String model) {
+        return limiter(model).acquire()
+                .doOnNext(permit -> Timer.builder("chat.admission.wait")
+                        .tag("model", model)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record(permit.getWaitNanos(), TimeUnit.NANOSECONDS))
+                .doOnError(ResponseStatusException.class, e -> Counter.builder("chat.admission.rejected")
+                        .tag("model", model)
+                        .register(meterRegistry)
+                        .increment());
+    }
+
+    /**
+     * 根据异常类型和状态码判断上游是否返回了429：流式调用为WebClientResponseException，
+     * 非流式调用为ModelErrorHandlerConfig抛出的带状态码异常
+     */
+    public static AdaptiveConcurrencyLimiter.Outcome outcomeOf(Throwable error) {
+        Throwable current = error;
+        while (current != null) {
+            if (current instanceof WebClientResponseException responseException
+                    && responseException.getStatusCode().value() == 429) {
+                return AdaptiveConcurrencyLimiter.Outcome.RATE_LIMITED;
+            }
+            if (current instanceof RestClientResponseException responseException
+                    && responseException.getStatusCode().value() == 429) {
+                return AdaptiveConcurrencyLimiter.Outcome.RATE_LIMITED;
+            }
+            if (current instanceof UpstreamHttpStatus upstreamHttpStatus && upstreamHttpStatus.getStatusCode() == 429) {
+                return AdaptiveConcurrencyLimiter.Outcome.RATE_LIMITED;
+            }
+            current = current.getCause();
+        }
+        return AdaptiveConcurrencyLimiter.Outcome.ERROR;
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(String model) {
+        return limiters.computeIfAbsent(model, this::createLimiter);
+    }
+
+    private AdaptiveConcurrencyLimiter createLimiter(String model) {
+        AdmissionControlProperties.Limit limit = properties.limitFor(model);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(model, limit.getInitialLimit(),
+                limit.getMinLimit(), limit.getMaxLimit(), properties.getQueueSize(), properties.getMaxWait(),
+                properties.getLatencyThreshold(), properties.getCallLatencyThreshold(), properties.getBackoffRatio());
+        Gauge.builder("chat.admission.queue.depth", limiter, AdaptiveConcurrencyLimiter::getQueueDepth)
+                .tag("model", model)
+                .register(meterRegistry);
+        Gauge.builder("chat.admission.in.flight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .tag("model", model)
+                .register(meterRegistry);
+        Gauge.builder("chat.admission.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .tag("model", model)
+                .register(meterRegistry);
+        return limiter;
+    }
+}
@@ -0,0 +1,162 @@
+package com.ally.learn.springailearning.common.service;
+
+import com.ally.learn.springailearning.common.advisor.ChatContextKeys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.deepseek.DeepSeekAssistantMessage;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.SignalType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author cgl
+ * @description 流式聊天延迟指标：首token时间、token间隔、总生成时间、每秒token数以及完成/停止/取消/出错次数，
+ * 按模型和是否使用知识库打标签，直方图通过actuator的prometheus端点发布
+ * @date 2025-06-18
+ * @Version 1.0
+ **/
+@Service
+public class ChatStreamMetrics {
+
+    public static final String OUTCOME_COMPLETED = "completed";
+    public static final String OUTCOME_STOPPED = "stopped";
+    public static final String OUTCOME_CANCELLED = "cancelled";
+    public static final String OUTCOME_ERROR = "error";
+
+    private static final String DEFAULT_MODEL = "default";
+
+    private final MeterRegistry meterRegistry;
+
+    public ChatStreamMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 开始记录一次模型流
+     */
+    public Recorder start(ChatClientRequest chatClientRequest) {
+        ChatOptions options = chatClientRequest.prompt().getOptions();
+        String model = options != null && options.getModel() != null ? options.getModel() : DEFAULT_MODEL;
+        boolean rag = chatClientRequest.context().get(ChatContextKeys.KNOWLEDGE_BASE_ID) != null;
+        return new Recorder(Tags.of("model", model, "rag", String.valueOf(rag)));
+    }
+
+    /**
+     * 记录客户端收到首个SSE事件的时间（包含合并窗口和编码开销）
+     */
+    public void recordFirstEvent(String format, boolean rag, long nanos) {
+        Timer.builder("chat.stream.client.first.event")
+                .tags("format", format, "rag", String.valueOf(rag))
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 单次流的记录器，在流的上游线程上按顺序调用
+     */
+    public final class Recorder {
+
+        private final Tags tags;
+        private final long start = System.nanoTime();
+        private long firstToken = -1;
+        private long lastToken = -1;
+        private long chunkCount;
+        private long completionTokens;
+        private volatile boolean stopped;
+
+        private Recorder(Tags tags) {
+            this.tags = tags;
+        }
+
+        public void onResponse(ChatClientResponse chatClientResponse) {
+            ChatResponse chatResponse = chatClientResponse.chatResponse();
+            if (chatResponse == null) {
+                return;
+            }
+            Usage usage = chatResponse.getMetadata() != null ? chatResponse.getMetadata().getUsage() : null;
+            if (usage != null && usage.getCompletionTokens() != null) {
+                completionTokens = Math.max(completionTokens, usage.getCompletionTokens());
+            }
+            if (!hasContent(chatResponse.getResult())) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (firstToken < 0) {
+                firstToken = now;
+                timer("chat.stream.ttft").record(now - start, TimeUnit.NANOSECONDS);
+            } else {
+                timer("chat.stream.inter.token").record(now - lastToken, TimeUnit.NANOSECONDS);
+            }
+            lastToken = now;
+            chunkCount++;
+        }
+
+        /**
+         * 流被/stop停止
+         */
+        public void onStopped() {
+            stopped = true;
+        }
+
+        public void finish(SignalType signalType) {
+            String outcome = switch (signalType) {
+                case ON_COMPLETE -> stopped ? OUTCOME_STOPPED : OUTCOME_COMPLETED;
+                case ON_ERROR -> OUTCOME_ERROR;
+                default -> OUTCOME_CANCELLED;
+            };
+            long end = System.nanoTime();
+            long duration = end - start;
+            Timer.builder("chat.stream.duration")
+                    .tags(tags.and("outcome", outcome))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(duration, TimeUnit.NANOSECONDS);
+            Counter.builder("chat.stream.outcome")
+                    .tags(tags.and("outcome", outcome))
+                    .register(meterRegistry)
+                    .increment();
+            // 只统计正常结束的流，生成速度从首token开始计算；上游没有返回usage时按增量块数估算
+            if (OUTCOME_COMPLETED.equals(outcome) && firstToken >= 0) {
+                long generationNanos = end - firstToken;
+                long tokens = completionTokens > 0 ? completionTokens : chunkCount;
+                if (generationNanos > 0) {
+                    DistributionSummary.builder("chat.stream.tokens.per.second")
+                            .tags(tags)
+                            .publishPercentileHistogram()
+                            .register(meterRegistry)
+                            .record(tokens * 1_000_000_000.0 / generationNanos);
+                }
+            }
+        }
+
+        private Timer timer(String name) {
+            return Timer.builder(name)
+                    .tags(tags)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+
+        private boolean hasContent(Generation generation) {
+            if (generation == null || generation.getOutput() == null) {
+                return false;
+            }
+            if (StringUtils.hasLength(generation.getOutput().getText())) {
+                return true;
+            }
+            return generation.getOutput() instanceof DeepSeekAssistantMessage deepSeekMessage
+                    && StringUtils.hasLength(deepSeekMessage.getReasoningContent());
+        }
+    }
+}
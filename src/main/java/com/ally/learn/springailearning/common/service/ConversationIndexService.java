@@ -0,0 +1,79 @@
+package com.ally.learn.springailearning.common.service;
+
+import com.ally.learn.springailearning.common.config.ChatMemoryProperties;
+import com.ally.learn.springailearning.common.repository.RedisChatMemoryRepository;
+import com.ally.learn.springailearning.common.repository.RedisChatMemoryRepository.ConversationPage;
+import com.ally.learn.springailearning.common.repository.RedisChatMemoryRepository.SweepResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * @author cgl
+ * @description 对话索引维护：按最近活跃时间分页列出对话；定时分批清理数据已过期的对话ID，
+ * 每次运行的批数有上限，清理开销不随对话总数增长。启动后先把早期的无序集合分批迁入索引
+ * @date 2025-06-23
+ * @Version 1.0
+ **/
+@Service
+public class ConversationIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationIndexService.class);
+
+    private static final int MAX_PAGE_SIZE = 200;
+
+    private final RedisChatMemoryRepository redisChatMemoryRepository;
+    private final ChatMemoryProperties.Sweeper properties;
+    private final Counter removedCounter;
+    private volatile boolean legacyMigrated;
+
+    public ConversationIndexService(RedisChatMemoryRepository redisChatMemoryRepository,
+                                    ChatMemoryProperties chatMemoryProperties, MeterRegistry meterRegistry) {
+        this.redisChatMemoryRepository = redisChatMemoryRepository;
+        this.properties = chatMemoryProperties.getSweeper();
+        this.removedCounter = meterRegistry.counter("chat.memory.sweeper.removed");
+    }
+
+    /**
+     * 按最近活跃时间倒序分页列出对话
+     */
+    public ConversationPage listConversations(String cursor, int limit) {
+        return redisChatMemoryRepository.findRecentConversations(cursor, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+    }
+
+    @Scheduled(fixedDelayString = "${app.chat.memory.sweeper.interval:60s}")
+    public void sweep() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        int batchSize = properties.getBatchSize();
+        int batches = 0;
+        if (!legacyMigrated) {
+            while (batches < properties.getMaxBatchesPerRun()) {
+                batches++;
+                if (redisChatMemoryRepository.migrateLegacyConversations(batchSize) < batchSize) {
+                    legacyMigrated = true;
+                    break;
+                }
+            }
+        }
+        int examined = 0;
+        int removed = 0;
+        while (batches < properties.getMaxBatchesPerRun()) {
+            batches++;
+            SweepResult result = redisChatMemoryRepository.sweepExpiredConversations(batchSize);
+            examined += result.examined();
+            removed += result.removed();
+            if (result.examined() < batchSize) {
+                break;
+            }
+        }
+        if (removed > 0) {
+            removedCounter.increment(removed);
+            logger.info("Swept {} expired conversations ({} examined)", removed, examined);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.ally.learn.springailearning.common.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * @author cgl
+ * @description 基于JedisPool的Redis发布订阅：每个订阅占用一个常驻连接和一个守护线程，连接断开后自动重连。
+ * nodeId用于识别本节点发出的消息
+ * @date 2025-06-18
+ * @Version 1.0
+ **/
+@Service
+public class RedisPubSubService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisPubSubService.class);
+
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private final JedisPool jedisPool;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    public RedisPubSubService(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 发布消息，失败只记录日志
+     */
+    public void publish(String channel, String message) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.publish(channel, message);
+        } catch (Exception e) {
+            logger.warn("Error publishing to channel: {}", channel, e);
+        }
+    }
+
+    /**
+     * 订阅频道，handler在订阅线程上执行，应尽快返回
+     */
+    public void subscribe(String channel, Consumer<String> handler) {
+        Subscription subscription = new Subscription(channel, handler);
+        subscriptions.add(subscription);
+        Thread thread = new Thread(subscription::listen, "redis-sub-" + channel);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        subscriptions.forEach(Subscription::close);
+    }
+
+    private final class Subscription {
+
+        private final String channel;
+        private final Consumer<String> handler;
+        private volatile JedisPubSub pubSub;
+
+        private Subscription(String channel, Consumer<String> handler) {
+            this.channel = channel;
+            this.handler = handler;
+        }
+
+        private void listen() {
+            while (running) {
+                pubSub = new JedisPubSub() {
+                    @Override
+                    public void onMessage(String channel, String message) {
+                        try {
+                            handler.accept(message);
+                        } catch (Exception e) {
+                            logger.error("Error handling message on channel: {}", channel, e);
+                        }
+                    }
+                };
+                try (Jedis jedis = jedisPool.getResource()) {
+                    // 阻塞直到取消订阅或连接断开
+                    jedis.subscribe(pubSub, channel);
+                } catch (Exception e) {
+                    if (!running) {
+                        return;
+                    }
+                    logger.warn("Subscription to channel {} lost, reconnecting", channel, e);
+                    try {
+                        Thread.sleep(RECONNECT_DELAY_MILLIS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void close() {
+            JedisPubSub current = pubSub;
+            if (current != null && current.isSubscribed()) {
+                current.unsubscribe();
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.ally.learn.springailearning.common.service;
+
+import com.ally.learn.springailearning.common.config.SemanticCacheProperties;
+import com.ally.learn.springailearning.rag.event.KnowledgeBaseChangedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author cgl
+ * @description 语义答案缓存：按知识库保存历史问题的向量和答案，新问题向量与已缓存问题的余弦相似度达到阈值即命中。
+ * 答案只对生成它的模型命中，不同模型（如deepseek-chat和deepseek-reasoner）互不复用。
+ * 支持TTL和按知识库的容量淘汰（LRU），知识库文档变更时整体失效，并通过Redis广播给集群其他节点
+ * @date 2025-06-17
+ * @Version 1.0
+ **/
+@Service
+public class SemanticAnswerCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SemanticAnswerCache.class);
+
+    private static final String SEPARATOR = "|";
+
+    private final EmbeddingModel embeddingModel;
+    private final SemanticCacheProperties properties;
+    private final RedisPubSubService redisPubSubService;
+    private final ConcurrentHashMap<String, KnowledgeBaseCache> caches = new ConcurrentHashMap<>();
+    // 任意知识库变更时递增；写入时版本不一致说明答案可能基于旧内容生成，丢弃。
+    // 不按知识库分别计数，避免为每个出现过的知识库ID常驻一个条目，知识库变更很少，偶尔多丢一次写入可以接受
+    private final AtomicLong version = new AtomicLong();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter storeCounter;
+    private final Counter invalidationCounter;
+
+    public SemanticAnswerCache(EmbeddingModel embeddingModel, SemanticCacheProperties properties,
+                               RedisPubSubService redisPubSubService, MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.properties = properties;
+        this.redisPubSubService = redisPubSubService;
+        this.hitCounter = meterRegistry.counter("chat.semantic.cache.requests", "result", "hit");
+        this.missCounter = meterRegistry.counter("chat.semantic.cache.requests", "result", "miss");
+        this.storeCounter = meterRegistry.counter("chat.semantic.cache.stores");
+        this.invalidationCounter = meterRegistry.counter("chat.semantic.cache.invalidations");
+        meterRegistry.gaugeMapSize("chat.semantic.cache.knowledge.bases", Tags.empty(), caches);
+        meterRegistry.gauge("chat.semantic.cache.entries", caches,
+                map -> map.values().stream().mapToInt(KnowledgeBaseCache::size).sum());
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        if (properties.isClusterEnabled()) {
+            redisPubSubService.subscribe(properties.getChannel(), this::onRemoteInvalidation);
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public Duration getLookupTimeout() {
+        return properties.getLookupTimeout();
+    }
+
+    /**
+     * 查找语义相近问题的缓存答案（阻塞：需要调用嵌入模型）
+     * @param model 请求的模型，为空时使用默认模型
+     * @return 查找结果，未命中时携带问题向量和知识库版本，供生成完成后写回
+     */
+    public Lookup lookup(String knowledgeBaseId, String model, String question) {
+        String cacheModel = model != null ? model : "";
+        long currentVersion = version.get();
+        float[] embedding = normalize(embeddingModel.embed(question));
+        KnowledgeBaseCache cache = caches.get(knowledgeBaseId);
+        CachedAnswer answer = cache != null
+                ? cache.findSimilar(cacheModel, embedding, properties.getSimilarityThreshold(), System.currentTimeMillis())
+                : null;
+        if (answer != null) {
+            hitCounter.increment();
+            logger.debug("Semantic cache hit for knowledge base: {}", knowledgeBaseId);
+        } else {
+            missCounter.increment();
+        }
+        return new Lookup(knowledgeBaseId, cacheModel, embedding, currentVersion, answer);
+    }
+
+    /**
+     * 写入生成完成的答案；期间知识库发生变更则丢弃
+     */
+    public void store(Lookup lookup, String answer, String reasoningContent) {
+        if (version.get() != lookup.version()) {
+            logger.debug("Knowledge base {} changed during generation, skip caching", lookup.knowledgeBaseId());
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + properties.getTtl().toMillis();
+        caches.computeIfAbsent(lookup.knowledgeBaseId(),
+                        id -> new KnowledgeBaseCache(properties.getMaxEntriesPerKnowledgeBase()))
+                .put(new CachedAnswer(lookup.model(), lookup.embedding(), answer, reasoningContent, expiresAt));
+        storeCounter.increment();
+    }
+
+    @EventListener
+    public void onKnowledgeBaseChanged(KnowledgeBaseChangedEvent event) {
+        invalidate(event.knowledgeBaseId());
+    }
+
+    /**
+     * 失效知识库的缓存：先在本节点生效，再通过Redis广播给集群其他节点
+     */
+    public void invalidate(String knowledgeBaseId) {
+        invalidateLocal(knowledgeBaseId);
+        if (properties.isClusterEnabled()) {
+            redisPubSubService.publish(properties.getChannel(), redisPubSubService.getNodeId() + SEPARATOR + knowledgeBaseId);
+        }
+    }
+
+    private void onRemoteInvalidation(String message) {
+        int index = message.indexOf(SEPARATOR);
+        if (index < 0) {
+            return;
+        }
+        // 本节点发出的失效已在本地处理
+        if (message.substring(0, index).equals(redisPubSubService.getNodeId())) {
+            return;
+        }
+        invalidateLocal(message.substring(index + 1));
+    }
+
+    private void invalidateLocal(String knowledgeBaseId) {
+        version.incrementAndGet();
+        if (caches.remove(knowledgeBaseId) != null) {
+            invalidationCounter.increment();
+            logger.info("Invalidated semantic cache for knowledge base: {}", knowledgeBaseId);
+        }
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            return vector;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    /**
+     * 单次查找的结果
+     * @param answer 命中的答案，未命中为null
+     */
+    public record Lookup(String knowledgeBaseId, String model, float[] embedding, long version, CachedAnswer answer) {
+
+        public boolean hit() {
+            return answer != null;
+        }
+    }
+
+    /**
+     * 缓存的答案，embedding已归一化
+     */
+    public record CachedAnswer(String model, float[] embedding, String content, String reasoningContent,
+                               long expiresAt) {
+    }
+
+    /**
+     * 单个知识库的缓存，访问顺序的LinkedHashMap实现LRU，所有操作在对象锁内完成
+     */
+    private static final class KnowledgeBaseCache {
+
+        private final LinkedHashMap<Long, CachedAnswer> entries;
+        private long nextId;
+
+        private KnowledgeBaseCache(int maxEntries) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, CachedAnswer> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        synchronized void put(CachedAnswer answer) {
+            entries.put(nextId++, answer);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized CachedAnswer findSimilar(String model, float[] embedding, double threshold, long now) {
+            Long bestId = null;
+            double bestScore = threshold;
+            Iterator<Map.Entry<Long, CachedAnswer>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, CachedAnswer> entry = iterator.next();
+                CachedAnswer candidate = entry.getValue();
+                if (candidate.expiresAt() <= now) {
+                    iterator.remove();
+                    continue;
+                }
+                if (!candidate.model().equals(model) || candidate.embedding().length != embedding.length) {
+                    continue;
+                }
+                double score = dot(candidate.embedding(), embedding);
+                if (score >= bestScore) {
+                    bestScore = score;
+                    bestId = entry.getKey();
+                }
+            }
+            // get触发访问顺序更新
+            return bestId != null ? entries.get(bestId) : null;
+        }
+
+        private static double dot(float[] a, float[] b) {
+            double sum = 0;
+            for (int i = 0; i < a.length; i++) {
+                sum += a[i] * b[i];
+            }
+            return sum;
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package com.ally.learn.springailearning.common.service;
 
+import com.ally.learn.springailearning.common.config.StreamControlProperties;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.Sinks;
@@ -8,23 +12,130 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author cgl
- * @description 流控制服务
+ * @description 流控制服务：只登记正在进行的流，流结束（完成、出错或取消）时由register返回的句柄移除登记，
+ * 因此登记表大小等于当前活跃会话数。停止请求先在本节点生效，再通过Redis广播给集群其他节点
  * @date 2025-06-13
  * @Version 1.0
  **/
 @Service
 public class StreamControlService {
-    private final ConcurrentHashMap<String, Sinks.Empty<Void>> cancelSignals = new ConcurrentHashMap<>();
-    
-    public Mono<Void> getCancelSignal(String sessionId) {
-        return cancelSignals.computeIfAbsent(sessionId, k -> Sinks.empty()).asMono();
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamControlService.class);
+
+    private static final String SEPARATOR = "|";
+
+    private final ConcurrentHashMap<String, Entry> cancelSignals = new ConcurrentHashMap<>();
+    private final StreamControlProperties properties;
+    private final RedisPubSubService redisPubSubService;
+
+    public StreamControlService(StreamControlProperties properties, RedisPubSubService redisPubSubService) {
+        this.properties = properties;
+        this.redisPubSubService = redisPubSubService;
     }
-    
+
+    @PostConstruct
+    public void subscribe() {
+        if (properties.isClusterEnabled()) {
+            redisPubSubService.subscribe(properties.getChannel(), this::onRemoteCancel);
+        }
+    }
+
+    /**
+     * 登记一个正在进行的流，流结束时必须调用返回句柄的release
+     */
+    public Registration register(String sessionId) {
+        Entry entry = cancelSignals.compute(sessionId, (key, existing) -> {
+            if (existing == null) {
+                if (cancelSignals.size() >= properties.getMaxEntries()) {
+                    return null;
+                }
+                existing = new Entry();
+            }
+            existing.refCount++;
+            return existing;
+        });
+        if (entry == null) {
+            logger.warn("Stream control registry full ({} entries), session {} cannot be stopped",
+                    properties.getMaxEntries(), sessionId);
+            return new Registration(sessionId, null);
+        }
+        return new Registration(sessionId, entry);
+    }
+
+    /**
+     * 停止会话的流；本节点没有该会话时由持有它的节点通过订阅处理
+     */
     public void cancelStream(String sessionId) {
-        Sinks.Empty<Void> sink = cancelSignals.get(sessionId);
-        if (sink != null) {
-            sink.emitEmpty(Sinks.EmitFailureHandler.FAIL_FAST);
-            cancelSignals.remove(sessionId);
+        cancelLocal(sessionId);
+        if (properties.isClusterEnabled()) {
+            redisPubSubService.publish(properties.getChannel(), redisPubSubService.getNodeId() + SEPARATOR + sessionId);
+        }
+    }
+
+    public int getActiveCount() {
+        return cancelSignals.size();
+    }
+
+    private void onRemoteCancel(String message) {
+        int index = message.indexOf(SEPARATOR);
+        if (index < 0) {
+            return;
+        }
+        // 本节点发出的停止请求已在本地处理
+        if (message.substring(0, index).equals(redisPubSubService.getNodeId())) {
+            return;
+        }
+        cancelLocal(message.substring(index + 1));
+    }
+
+    private void cancelLocal(String sessionId) {
+        Entry entry = cancelSignals.remove(sessionId);
+        if (entry != null) {
+            entry.sink.tryEmitEmpty();
+            logger.info("Cancelled stream for session: {}", sessionId);
+        }
+    }
+
+    private void release(String sessionId, Entry entry) {
+        cancelSignals.computeIfPresent(sessionId, (key, existing) -> {
+            // 已被停止并重新登记的会话不受旧句柄影响
+            if (existing != entry) {
+                return existing;
+            }
+            return --existing.refCount > 0 ? existing : null;
+        });
+    }
+
+    private static final class Entry {
+        private final Sinks.Empty<Void> sink = Sinks.empty();
+        // 同一会话可能同时有多个流，只在compute内修改
+        private int refCount;
+    }
+
+    /**
+     * 流的停止登记句柄，release幂等
+     */
+    public final class Registration {
+
+        private final String sessionId;
+        private final Entry entry;
+        private boolean released;
+
+        private Registration(String sessionId, Entry entry) {
+            this.sessionId = sessionId;
+            this.entry = entry;
+        }
+
+        public Mono<Void> cancelSignal() {
+            return entry != null ? entry.sink.asMono() : Mono.never();
+        }
+
+        public synchronized void release() {
+            if (released || entry == null) {
+                return;
+            }
+            released = true;
+            StreamControlService.this.release(sessionId, entry);
         }
     }
-} 
\ No newline at end of file
+}
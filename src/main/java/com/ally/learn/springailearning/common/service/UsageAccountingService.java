@@ -0,0 +1,246 @@
+package com.ally.learn.springailearning.common.service;
+
+import com.ally.learn.springailearning.common.advisor.ChatContextKeys;
+import com.ally.learn.springailearning.common.advisor.StreamCompletionListener;
+import com.ally.learn.springailearning.common.config.UsageAccountingProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.resps.Tuple;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author cgl
+ * @description token用量统计：流结束时把聚合后的usage累加到按（会话、知识库、模型）分组的LongAdder计数器，
+ * 不加锁也不做IO；定时任务把增量批量刷入Redis（按会话、知识库、模型分别汇总的Hash，以及用于排行的ZSet），
+ * 查询接口读取Redis中的汇总结果，最多滞后一个刷新间隔。排行ZSet每次刷新后只保留前N名，长尾会话不会无限累积
+ * @date 2025-06-19
+ * @Version 1.0
+ **/
+@Service
+public class UsageAccountingService implements StreamCompletionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(UsageAccountingService.class);
+
+    private static final String USAGE_KEY_PREFIX = "chat:usage:";
+    private static final String RANK_KEY_PREFIX = "chat:usage:rank:";
+    private static final String UNKNOWN = "unknown";
+    private static final String NONE = "none";
+
+    public static final String DIMENSION_SESSION = "session";
+    public static final String DIMENSION_KNOWLEDGE_BASE = "kb";
+    public static final String DIMENSION_MODEL = "model";
+
+    public static final String FIELD_REQUESTS = "requests";
+    public static final String FIELD_PROMPT = "prompt";
+    public static final String FIELD_COMPLETION = "completion";
+    public static final String FIELD_TOTAL = "total";
+
+    // 有排行的维度和指标，与flush中写入的ZSet一致
+    private static final Set<String> RANK_DIMENSIONS = Set.of(DIMENSION_SESSION, DIMENSION_KNOWLEDGE_BASE);
+    private static final Set<String> RANK_METRICS = Set.of(FIELD_PROMPT, FIELD_TOTAL);
+
+    private final JedisPool jedisPool;
+    private final UsageAccountingProperties properties;
+    private final ConcurrentHashMap<UsageKey, Counters> counters = new ConcurrentHashMap<>();
+
+    public UsageAccountingService(JedisPool jedisPool, UsageAccountingProperties properties) {
+        this.jedisPool = jedisPool;
+        this.properties = properties;
+    }
+
+    @Override
+    public void onStreamComplete(ChatClientResponse aggregatedResponse) {
+        if (!properties.isEnabled() || aggregatedResponse.chatResponse() == null) {
+            return;
+        }
+        ChatResponseMetadata metadata = aggregatedResponse.chatResponse().getMetadata();
+        Usage usage = metadata != null ? metadata.getUsage() : null;
+        if (usage == null) {
+            return;
+        }
+        Map<String, Object> context = aggregatedResponse.context();
+        UsageKey key = new UsageKey(
+                valueOrDefault(context.get(ChatMemory.CONVERSATION_ID), UNKNOWN),
+                valueOrDefault(context.get(ChatContextKeys.KNOWLEDGE_BASE_ID), NONE),
+                valueOrDefault(metadata.getModel(), UNKNOWN));
+        Counters keyCounters = counters.computeIfAbsent(key, k -> new Counters());
+        // 合并到其他请求的生成只计请求数，token已由发起请求计入
+        if (Boolean.TRUE.equals(context.get(ChatContextKeys.SINGLE_FLIGHT_FOLLOWER))) {
+            keyCounters.add(1, 0, 0, 0);
+            return;
+        }
+        keyCounters.add(1, toLong(usage.getPromptTokens()), toLong(usage.getCompletionTokens()), toLong(usage.getTotalTokens()));
+    }
+
+    /**
+     * 把内存中的增量批量刷入Redis，失败时把增量加回计数器，下次重试
+     */
+    @Scheduled(fixedDelayString = "${app.chat.usage.flush-interval:10s}")
+    public void flush() {
+        Map<UsageKey, long[]> deltas = drain();
+        if (deltas.isEmpty()) {
+            return;
+        }
+        long sessionTtlSeconds = properties.getSessionTtl().toSeconds();
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (Map.Entry<UsageKey, long[]> entry : deltas.entrySet()) {
+                UsageKey key = entry.getKey();
+                long[] delta = entry.getValue();
+                String sessionKey = usageKey(DIMENSION_SESSION, key.sessionId());
+                increment(pipeline, sessionKey, delta);
+                pipeline.expire(sessionKey, sessionTtlSeconds);
+                increment(pipeline, usageKey(DIMENSION_KNOWLEDGE_BASE, key.knowledgeBaseId()), delta);
+                increment(pipeline, usageKey(DIMENSION_MODEL, key.model()), delta);
+                // 排行：哪些会话、知识库消耗的prompt token最多
+                pipeline.zincrby(rankKey(DIMENSION_SESSION, FIELD_PROMPT), delta[1], key.sessionId());
+                pipeline.zincrby(rankKey(DIMENSION_KNOWLEDGE_BASE, FIELD_PROMPT), delta[1], key.knowledgeBaseId());
+                pipeline.zincrby(rankKey(DIMENSION_SESSION, FIELD_TOTAL), delta[3], key.sessionId());
+                pipeline.zincrby(rankKey(DIMENSION_KNOWLEDGE_BASE, FIELD_TOTAL), delta[3], key.knowledgeBaseId());
+            }
+            // 只保留排行前N名，分数最低的成员被移除；之后再有用量的会话从该次增量重新计分
+            long keepFrom = -(long) properties.getRankMaxSize() - 1;
+            for (String dimension : RANK_DIMENSIONS) {
+                for (String metric : RANK_METRICS) {
+                    pipeline.zremrangeByRank(rankKey(dimension, metric), 0, keepFrom);
+                }
+            }
+            pipeline.sync();
+            logger.debug("Flushed usage for {} keys", deltas.size());
+        } catch (Exception e) {
+            logger.error("Error flushing usage, will retry next interval", e);
+            deltas.forEach((key, delta) -> counters.computeIfAbsent(key, k -> new Counters())
+                    .add(delta[0], delta[1], delta[2], delta[3]));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * 查询某个维度（session/kb/model）下指定ID的累计用量
+     */
+    public Map<String, Long> getUsage(String dimension, String id) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            Map<String, String> values = jedis.hgetAll(usageKey(dimension, id));
+            Map<String, Long> usage = new LinkedHashMap<>();
+            for (String field : List.of(FIELD_REQUESTS, FIELD_PROMPT, FIELD_COMPLETION, FIELD_TOTAL)) {
+                usage.put(field, Long.parseLong(values.getOrDefault(field, "0")));
+            }
+            return usage;
+        }
+    }
+
+    /**
+     * 按用量倒序列出会话或知识库
+     * @param dimension session或kb
+     * @param metric prompt或total
+     */
+    public List<Map<String, Object>> getTop(String dimension, String metric, int limit) {
+        if (!RANK_DIMENSIONS.contains(dimension)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "不支持的排行维度: " + dimension);
+        }
+        if (!RANK_METRICS.contains(metric)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "不支持的排行指标: " + metric);
+        }
+        int size = Math.max(1, Math.min(limit, properties.getRankMaxSize()));
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<Tuple> tuples = jedis.zrevrangeWithScores(rankKey(dimension, metric), 0, size - 1);
+            List<Map<String, Object>> result = new ArrayList<>(tuples.size());
+            for (Tuple tuple : tuples) {
+                Map<String, Object> item = new HashMap<>();
+                item.put("id", tuple.getElement());
+                item.put(metric, (long) tuple.getScore());
+                result.add(item);
+            }
+            return result;
+        }
+    }
+
+    private Map<UsageKey, long[]> drain() {
+        Map<UsageKey, long[]> deltas = new HashMap<>();
+        for (Map.Entry<UsageKey, Counters> entry : counters.entrySet()) {
+            long[] delta = entry.getValue().sumThenReset();
+            if (delta[0] > 0) {
+                deltas.put(entry.getKey(), delta);
+                continue;
+            }
+            // 一个周期内没有新用量的分组移除；移除后再检查一次，把并发写入的增量放回
+            if (counters.remove(entry.getKey(), entry.getValue())) {
+                long[] late = entry.getValue().sumThenReset();
+                if (late[0] > 0) {
+                    deltas.put(entry.getKey(), late);
+                }
+            }
+        }
+        return deltas;
+    }
+
+    private void increment(Pipeline pipeline, String key, long[] delta) {
+        pipeline.hincrBy(key, FIELD_REQUESTS, delta[0]);
+        pipeline.hincrBy(key, FIELD_PROMPT, delta[1]);
+        pipeline.hincrBy(key, FIELD_COMPLETION, delta[2]);
+        pipeline.hincrBy(key, FIELD_TOTAL, delta[3]);
+    }
+
+    private static String usageKey(String dimension, String id) {
+        return USAGE_KEY_PREFIX + dimension + ":" + id;
+    }
+
+    private static String rankKey(String dimension, String metric) {
+        return RANK_KEY_PREFIX + dimension + ":" + metric;
+    }
+
+    private static String valueOrDefault(Object value, String defaultValue) {
+        return value != null && StringUtils.hasText(value.toString()) ? value.toString() : defaultValue;
+    }
+
+    private static long toLong(Integer value) {
+        return value != null ? value : 0;
+    }
+
+    private record UsageKey(String sessionId, String knowledgeBaseId, String model) {}
+
+    private static final class Counters {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder promptTokens = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        private final LongAdder totalTokens = new LongAdder();
+
+        private void add(long requestCount, long prompt, long completion, long total) {
+            promptTokens.add(prompt);
+            completionTokens.add(completion);
+            totalTokens.add(total);
+            // 最后累加请求数，drain以请求数判断是否有增量
+            requests.add(requestCount);
+        }
+
+        private long[] sumThenReset() {
+            return new long[]{requests.sumThenReset(), promptTokens.sumThenReset(),
+                    completionTokens.sumThenReset(), totalTokens.sumThenReset()};
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.ally.learn.springailearning.rag.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * @author cgl
+ * @description 知识库检索配置
+ * @date 2025-06-20
+ * @Version 1.0
+ **/
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.rag")
+public class RagProperties {
+
+    private int defaultTopK = 5;
+    private double defaultThreshold = 0.7;
+    // 检索（问题嵌入+向量检索）超时时间，超时后不带参考资料继续生成
+    private Duration retrievalTimeout = Duration.ofSeconds(3);
+    // 是否在记忆加载前预取检索结果
+    private boolean prefetchEnabled = true;
+}
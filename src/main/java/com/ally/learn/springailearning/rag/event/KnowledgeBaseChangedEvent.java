@@ -0,0 +1,10 @@
+package com.ally.learn.springailearning.rag.event;
+
+/**
+ * @author cgl
+ * @description 知识库内容变更事件（文档新增、删除或知识库删除），用于失效依赖知识库内容的缓存
+ * @date 2025-06-17
+ * @Version 1.0
+ **/
+public record KnowledgeBaseChangedEvent(String knowledgeBaseId) {
+}
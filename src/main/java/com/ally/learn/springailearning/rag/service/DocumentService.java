@@ -1,6 +1,8 @@
 package com.ally.learn.springailearning.rag.service;
 
+import com.ally.learn.springailearning.common.config.ExecutionSchedulers;
 import com.ally.learn.springailearning.rag.entity.DocumentInfo;
+import com.ally.learn.springailearning.rag.event.KnowledgeBaseChangedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
@@ -9,10 +11,12 @@ import org.springframework.ai.reader.pdf.PagePdfDocumentReader;
 import org.springframework.ai.reader.tika.TikaDocumentReader;
 import org.springframework.ai.transformer.splitter.TextSplitter;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.scheduler.Scheduler;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -36,15 +40,21 @@ public class DocumentService {
     private static final Logger logger = LoggerFactory.getLogger(DocumentService.class);
     
     private final KnowledgeBaseService knowledgeBaseService;
+    private final ApplicationEventPublisher eventPublisher;
     private final TextSplitter textSplitter;
+    // 文档解析与入库的执行调度器（boundedElastic或虚拟线程）
+    private final Scheduler ingestionScheduler;
     // 简单的内存存储，实际应用中应该使用数据库
     private final Map<String, DocumentInfo> documentMap = new ConcurrentHashMap<>();
     
     // 文件存储路径
     private final String uploadPath = "uploads/documents/";
 
-    public DocumentService(KnowledgeBaseService knowledgeBaseService) {
+    public DocumentService(KnowledgeBaseService knowledgeBaseService, ApplicationEventPublisher eventPublisher,
+                           ExecutionSchedulers executionSchedulers) {
         this.knowledgeBaseService = knowledgeBaseService;
+        this.eventPublisher = eventPublisher;
+        this.ingestionScheduler = executionSchedulers.scheduler(ExecutionSchedulers.Path.INGESTION);
         this.textSplitter = new TokenTextSplitter();
         
         // 创建上传目录
@@ -100,8 +110,7 @@ public class DocumentService {
      * 异步处理文档
      */
     private void processDocumentAsync(DocumentInfo documentInfo) {
-        // 在实际应用中，这里应该使用异步任务队列
-        new Thread(() -> {
+        ingestionScheduler.schedule(() -> {
             try {
                 documentInfo.setStatus("PROCESSING");
                 documentInfo.setProcessTime(LocalDateTime.now());
@@ -127,7 +136,7 @@ public class DocumentService {
                 
                 logger.error("Failed to process document: {}", documentInfo.getName(), e);
             }
-        }).start();
+        });
     }
 
     /**
@@ -195,6 +204,7 @@ public class DocumentService {
             // 删除文件
             Files.deleteIfExists(Paths.get(documentInfo.getFilePath()));
             documentMap.remove(documentId);
+            eventPublisher.publishEvent(new KnowledgeBaseChangedEvent(documentInfo.getKnowledgeBaseId()));
             
             logger.info("Deleted document: {}", documentInfo.getName());
             // 注意：这里不再直接删除向量数据，因为当知识库删除时会统一清理
@@ -2,11 +2,13 @@ package com.ally.learn.springailearning.rag.service;
 
 import com.ally.learn.springailearning.rag.dto.KnowledgeBaseRequest;
 import com.ally.learn.springailearning.rag.entity.KnowledgeBase;
+import com.ally.learn.springailearning.rag.event.KnowledgeBaseChangedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
@@ -28,11 +30,14 @@ public class KnowledgeBaseService {
     private static final Logger logger = LoggerFactory.getLogger(KnowledgeBaseService.class);
 
     private final WeaviateVectorStoreFactory vectorStoreFactory;
+    private final ApplicationEventPublisher eventPublisher;
     // 简单的内存存储，实际应用中应该使用数据库
     private final Map<String, KnowledgeBase> knowledgeBaseMap = new ConcurrentHashMap<>();
 
-    public KnowledgeBaseService(WeaviateVectorStoreFactory vectorStoreFactory) {
+    public KnowledgeBaseService(WeaviateVectorStoreFactory vectorStoreFactory,
+                                ApplicationEventPublisher eventPublisher) {
         this.vectorStoreFactory = vectorStoreFactory;
+        this.eventPublisher = eventPublisher;
     }
 
     /**
@@ -109,6 +114,7 @@ public class KnowledgeBaseService {
             
             // 删除整个Weaviate class和向量存储实例
             vectorStoreFactory.deleteVectorStore(id);
+            eventPublisher.publishEvent(new KnowledgeBaseChangedEvent(id));
             
             logger.info("Deleted knowledge base: {} with ID: {} (Weaviate class deleted)", 
                     knowledgeBase.getName(), knowledgeBase.getId());
@@ -139,6 +145,7 @@ public class KnowledgeBaseService {
             knowledgeBase.setDocumentCount(knowledgeBase.getDocumentCount() + documents.size());
             knowledgeBase.setUpdateTime(LocalDateTime.now());
             knowledgeBaseMap.put(knowledgeBaseId, knowledgeBase);
+            eventPublisher.publishEvent(new KnowledgeBaseChangedEvent(knowledgeBaseId));
 
             logger.info("Added {} documents to knowledge base: {} (className: {})", 
                     documents.size(), knowledgeBase.getName(), knowledgeBaseId);
@@ -0,0 +1,131 @@
+package com.ally.learn.springailearning.chat.service;
+
+import com.ally.learn.springailearning.chat.config.ChatStreamProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.deepseek.DeepSeekAssistantMessage;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatStreamCoalescerTest {
+
+    private static final Duration LONG_WINDOW = Duration.ofSeconds(10);
+
+    private final ChatStreamCoalescer coalescer = new ChatStreamCoalescer(new ChatStreamProperties());
+
+    @Test
+    void sendsTheFirstDeltaImmediatelyAndMergesTheRest() {
+        Flux<ChatResponse> source = Flux.just(text("Hel"), text("lo"), text(", "), text("world"));
+
+        List<String> frames = texts(coalescer.coalesce(source, LONG_WINDOW, 1024));
+
+        assertThat(frames).containsExactly("Hel", "lo, world");
+    }
+
+    @Test
+    void passesLeadingEmptyDeltasThroughWithoutConsumingTheFirstFrame() {
+        // 只带角色的首帧没有内容，之后第一个有内容的增量仍应立即发送
+        Flux<ChatResponse> source = Flux.just(text(""), text("Hi"), text(" there"), text("!"));
+
+        List<String> frames = texts(coalescer.coalesce(source, LONG_WINDOW, 1024));
+
+        assertThat(frames).containsExactly("", "Hi", " there!");
+    }
+
+    @Test
+    void flushesWhenThePendingBytesReachTheLimit() {
+        Flux<ChatResponse> source = Flux.just(text("a"), text("bb"), text("cc"), text("d"));
+
+        List<String> frames = texts(coalescer.coalesce(source, LONG_WINDOW, 4));
+
+        assertThat(frames).containsExactly("a", "bbcc", "d");
+    }
+
+    @Test
+    void countsMultiByteCharactersInUtf8Bytes() {
+        // 每个汉字3字节，两个汉字即达到6字节上限
+        Flux<ChatResponse> source = Flux.just(text("你"), text("好"), text("世"), text("界"));
+
+        List<String> frames = texts(coalescer.coalesce(source, LONG_WINDOW, 6));
+
+        assertThat(frames).containsExactly("你", "好世", "界");
+    }
+
+    @Test
+    void flushesWhenTheWindowElapses() {
+        Flux<ChatResponse> source = Flux.concat(Flux.just(text("a"), text("b"), text("c")), Flux.never());
+
+        StepVerifier.create(coalescer.coalesce(source, Duration.ofMillis(20), 1024).map(ChatStreamCoalescerTest::text))
+                .expectNext("a")
+                .expectNext("bc")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void keepsASinglePendingDeltaAsIs() {
+        ChatResponse second = text("b");
+
+        List<ChatResponse> frames = coalescer.coalesce(Flux.just(text("a"), second), LONG_WINDOW, 1024)
+                .collectList()
+                .block();
+
+        assertThat(frames).hasSize(2);
+        assertThat(frames.get(1)).isSameAs(second);
+    }
+
+    @Test
+    void mergesReasoningSeparatelyFromText() {
+        Flux<ChatResponse> source = Flux.just(reasoning("think"), reasoning("ing"), reasoning("..."), text("ok"));
+
+        List<ChatResponse> frames = coalescer.coalesce(source, LONG_WINDOW, 1024).collectList().block();
+
+        assertThat(frames).hasSize(2);
+        AssistantMessage merged = frames.get(1).getResult().getOutput();
+        assertThat(merged).isInstanceOf(DeepSeekAssistantMessage.class);
+        assertThat(((DeepSeekAssistantMessage) merged).getReasoningContent()).isEqualTo("ing...");
+        assertThat(merged.getText()).isEqualTo("ok");
+    }
+
+    @Test
+    void flushesPendingDeltasBeforeAnError() {
+        Flux<ChatResponse> source = Flux.concat(Flux.just(text("a"), text("b")),
+                Flux.error(new IllegalStateException("upstream closed")));
+
+        StepVerifier.create(coalescer.coalesce(source, LONG_WINDOW, 1024).map(ChatStreamCoalescerTest::text))
+                .expectNext("a", "b")
+                .verifyError(IllegalStateException.class);
+    }
+
+    @Test
+    void returnsTheSourceWhenDisabled() {
+        ChatStreamProperties properties = new ChatStreamProperties();
+        properties.getCoalesce().setEnabled(false);
+        Flux<ChatResponse> source = Flux.just(text("a"));
+
+        assertThat(new ChatStreamCoalescer(properties).coalesce(source)).isSameAs(source);
+    }
+
+    private static List<String> texts(Flux<ChatResponse> frames) {
+        return frames.map(ChatStreamCoalescerTest::text).collectList().block();
+    }
+
+    private static String text(ChatResponse chatResponse) {
+        return chatResponse.getResult().getOutput().getText();
+    }
+
+    private static ChatResponse text(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static ChatResponse reasoning(String reasoning) {
+        return new ChatResponse(List.of(new Generation(new DeepSeekAssistantMessage("", reasoning))));
+    }
+}
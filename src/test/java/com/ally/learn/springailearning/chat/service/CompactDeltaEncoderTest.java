@@ -0,0 +1,68 @@
+package com.ally.learn.springailearning.chat.service;
+
+import com.ally.learn.springailearning.common.config.MessageAggregator;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.deepseek.DeepSeekAssistantMessage;
+import org.springframework.http.codec.ServerSentEvent;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompactDeltaEncoderTest {
+
+    private final CompactDeltaEncoder encoder = new CompactDeltaEncoder();
+
+    @Test
+    void encodesTextAndReasoningDeltas() {
+        ServerSentEvent<String> event = encoder.encode(
+                new ChatResponse(List.of(new Generation(new DeepSeekAssistantMessage("answer", "thought")))), "7");
+
+        assertThat(event.id()).isEqualTo("7");
+        assertThat(event.event()).isEqualTo(CompactDeltaEncoder.DELTA_EVENT);
+        assertThat(event.data()).isEqualTo("{\"d\":\"answer\",\"r\":\"thought\"}");
+    }
+
+    @Test
+    void escapesJsonSpecialCharacters() {
+        ServerSentEvent<String> event = encoder.encode(text("say \"hi\"\\\n\t\u0001"), null);
+
+        assertThat(event.data()).isEqualTo("{\"d\":\"say \\\"hi\\\"\\\\\\n\\t\\u0001\"}");
+    }
+
+    @Test
+    void encodesFinishReasonAndUsage() {
+        ChatResponse chatResponse = new ChatResponse(
+                List.of(new Generation(new AssistantMessage(""),
+                        ChatGenerationMetadata.builder().finishReason("STOP").build())),
+                ChatResponseMetadata.builder().usage(new MessageAggregator.DefaultUsage(12, 34, 46)).build());
+
+        ServerSentEvent<String> event = encoder.encode(chatResponse, "8");
+
+        assertThat(event.event()).isEqualTo(CompactDeltaEncoder.FINISH_EVENT);
+        assertThat(event.data()).isEqualTo("{\"f\":\"STOP\",\"u\":{\"p\":12,\"c\":34,\"t\":46}}");
+    }
+
+    @Test
+    void skipsResponsesWithoutAnyDelta() {
+        assertThat(encoder.encode(text(""), "1")).isNull();
+    }
+
+    @Test
+    void encodesGapsWithoutAnId() {
+        ServerSentEvent<String> event = encoder.encodeGap(5);
+
+        assertThat(event.id()).isNull();
+        assertThat(event.event()).isEqualTo(CompactDeltaEncoder.GAP_EVENT);
+        assertThat(event.data()).isEqualTo("{\"m\":5}");
+    }
+
+    private static ChatResponse text(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+}
@@ -0,0 +1,128 @@
+package com.ally.learn.springailearning.common.advisor;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.ally.learn.springailearning.common.config.StreamControlProperties;
+import com.ally.learn.springailearning.common.service.StreamControlService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StreamControlAdvisor快速路径与publishOn路径的每token开销：同时运行1000个流，上游在少量事件循环线程上发射，
+ * 结果按token折算（OperationsPerInvocation）。publishOn路径每个流都要经过队列并在另一个线程上消费，
+ * 每轮迭代结束时打印JVM峰值线程数，线程切换次数可配合-prof perfnorm（Linux）查看。
+ * 运行：mvn -Pbenchmark test-compile exec:exec -Djmh.args="StreamControlAdvisorBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StreamControlAdvisorBenchmark {
+
+    private static final int STREAMS = 1000;
+    private static final int TOKENS = 200;
+
+    @Param({"true", "false"})
+    private boolean fastPath;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    // 模拟HTTP客户端的事件循环线程
+    private Scheduler upstream;
+    private StreamControlAdvisor advisor;
+    private List<ChatClientRequest> requests;
+    private List<ChatClientResponse> tokens;
+
+    @Setup
+    public void setUp() {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        StreamControlProperties properties = new StreamControlProperties();
+        properties.setClusterEnabled(false);
+        properties.setMaxEntries(STREAMS * 2);
+        upstream = Schedulers.newParallel("upstream", 4);
+        advisor = StreamControlAdvisor.builder(new StreamControlService(properties, null))
+                .fastPath(fastPath)
+                .build();
+        requests = new ArrayList<>(STREAMS);
+        for (int i = 0; i < STREAMS; i++) {
+            requests.add(ChatClientRequest.builder()
+                    .prompt(new Prompt("hi"))
+                    .context(Map.of(ChatMemory.CONVERSATION_ID, "session-" + i))
+                    .build());
+        }
+        tokens = new ArrayList<>(TOKENS);
+        for (int i = 0; i < TOKENS; i++) {
+            tokens.add(ChatClientResponse.builder()
+                    .chatResponse(new ChatResponse(List.of(new Generation(new AssistantMessage("token" + i)))))
+                    .context(Map.of())
+                    .build());
+        }
+        threads.resetPeakThreadCount();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%nfastPath=%s peak threads: %d%n", fastPath, threads.getPeakThreadCount());
+        upstream.dispose();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAMS * TOKENS)
+    public void streamTokens() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(STREAMS);
+        StreamAdvisorChain chain = new UpstreamChain();
+        for (ChatClientRequest request : requests) {
+            advisor.adviseStream(request, chain).subscribe(response -> {
+            }, error -> done.countDown(), done::countDown);
+        }
+        if (!done.await(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Streams did not complete");
+        }
+    }
+
+    private final class UpstreamChain implements StreamAdvisorChain {
+
+        @Override
+        public Flux<ChatClientResponse> nextStream(ChatClientRequest chatClientRequest) {
+            return Flux.fromIterable(tokens).subscribeOn(upstream);
+        }
+
+        @Override
+        public List<StreamAdvisor> getStreamAdvisors() {
+            return List.of();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.ally.learn.springailearning.common.config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * chat执行路径在并发阻塞调用下的表现：每个JMH线程模拟一个请求，把一次耗时固定的上游调用交给调度器执行并等待结果。
+ * boundedElastic的线程数上限为CPU核数的10倍，并发超过上限后请求排队，p99延迟随并发上升；
+ * 虚拟线程每个任务一个线程，延迟接近上游耗时。SampleTime模式输出p50/p99等分位数，
+ * 每轮迭代结束时打印JVM峰值平台线程数（包含JMH自身的请求线程）。虚拟线程需要Java 21+，低版本运行时两种模式都回退到boundedElastic。
+ * 运行：mvn -Pbenchmark test-compile exec:exec -Djmh.args="ExecutionSchedulersBenchmark -t 500"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(200)
+@Fork(1)
+public class ExecutionSchedulersBenchmark {
+
+    @Param({"BOUNDED_ELASTIC", "VIRTUAL"})
+    private ExecutionProperties.Mode mode;
+
+    // 模拟的上游调用耗时
+    @Param({"50"})
+    private long upstreamMillis;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private ExecutionSchedulers executionSchedulers;
+    private Scheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ExecutionProperties properties = new ExecutionProperties();
+        properties.setChat(mode);
+        executionSchedulers = new ExecutionSchedulers(properties);
+        scheduler = executionSchedulers.scheduler(ExecutionSchedulers.Path.CHAT);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeakThreads() {
+        threads.resetPeakThreadCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportPeakThreads() {
+        System.out.printf("%n%s peak platform threads: %d%n", mode, threads.getPeakThreadCount());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executionSchedulers.dispose();
+    }
+
+    @Benchmark
+    public String blockingCall() {
+        return Mono.fromCallable(() -> {
+                    Thread.sleep(upstreamMillis);
+                    return "ok";
+                })
+                .subscribeOn(scheduler)
+                .block();
+    }
+}
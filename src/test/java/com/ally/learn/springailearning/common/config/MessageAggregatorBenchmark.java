@@ -0,0 +1,79 @@
+package com.ally.learn.springailearning.common.config;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.deepseek.DeepSeekAssistantMessage;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个流式响应的聚合开销：纯文本流和先推理后回答的DeepSeek流，每个chunk携带与真实流相同的元数据。
+ * 运行：mvn -Pbenchmark test-compile exec:exec -Djmh.args="MessageAggregatorBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageAggregatorBenchmark {
+
+    @Param({"100", "1000"})
+    private int chunks;
+
+    @Param({"text", "reasoning"})
+    private String stream;
+
+    private final MessageAggregator aggregator = new MessageAggregator();
+    private List<ChatResponse> responses;
+
+    @Setup
+    public void setUp() {
+        // 没有Spring Boot的日志配置时Logback默认输出DEBUG，每个流的结束日志会淹没聚合本身的开销
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        Map<String, Object> messageMetadata = Map.of("id", "chatcmpl-1", "role", "ASSISTANT", "finishReason", "");
+        ChatResponseMetadata responseMetadata = ChatResponseMetadata.builder()
+                .id("chatcmpl-1")
+                .model("deepseek-reasoner")
+                .build();
+        responses = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            AssistantMessage message;
+            if ("reasoning".equals(stream) && i < chunks / 2) {
+                DeepSeekAssistantMessage deepSeekMessage = new DeepSeekAssistantMessage("", messageMetadata);
+                deepSeekMessage.setReasoningContent("思考片段" + i);
+                message = deepSeekMessage;
+            } else {
+                message = new AssistantMessage("token " + i, messageMetadata);
+            }
+            responses.add(new ChatResponse(List.of(new Generation(message)), responseMetadata));
+        }
+    }
+
+    @Benchmark
+    public void aggregate(Blackhole blackhole) {
+        aggregator.aggregate(Flux.fromIterable(responses), blackhole::consume)
+                .subscribe(blackhole::consume);
+    }
+}
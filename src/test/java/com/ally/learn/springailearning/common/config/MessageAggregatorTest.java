@@ -0,0 +1,162 @@
+package com.ally.learn.springailearning.common.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.deepseek.DeepSeekAssistantMessage;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageAggregatorTest {
+
+    private final MessageAggregator aggregator = new MessageAggregator();
+
+    @Test
+    void aggregatesTextUsageAndResponseMetadata() {
+        List<ChatResponse> aggregated = new ArrayList<>();
+        ChatResponse last = new ChatResponse(
+                List.of(new Generation(new AssistantMessage("!"),
+                        ChatGenerationMetadata.builder().finishReason("STOP").build())),
+                ChatResponseMetadata.builder()
+                        .id("chat-1")
+                        .model("deepseek-chat")
+                        .usage(new MessageAggregator.DefaultUsage(12, 3, 15))
+                        .build());
+
+        StepVerifier.create(aggregator.aggregate(Flux.just(text("Hello"), text(", world"), last), aggregated::add))
+                .expectNextCount(3)
+                .verifyComplete();
+
+        assertThat(aggregated).hasSize(1);
+        ChatResponse response = aggregated.get(0);
+        assertThat(response.getResult().getOutput().getText()).isEqualTo("Hello, world!");
+        assertThat(response.getResult().getOutput()).isNotInstanceOf(DeepSeekAssistantMessage.class);
+        assertThat(response.getResult().getMetadata().getFinishReason()).isEqualTo("STOP");
+        assertThat(response.getMetadata().getId()).isEqualTo("chat-1");
+        assertThat(response.getMetadata().getModel()).isEqualTo("deepseek-chat");
+        assertThat(response.getMetadata().getUsage().getPromptTokens()).isEqualTo(12);
+        assertThat(response.getMetadata().getUsage().getCompletionTokens()).isEqualTo(3);
+        assertThat(response.getMetadata().getUsage().getTotalTokens()).isEqualTo(15);
+    }
+
+    @Test
+    void aggregatesDeepSeekReasoningSeparatelyFromText() {
+        List<ChatResponse> aggregated = new ArrayList<>();
+
+        StepVerifier.create(aggregator.aggregate(
+                        Flux.just(reasoning("Let me "), reasoning("think."), text("Answer"), text(" done")),
+                        aggregated::add))
+                .expectNextCount(4)
+                .verifyComplete();
+
+        assertThat(aggregated).hasSize(1);
+        AssistantMessage output = aggregated.get(0).getResult().getOutput();
+        assertThat(output).isInstanceOf(DeepSeekAssistantMessage.class);
+        assertThat(((DeepSeekAssistantMessage) output).getReasoningContent()).isEqualTo("Let me think.");
+        assertThat(output.getText()).isEqualTo("Answer done");
+    }
+
+    @Test
+    void mergesMessageMetadataAcrossChunks() {
+        List<ChatResponse> aggregated = new ArrayList<>();
+        ChatResponse first = response(new AssistantMessage("a", Map.of("id", "m1")));
+        ChatResponse second = response(new AssistantMessage("b", Map.of("id", "m1", "role", "assistant")));
+
+        aggregator.aggregate(Flux.just(first, second), aggregated::add).blockLast();
+
+        assertThat(aggregated.get(0).getResult().getOutput().getMetadata())
+                .containsEntry("id", "m1")
+                .containsEntry("role", "assistant");
+    }
+
+    @Test
+    void resubscriptionStartsFromAFreshAccumulator() {
+        List<ChatResponse> aggregated = new ArrayList<>();
+        Flux<ChatResponse> stream = aggregator.aggregate(Flux.just(text("a"), text("b")), aggregated::add);
+
+        stream.blockLast();
+        stream.blockLast();
+
+        assertThat(aggregated).hasSize(2);
+        assertThat(aggregated).allSatisfy(response -> assertThat(response.getResult().getOutput().getText())
+                .isEqualTo("ab"));
+    }
+
+    @Test
+    void cancellationReportsPartialContentOnce() {
+        List<ChatResponse> aggregated = new ArrayList<>();
+        Sinks.Many<ChatResponse> source = Sinks.many().unicast().onBackpressureBuffer();
+
+        StepVerifier.create(aggregator.aggregate(source.asFlux(), aggregated::add))
+                .then(() -> source.tryEmitNext(text("partial")))
+                .expectNextCount(1)
+                .thenCancel()
+                .verify();
+
+        assertThat(aggregated).hasSize(1);
+        assertThat(aggregated.get(0).getResult().getOutput().getText()).isEqualTo("partial");
+    }
+
+    @Test
+    void cancellationWithoutContentReportsNothing() {
+        List<ChatResponse> aggregated = new ArrayList<>();
+
+        StepVerifier.create(aggregator.aggregate(Flux.never(), aggregated::add))
+                .thenCancel()
+                .verify();
+
+        assertThat(aggregated).isEmpty();
+    }
+
+    @Test
+    void errorReportsPartialContent() {
+        List<ChatResponse> aggregated = new ArrayList<>();
+        Flux<ChatResponse> source = Flux.concat(Flux.just(text("partial")),
+                Flux.error(new IllegalStateException("upstream closed")));
+
+        StepVerifier.create(aggregator.aggregate(source, aggregated::add))
+                .expectNextCount(1)
+                .verifyError(IllegalStateException.class);
+
+        assertThat(aggregated).hasSize(1);
+        assertThat(aggregated.get(0).getResult().getOutput().getText()).isEqualTo("partial");
+    }
+
+    @Test
+    void chatClientResponsesCarryTheLastContext() {
+        List<ChatClientResponse> aggregated = new ArrayList<>();
+        Flux<ChatClientResponse> source = Flux.just(
+                ChatClientResponse.builder().chatResponse(text("a")).context(Map.of("step", 1)).build(),
+                ChatClientResponse.builder().chatResponse(text("b")).context(Map.of("step", 2)).build());
+
+        aggregator.aggregateChatClientResponse(source, aggregated::add).blockLast();
+
+        assertThat(aggregated).hasSize(1);
+        assertThat(aggregated.get(0).chatResponse().getResult().getOutput().getText()).isEqualTo("ab");
+        assertThat(aggregated.get(0).context()).containsEntry("step", 2);
+    }
+
+    private static ChatResponse text(String text) {
+        return response(new AssistantMessage(text));
+    }
+
+    private static ChatResponse reasoning(String reasoning) {
+        DeepSeekAssistantMessage message = new DeepSeekAssistantMessage("", reasoning);
+        return response(message);
+    }
+
+    private static ChatResponse response(AssistantMessage message) {
+        return new ChatResponse(List.of(new Generation(message)));
+    }
+}
@@ -0,0 +1,121 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.deepseek.DeepSeekAssistantMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryChatMessageCodecTest {
+
+    private final BinaryChatMessageCodec codec = new BinaryChatMessageCodec(256);
+
+    @Test
+    void roundTripsEachMessageType() throws IOException {
+        for (Message message : List.of(
+                UserMessage.builder().text("你好，world").build(),
+                new AssistantMessage("answer"),
+                SystemMessage.builder().text("You are helpful.").build())) {
+            Message decoded = codec.decode(codec.encode(message));
+
+            assertThat(decoded.getMessageType()).isEqualTo(message.getMessageType());
+            assertThat(decoded.getText()).isEqualTo(message.getText());
+            assertThat(decoded.getMetadata()).isEqualTo(message.getMetadata());
+        }
+    }
+
+    @Test
+    void roundTripsTypedMetadataValues() throws IOException {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("string", "value");
+        metadata.put("int", -42);
+        metadata.put("long", Long.MAX_VALUE);
+        metadata.put("double", 0.25);
+        metadata.put("true", true);
+        metadata.put("false", false);
+        metadata.put(TokenEstimator.TOKEN_COUNT_METADATA, 17);
+        metadata.put("json", Map.of("nested", List.of(1, 2)));
+
+        Message decoded = codec.decode(codec.encode(new AssistantMessage("text", metadata)));
+
+        assertThat(decoded.getMetadata()).containsAllEntriesOf(metadata);
+        assertThat(decoded.getMetadata().get("int")).isInstanceOf(Integer.class);
+        assertThat(decoded.getMetadata().get("long")).isInstanceOf(Long.class);
+    }
+
+    @Test
+    void writesTheMessageTypeInTheHeader() throws IOException {
+        byte[] bytes = codec.encode(SystemMessage.builder().text("system").build());
+
+        assertThat(bytes[0]).isEqualTo(BinaryChatMessageCodec.MAGIC);
+        assertThat(bytes[1]).isEqualTo(BinaryChatMessageCodec.TYPE_SYSTEM);
+    }
+
+    @Test
+    void compressesLargeBodiesAndRoundTrips() throws IOException {
+        String text = "重复的内容 repeated content ".repeat(200);
+        UserMessage message = UserMessage.builder().text(text).build();
+
+        byte[] compressed = codec.encode(message);
+        byte[] uncompressed = new BinaryChatMessageCodec(0).encode(message);
+
+        assertThat(compressed[2] & 0x01).isEqualTo(1);
+        assertThat(compressed.length).isLessThan(uncompressed.length);
+        assertThat(codec.decode(compressed).getText()).isEqualTo(text);
+        // 不压缩的编码器也能读取压缩的数据
+        assertThat(new BinaryChatMessageCodec(0).decode(compressed).getText()).isEqualTo(text);
+    }
+
+    @Test
+    void leavesSmallBodiesUncompressed() throws IOException {
+        byte[] bytes = codec.encode(UserMessage.builder().text("short").build());
+
+        assertThat(bytes[2] & 0x01).isZero();
+    }
+
+    @Test
+    void storesDeepSeekMessagesAsPlainAssistantMessages() throws IOException {
+        DeepSeekAssistantMessage message = new DeepSeekAssistantMessage("answer", "reasoning");
+
+        Message decoded = codec.decode(codec.encode(message));
+
+        assertThat(decoded.getMessageType()).isEqualTo(MessageType.ASSISTANT);
+        assertThat(decoded).isExactlyInstanceOf(AssistantMessage.class);
+        assertThat(decoded.getText()).isEqualTo("answer");
+    }
+
+    @Test
+    void recognisesOnlyItsOwnFormat() throws IOException {
+        assertThat(codec.canDecode(codec.encode(new AssistantMessage("a")))).isTrue();
+        assertThat(codec.canDecode("{\"messageType\":\"USER\"}".getBytes(StandardCharsets.UTF_8))).isFalse();
+        assertThat(codec.canDecode(new byte[0])).isFalse();
+    }
+
+    @Test
+    void rejectsTruncatedInput() throws IOException {
+        byte[] bytes = codec.encode(UserMessage.builder().text("a longer message body").build());
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 5);
+
+        assertThatThrownBy(() -> codec.decode(truncated)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsTruncatedCompressedInput() throws IOException {
+        byte[] bytes = codec.encode(UserMessage.builder().text("abc".repeat(500)).build());
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length / 2);
+
+        assertThatThrownBy(() -> codec.decode(truncated)).isInstanceOf(IOException.class);
+    }
+}
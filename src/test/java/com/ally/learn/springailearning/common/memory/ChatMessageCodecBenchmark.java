@@ -0,0 +1,86 @@
+package com.ally.learn.springailearning.common.memory;
+
+import com.ally.learn.springailearning.common.config.ChatMemoryProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记忆存储两种编解码器的吞吐和序列化大小：短消息是典型的用户提问，长消息是带Markdown的多段回答，
+ * 都带有缓存的token数元数据。JSON编码器不压缩，compressionThreshold只影响二进制编码器，
+ * 0表示不压缩。每组参数的序列化字节数在初始化时打印。
+ * 运行：mvn -Pbenchmark test-compile exec:exec -Djmh.args="ChatMessageCodecBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatMessageCodecBenchmark {
+
+    @Param({"BINARY", "JSON"})
+    private ChatMemoryProperties.Codec codec;
+
+    @Param({"0", "1024"})
+    private int compressionThreshold;
+
+    @Param({"short", "long"})
+    private String payload;
+
+    private ChatMessageCodec messageCodec;
+    private Message message;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        messageCodec = codec == ChatMemoryProperties.Codec.JSON
+                ? new JsonChatMessageCodec()
+                : new BinaryChatMessageCodec(compressionThreshold);
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(TokenEstimator.TOKEN_COUNT_METADATA, 42);
+        if ("short".equals(payload)) {
+            message = UserMessage.builder()
+                    .text("帮我解释一下Redis的ZSET在排行榜场景下为什么比LIST合适？")
+                    .metadata(metadata)
+                    .build();
+        } else {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 20; i++) {
+                text.append("### 第").append(i + 1).append("点\n")
+                        .append("ZSET按分数有序存储，插入和更新的复杂度是O(log N)，")
+                        .append("按排名读取前N名只需要ZREVRANGE，不需要在客户端排序。")
+                        .append("`ZINCRBY leaderboard 10 user:").append(i).append("`\n\n");
+            }
+            message = new AssistantMessage(text.toString(), metadata);
+        }
+        encoded = messageCodec.encode(message);
+        System.out.printf("%ncodec=%s compressionThreshold=%d payload=%s text=%d chars encoded=%d bytes%n",
+                codec, compressionThreshold, payload, message.getText().length(), encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception {
+        return messageCodec.encode(message);
+    }
+
+    @Benchmark
+    public Message decode() throws Exception {
+        return messageCodec.decode(encoded);
+    }
+}
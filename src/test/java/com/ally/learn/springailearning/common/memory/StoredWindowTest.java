@@ -0,0 +1,69 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.deepseek.DeepSeekAssistantMessage;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StoredWindowTest {
+
+    @Test
+    void returnsTheSameListWithinTheLimit() {
+        List<Message> messages = List.of(user("u1"), assistant("a1"));
+
+        assertThat(StoredWindow.trim(messages, 2)).isSameAs(messages);
+    }
+
+    @Test
+    void dropsTheOldestMessagesBeyondTheLimit() {
+        List<Message> messages = List.of(user("u1"), assistant("a1"), user("u2"), assistant("a2"));
+
+        assertThat(texts(StoredWindow.trim(messages, 3))).containsExactly("a1", "u2", "a2");
+    }
+
+    @Test
+    void keepsALeadingSystemMessage() {
+        List<Message> messages = List.of(SystemMessage.builder().text("s").build(), user("u1"), assistant("a1"),
+                user("u2"), assistant("a2"));
+
+        assertThat(texts(StoredWindow.trim(messages, 3))).containsExactly("s", "u2", "a2");
+    }
+
+    @Test
+    void storesModelSpecificAssistantMessagesAsPlainOnes() {
+        DeepSeekAssistantMessage message = new DeepSeekAssistantMessage("answer", "reasoning");
+
+        Message stored = StoredWindow.asStored(message);
+
+        assertThat(stored).isExactlyInstanceOf(AssistantMessage.class);
+        assertThat(stored.getText()).isEqualTo("answer");
+    }
+
+    @Test
+    void leavesOtherMessagesUntouched() {
+        Message user = user("u");
+        Message assistant = new AssistantMessage("a", Map.of("k", "v"));
+
+        assertThat(StoredWindow.asStored(user)).isSameAs(user);
+        assertThat(StoredWindow.asStored(assistant)).isSameAs(assistant);
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+
+    private static Message user(String text) {
+        return UserMessage.builder().text(text).build();
+    }
+
+    private static Message assistant(String text) {
+        return new AssistantMessage(text);
+    }
+}
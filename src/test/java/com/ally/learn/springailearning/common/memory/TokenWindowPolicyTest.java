@@ -0,0 +1,113 @@
+package com.ally.learn.springailearning.common.memory;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenWindowPolicyTest {
+
+    private final TokenWindowPolicy policy = new TokenWindowPolicy(new TokenEstimator(), 100,
+            Map.of("large-model", 1000), 10);
+
+    @Test
+    void keepsTheNewestMessagesWithinTheTokenBudget() {
+        List<Message> messages = List.of(user("u1", 40), assistant("a1", 40), user("u2", 30), assistant("a2", 30));
+
+        assertThat(texts(policy.window(messages, null))).containsExactly("u2", "a2");
+    }
+
+    @Test
+    void usesTheBudgetOfTheRequestedModel() {
+        List<Message> messages = List.of(user("u1", 40), assistant("a1", 40), user("u2", 30), assistant("a2", 30));
+
+        assertThat(policy.window(messages, "large-model")).isSameAs(messages);
+        assertThat(texts(policy.window(messages, "unknown-model"))).containsExactly("u2", "a2");
+    }
+
+    @Test
+    void alwaysKeepsSystemMessagesAndChargesThemToTheBudget() {
+        List<Message> messages = List.of(system("s", 50), user("u1", 20), assistant("a1", 20), user("u2", 20),
+                assistant("a2", 20));
+
+        assertThat(texts(policy.window(messages, null))).containsExactly("s", "u2", "a2");
+    }
+
+    @Test
+    void keepsTheNewestMessageEvenWhenItExceedsTheBudget() {
+        List<Message> messages = List.of(user("u1", 10), assistant("a1", 500));
+
+        assertThat(texts(policy.window(messages, null))).containsExactly("a1");
+    }
+
+    @Test
+    void dropsAssistantRepliesLeftWithoutTheirQuestion() {
+        List<Message> messages = List.of(user("u1", 10), assistant("a1", 30), assistant("a2", 30), user("u2", 30),
+                assistant("a3", 30));
+
+        // 预算能放下a2、u2、a3，但窗口不能以助手消息开头
+        assertThat(texts(policy.window(messages, null))).containsExactly("u2", "a3");
+    }
+
+    @Test
+    void limitsTheNumberOfMessages() {
+        TokenWindowPolicy smallWindow = new TokenWindowPolicy(new TokenEstimator(), 1000, Map.of(), 3);
+        List<Message> messages = List.of(system("s", 1), user("u1", 1), assistant("a1", 1), user("u2", 1),
+                assistant("a2", 1));
+
+        assertThat(texts(smallWindow.window(messages, null))).containsExactly("s", "u2", "a2");
+    }
+
+    @Test
+    void mergeReplacesTheSystemMessageAndTrimsToTheLargestBudget() {
+        List<Message> stored = List.of(system("old", 10), user("u1", 300), assistant("a1", 300));
+        List<Message> added = List.of(system("new", 10), user("u2", 300), assistant("a2", 300));
+
+        // 存储按所有模型中最大的预算（1000）裁剪，放不下的最早一轮整体丢弃
+        assertThat(texts(policy.merge(stored, added))).containsExactly("new", "u2", "a2");
+    }
+
+    @Test
+    void prepareRecordsTheEstimatedTokenCount() {
+        List<Message> prepared = policy.prepare(List.of(UserMessage.builder().text("hello world").build()));
+
+        assertThat(prepared.get(0).getMetadata().get(TokenEstimator.TOKEN_COUNT_METADATA))
+                .isEqualTo(new TokenEstimator().estimate(prepared.get(0)));
+    }
+
+    @Test
+    void prepareKeepsAnExistingTokenCount() {
+        Message message = user("u", 7);
+
+        assertThat(policy.prepare(List.of(message)).get(0)).isSameAs(message);
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+
+    private static Message user(String text, int tokens) {
+        return UserMessage.builder().text(text).metadata(tokens(tokens)).build();
+    }
+
+    private static Message assistant(String text, int tokens) {
+        return new AssistantMessage(text, tokens(tokens));
+    }
+
+    private static Message system(String text, int tokens) {
+        return SystemMessage.builder().text(text).metadata(tokens(tokens)).build();
+    }
+
+    private static Map<String, Object> tokens(int tokens) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(TokenEstimator.TOKEN_COUNT_METADATA, tokens);
+        return metadata;
+    }
+}
@@ -0,0 +1,152 @@
+package com.ally.learn.springailearning.common.service;
+
+import com.ally.learn.springailearning.common.service.AdaptiveConcurrencyLimiter.Outcome;
+import com.ally.learn.springailearning.common.service.AdaptiveConcurrencyLimiter.Permit;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long FAST = Duration.ofMillis(100).toNanos();
+    private static final long SLOW = Duration.ofSeconds(5).toNanos();
+
+    @Test
+    void increasesTheLimitAdditivelyOnFastSuccess() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 1, 10);
+
+        // 2 + 1/2 + 1/2.5 + 1/2.9 ≈ 3.24
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire().block().release(Outcome.SUCCESS, FAST);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(3);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void neverGrowsBeyondTheMaximum() {
+        AdaptiveConcurrencyLimiter limiter = limiter(4, 1, 4);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire().block().release(Outcome.SUCCESS, FAST);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void backsOffMultiplicativelyWhenFirstTokenLatencyIsHigh() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 1, 20);
+
+        limiter.acquire().block().release(Outcome.SUCCESS, SLOW);
+
+        assertThat(limiter.getLimit()).isEqualTo(5);
+    }
+
+    @Test
+    void backsOffOnRateLimitDownToTheMinimum() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 3, 20);
+
+        limiter.acquire().block().release(Outcome.RATE_LIMITED, FAST);
+        assertThat(limiter.getLimit()).isEqualTo(5);
+
+        limiter.acquire().block().release(Outcome.RATE_LIMITED, FAST);
+        limiter.acquire().block().release(Outcome.RATE_LIMITED, FAST);
+        assertThat(limiter.getLimit()).isEqualTo(3);
+    }
+
+    @Test
+    void leavesTheLimitUnchangedOnErrorsAndCancellation() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 1, 20);
+
+        limiter.acquire().block().release(Outcome.ERROR, SLOW);
+        limiter.acquire().block().release(Outcome.IGNORED, SLOW);
+
+        assertThat(limiter.getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    void judgesNonStreamingCallsAgainstTheCallThreshold() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 1, 20);
+
+        // 5秒超过首token阈值，但在整体耗时阈值之内
+        limiter.acquire().block().releaseCall(Outcome.SUCCESS, SLOW);
+        assertThat(limiter.getLimit()).isEqualTo(10);
+
+        limiter.acquire().block().releaseCall(Outcome.SUCCESS, Duration.ofSeconds(90).toNanos());
+        assertThat(limiter.getLimit()).isEqualTo(5);
+    }
+
+    @Test
+    void releaseIsIdempotent() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 1, 20);
+        limiter.acquire().block();
+        Permit permit = limiter.acquire().block();
+
+        permit.release(Outcome.RATE_LIMITED, FAST);
+        permit.release(Outcome.RATE_LIMITED, FAST);
+        permit.releaseCall(Outcome.RATE_LIMITED, FAST);
+
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+        assertThat(limiter.getLimit()).isEqualTo(5);
+    }
+
+    @Test
+    void queuesBeyondTheLimitAndHandsOverOnRelease() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1);
+        Permit first = limiter.acquire().block();
+        AtomicReference<Permit> second = new AtomicReference<>();
+
+        Disposable waiting = limiter.acquire().subscribe(second::set);
+        assertThat(second.get()).isNull();
+        assertThat(limiter.getQueueDepth()).isEqualTo(1);
+
+        first.release(Outcome.SUCCESS, FAST);
+
+        assertThat(second.get()).isNotNull();
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+        assertThat(limiter.getQueueDepth()).isZero();
+        waiting.dispose();
+    }
+
+    @Test
+    void rejectsWhenTheQueueIsFull() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1);
+        limiter.acquire().block();
+        Disposable waiting = limiter.acquire().subscribe();
+
+        StepVerifier.create(limiter.acquire())
+                .expectErrorSatisfies(e -> assertThat(((ResponseStatusException) e).getStatusCode())
+                        .isEqualTo(HttpStatus.TOO_MANY_REQUESTS))
+                .verify();
+        waiting.dispose();
+    }
+
+    @Test
+    void rejectsAfterTheMaximumWaitAndLeavesTheQueue() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 1, 1,
+                Duration.ofMillis(50), Duration.ofSeconds(1), Duration.ofSeconds(60), 0.5);
+        Permit first = limiter.acquire().block();
+
+        StepVerifier.create(limiter.acquire())
+                .expectError(ResponseStatusException.class)
+                .verify(Duration.ofSeconds(5));
+
+        assertThat(limiter.getQueueDepth()).isZero();
+        first.release(Outcome.SUCCESS, FAST);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(int initialLimit, int minLimit, int maxLimit) {
+        return new AdaptiveConcurrencyLimiter("test", initialLimit, minLimit, maxLimit, 1, Duration.ofSeconds(5),
+                Duration.ofSeconds(1), Duration.ofSeconds(60), 0.5);
+    }
+}